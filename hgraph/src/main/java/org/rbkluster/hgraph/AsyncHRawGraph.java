@@ -0,0 +1,252 @@
+package org.rbkluster.hgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Non-blocking facade over a {@link HRawGraph}.  Each call runs the matching
+ * {@link HRawGraph} method on a pool of {@link #THREADS} threads and returns
+ * a {@link ListenableFuture} for its result, so independent lookups overlap.
+ * At most {@link #MAX_IN_FLIGHT} calls may be queued or running; further
+ * calls block the caller until one completes.
+ */
+public class AsyncHRawGraph {
+	public static final String THREADS = "hgraph.async.threads";
+	public static final String MAX_IN_FLIGHT = "hgraph.async.max.in.flight";
+	public static final int DEFAULT_THREADS = 32;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+	
+	protected HRawGraph raw;
+	protected ListeningExecutorService executor;
+	protected Semaphore inFlight;
+	
+	public AsyncHRawGraph(HRawGraph raw) {
+		this(raw, raw.conf.getInt(THREADS, DEFAULT_THREADS), raw.conf.getInt(MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT));
+	}
+	
+	public AsyncHRawGraph(HRawGraph raw, int threads, int maxInFlight) {
+		if(threads <= 0 || maxInFlight <= 0)
+			throw new IllegalArgumentException("concurrency limits must be positive");
+		this.raw = raw;
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), raw.daemonThreads("client"));
+		pool.allowCoreThreadTimeOut(true);
+		executor = MoreExecutors.listeningDecorator(pool);
+		inFlight = new Semaphore(maxInFlight);
+	}
+	
+	protected <T> ListenableFuture<T> submit(Callable<T> task) {
+		try {
+			inFlight.acquire();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Futures.immediateFailedFuture(e);
+		}
+		ListenableFuture<T> f;
+		try {
+			f = executor.submit(task);
+		} catch(RuntimeException e) {
+			inFlight.release();
+			throw e;
+		}
+		f.addListener(new Runnable() {
+			@Override
+			public void run() {
+				inFlight.release();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return f;
+	}
+	
+	/**
+	 * Number of calls that can be made before callers block.
+	 */
+	public int getAvailable() {
+		return inFlight.availablePermits();
+	}
+	
+	public HRawGraph getRaw() {
+		return raw;
+	}
+	
+	public ListenableFuture<byte[]> addVertex(final byte[] vid) {
+		return submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return raw.addVertex(vid);
+			}
+		});
+	}
+	
+	public ListenableFuture<Boolean> vertexExists(final byte[] vid) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return raw.vertexExists(vid);
+			}
+		});
+	}
+	
+	public ListenableFuture<Void> removeVertex(final byte[] vid) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				raw.removeVertex(vid);
+				return null;
+			}
+		});
+	}
+	
+	public ListenableFuture<byte[]> addEdge(final byte[] eid, final byte[] vout, final byte[] vin, final byte[] label) {
+		return submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return raw.addEdge(eid, vout, vin, label);
+			}
+		});
+	}
+	
+	public ListenableFuture<Boolean> edgeExists(final byte[] eid) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return raw.edgeExists(eid);
+			}
+		});
+	}
+	
+	public ListenableFuture<Void> removeEdge(final byte[] eid) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				raw.removeEdge(eid);
+				return null;
+			}
+		});
+	}
+	
+	public ListenableFuture<byte[]> getOutVertex(final byte[] eid) {
+		return submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return raw.getOutVertex(eid);
+			}
+		});
+	}
+	
+	public ListenableFuture<byte[]> getInVertex(final byte[] eid) {
+		return submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return raw.getInVertex(eid);
+			}
+		});
+	}
+	
+	/**
+	 * Out edges of {@code vid} with the given label, or all if it is null,
+	 * read in full.
+	 */
+	public ListenableFuture<List<byte[][]>> getEdgesOut(final byte[] vid, final byte[] label) {
+		return submit(new Callable<List<byte[][]>>() {
+			@Override
+			public List<byte[][]> call() throws Exception {
+				return Lists.newArrayList(raw.getEdgesOut(vid, label, Integer.MAX_VALUE));
+			}
+		});
+	}
+	
+	public ListenableFuture<List<byte[][]>> getEdgesIn(final byte[] vid, final byte[] label) {
+		return submit(new Callable<List<byte[][]>>() {
+			@Override
+			public List<byte[][]> call() throws Exception {
+				return Lists.newArrayList(raw.getEdgesIn(vid, label, Integer.MAX_VALUE));
+			}
+		});
+	}
+	
+	public ListenableFuture<byte[]> getVertexProperty(final byte[] vid, final byte[] pkey) {
+		return submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return raw.getVertexProperty(vid, pkey);
+			}
+		});
+	}
+	
+	public ListenableFuture<byte[][]> getVertexProperties(final List<byte[]> vids, final byte[] pkey) {
+		final List<byte[]> ids = new ArrayList<>(vids);
+		return submit(new Callable<byte[][]>() {
+			@Override
+			public byte[][] call() throws Exception {
+				return raw.getVertexProperties(ids, pkey);
+			}
+		});
+	}
+	
+	/**
+	 * Sets a vertex property, or removes it if {@code pval} is null, as
+	 * {@link HRawGraph#upsertVertexProperty(byte[], byte[], byte[])}.
+	 */
+	public ListenableFuture<Void> setVertexProperty(final byte[] vid, final byte[] pkey, final byte[] pval) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				raw.upsertVertexProperty(vid, pkey, pval);
+				return null;
+			}
+		});
+	}
+	
+	public ListenableFuture<byte[]> getEdgeProperty(final byte[] eid, final byte[] pkey) {
+		return submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return raw.getEdgeProperty(eid, pkey);
+			}
+		});
+	}
+	
+	public ListenableFuture<byte[][]> getEdgeProperties(final List<byte[]> eids, final byte[] pkey) {
+		final List<byte[]> ids = new ArrayList<>(eids);
+		return submit(new Callable<byte[][]>() {
+			@Override
+			public byte[][] call() throws Exception {
+				return raw.getEdgeProperties(ids, pkey);
+			}
+		});
+	}
+	
+	public ListenableFuture<Void> setEdgeProperty(final byte[] eid, final byte[] pkey, final byte[] pval) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				raw.upsertEdgeProperty(eid, pkey, pval);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Stops the thread pool once queued calls have run.  Does not shut down
+	 * the underlying {@link HRawGraph}.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + raw + "]";
+	}
+}
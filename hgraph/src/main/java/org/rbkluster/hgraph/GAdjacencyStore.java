@@ -0,0 +1,433 @@
+package org.rbkluster.hgraph;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Off-heap cache of lists of byte array tuples, meant for adjacency lists.
+ * Each list is packed into one record, its fields behind varint lengths,
+ * appended to the current direct {@link ByteBuffer} slab.  An open
+ * addressing table of record locations, probed linearly, finds the record
+ * of a key; the heap holds only that table.
+ * <p>
+ * Slabs, at most {@code maxBytes} of them, are evicted whole and oldest
+ * first, dropping the records still indexed in them.  A record read from
+ * the older half of the slabs is first copied to the current slab, giving
+ * lists in use a second chance.  Slabs of the default size are kept for
+ * reuse; a record larger than that gets a slab of its own.  Replaced and
+ * removed records stay in their slab until it is evicted.
+ * <p>
+ * Reads decode the record outside the lock from a view of its slab.  Slab
+ * ids are never reused, so a read whose slab id is below the oldest one
+ * afterwards may have seen the slab reused, and counts as a miss.
+ */
+public class GAdjacencyStore {
+	public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+	
+	private static final int MIN_CAPACITY = 16;
+	
+	private final long maxBytes;
+	private final int slabSize;
+	
+	private final Map<Integer, ByteBuffer> slabs = new HashMap<>();
+	private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+	private int oldestSlab = 1;
+	private int nextSlab = 1;
+	private long allocated;
+	
+	private long[] locations = new long[MIN_CAPACITY];
+	private int size;
+	private long generation;
+	
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	public GAdjacencyStore(long maxBytes) {
+		this(maxBytes, (int) Math.min(DEFAULT_SLAB_SIZE, Math.max(maxBytes / 8, 1)));
+	}
+	
+	public GAdjacencyStore(long maxBytes, int slabSize) {
+		if(maxBytes <= 0 || slabSize <= 0 || slabSize > maxBytes)
+			throw new IllegalArgumentException("slab size must be positive and at most the store size");
+		this.maxBytes = maxBytes;
+		this.slabSize = slabSize;
+	}
+	
+	private static int hash(byte[] key) {
+		return (int) GIdAllocator.mix(Arrays.hashCode(key));
+	}
+	
+	private static long location(int slab, int offset) {
+		return (long) slab << 32 | offset;
+	}
+	
+	private static int varintSize(int v) {
+		int n = 1;
+		while((v >>>= 7) != 0)
+			n++;
+		return n;
+	}
+	
+	private static void putVarint(ByteBuffer buf, int v) {
+		while((v & ~0x7f) != 0) {
+			buf.put((byte) (v & 0x7f | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte) v);
+	}
+	
+	/**
+	 * Reads a varint of {@code buf} at {@code pos[0]}, advancing it.
+	 */
+	private static int getVarint(ByteBuffer buf, int[] pos) {
+		int v = 0;
+		for(int shift = 0;; shift += 7) {
+			byte b = buf.get(pos[0]++);
+			v |= (b & 0x7f) << shift;
+			if(b >= 0)
+				return v;
+		}
+	}
+	
+	/**
+	 * Bytes of the record of {@code tuples} under {@code key}: its length,
+	 * the key, the arity and count, then every field as its length plus one,
+	 * 0 for null, and its bytes.
+	 */
+	private static long recordSize(byte[] key, int arity, List<byte[][]> tuples) {
+		long size = 4 + varintSize(key.length) + key.length + varintSize(arity) + varintSize(tuples.size());
+		for(byte[][] t : tuples) {
+			for(int i = 0; i < arity; i++)
+				size += t[i] == null ? 1 : varintSize(t[i].length + 1) + t[i].length;
+		}
+		return size;
+	}
+	
+	private boolean keyMatches(long location, byte[] key) {
+		ByteBuffer slab = slabs.get((int) (location >>> 32));
+		int[] pos = {(int) location + 4};
+		if(getVarint(slab, pos) != key.length)
+			return false;
+		for(int i = 0; i < key.length; i++) {
+			if(slab.get(pos[0] + i) != key[i])
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Index of the slot holding {@code key}, or of the empty slot where it
+	 * belongs.
+	 */
+	private int slot(byte[] key) {
+		int mask = locations.length - 1;
+		for(int i = hash(key) & mask;; i = (i + 1) & mask) {
+			if(locations[i] == 0 || keyMatches(locations[i], key))
+				return i;
+		}
+	}
+	
+	private byte[] keyAt(long location) {
+		ByteBuffer slab = slabs.get((int) (location >>> 32));
+		int[] pos = {(int) location + 4};
+		byte[] key = new byte[getVarint(slab, pos)];
+		for(int i = 0; i < key.length; i++)
+			key[i] = slab.get(pos[0] + i);
+		return key;
+	}
+	
+	/**
+	 * Empties slot {@code i}, shifting back the entries probed past it.
+	 */
+	private void clearSlot(int i) {
+		int mask = locations.length - 1;
+		locations[i] = 0;
+		size--;
+		for(int j = (i + 1) & mask; locations[j] != 0; j = (j + 1) & mask) {
+			long loc = locations[j];
+			locations[j] = 0;
+			int k = hash(keyAt(loc)) & mask;
+			while(locations[k] != 0)
+				k = (k + 1) & mask;
+			locations[k] = loc;
+		}
+	}
+	
+	private void rehash() {
+		long[] old = locations;
+		locations = new long[old.length * 2];
+		int mask = locations.length - 1;
+		for(long loc : old) {
+			if(loc == 0)
+				continue;
+			int i = hash(keyAt(loc)) & mask;
+			while(locations[i] != 0)
+				i = (i + 1) & mask;
+			locations[i] = loc;
+		}
+	}
+	
+	/**
+	 * Evicts the oldest slab with all the records still indexed in it.
+	 */
+	private void evictOldest() {
+		int id = oldestSlab++;
+		ByteBuffer slab = slabs.get(id);
+		for(int off = 0; off < slab.position(); off += slab.getInt(off)) {
+			long loc = location(id, off);
+			int i = slot(keyAt(loc));
+			if(locations[i] == loc) {
+				clearSlot(i);
+				evictions++;
+			}
+		}
+		slabs.remove(id);
+		if(slab.capacity() == slabSize)
+			free.add(slab);
+		else
+			allocated -= slab.capacity();
+	}
+	
+	/**
+	 * A slab with {@code size} bytes left, evicting as needed.
+	 */
+	private ByteBuffer room(int size) {
+		ByteBuffer current = slabs.get(nextSlab - 1);
+		if(current != null && current.remaining() >= size)
+			return current;
+		int capacity = Math.max(slabSize, size);
+		ByteBuffer slab;
+		for(;;) {
+			if(capacity == slabSize && !free.isEmpty()) {
+				slab = free.poll();
+				slab.clear();
+				break;
+			}
+			if(allocated + capacity <= maxBytes) {
+				slab = ByteBuffer.allocateDirect(capacity);
+				allocated += capacity;
+				break;
+			}
+			if(!free.isEmpty())
+				allocated -= free.poll().capacity();
+			else
+				evictOldest();
+		}
+		slabs.put(nextSlab++, slab);
+		return slab;
+	}
+	
+	/**
+	 * Copies the record of {@code key} at {@code location}, unless it was
+	 * replaced meanwhile, to the current slab.
+	 */
+	private void promote(byte[] key, long location, int recordSize) {
+		if(locations[slot(key)] != location)
+			return;
+		ByteBuffer from = slabs.get((int) (location >>> 32)).duplicate();
+		from.limit((int) location + recordSize);
+		from.position((int) location);
+		byte[] record = new byte[recordSize];
+		from.get(record);
+		ByteBuffer slab = room(recordSize);
+		int off = slab.position();
+		slab.put(record);
+		int i = slot(key);
+		boolean evicted = locations[i] == 0;
+		locations[i] = location(nextSlab - 1, off);
+		if(evicted && ++size * 2 > locations.length)
+			rehash();
+	}
+	
+	/**
+	 * Number of removals so far, taken before reading a list to
+	 * {@link #put(byte[], int, List, long) put}.
+	 */
+	public synchronized long generation() {
+		return generation;
+	}
+	
+	/**
+	 * Like {@link #put(byte[], int, List)} for {@code tuples} read after
+	 * {@link #generation()} returned {@code generation}, but stores nothing
+	 * if anything was removed since, as they may predate that write.
+	 */
+	public synchronized boolean put(byte[] key, int arity, List<byte[][]> tuples, long generation) {
+		return this.generation == generation && put(key, arity, tuples);
+	}
+	
+	/**
+	 * Stores {@code tuples}, all of {@code arity} fields, under {@code key},
+	 * replacing any previous list.  Returns false, storing nothing, if the
+	 * record would not fit in the store.
+	 */
+	public synchronized boolean put(byte[] key, int arity, List<byte[][]> tuples) {
+		drop(key);
+		long recordSize = recordSize(key, arity, tuples);
+		if(recordSize > maxBytes || recordSize > Integer.MAX_VALUE)
+			return false;
+		ByteBuffer slab = room((int) recordSize);
+		int off = slab.position();
+		slab.putInt((int) recordSize);
+		putVarint(slab, key.length);
+		slab.put(key);
+		putVarint(slab, arity);
+		putVarint(slab, tuples.size());
+		for(byte[][] t : tuples) {
+			for(int i = 0; i < arity; i++) {
+				byte[] f = t[i];
+				if(f == null)
+					putVarint(slab, 0);
+				else {
+					putVarint(slab, f.length + 1);
+					slab.put(f);
+				}
+			}
+		}
+		locations[slot(key)] = location(nextSlab - 1, off);
+		if(++size * 2 > locations.length)
+			rehash();
+		return true;
+	}
+	
+	/**
+	 * Decodes the record of {@code recordSize} bytes at {@code off} of
+	 * {@code slab}, or returns null if it is malformed, as a record of a
+	 * reused slab may be.
+	 */
+	private static List<byte[][]> decode(ByteBuffer slab, int off, int recordSize) {
+		try {
+			slab.limit(off + recordSize);
+			int[] pos = {off + 4};
+			int keyLength = getVarint(slab, pos);
+			pos[0] += keyLength;
+			int arity = getVarint(slab, pos);
+			int count = getVarint(slab, pos);
+			if(keyLength < 0 || arity < 0 || count < 0 || count > recordSize || (long) arity * count > recordSize)
+				return null;
+			List<byte[][]> tuples = new ArrayList<>(count);
+			for(int n = 0; n < count; n++) {
+				byte[][] t = new byte[arity][];
+				for(int i = 0; i < arity; i++) {
+					int len = getVarint(slab, pos);
+					if(len == 0)
+						continue;
+					if(len < 0 || len - 1 > off + recordSize - pos[0])
+						return null;
+					t[i] = new byte[len - 1];
+					for(int j = 0; j < t[i].length; j++)
+						t[i][j] = slab.get(pos[0] + j);
+					pos[0] += t[i].length;
+				}
+				tuples.add(t);
+			}
+			return tuples;
+		} catch(IndexOutOfBoundsException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * The tuples under {@code key}, or null.
+	 */
+	public List<byte[][]> get(byte[] key) {
+		long loc;
+		ByteBuffer slab;
+		int recordSize;
+		synchronized(this) {
+			loc = locations[slot(key)];
+			if(loc == 0) {
+				misses++;
+				return null;
+			}
+			hits++;
+			slab = slabs.get((int) (loc >>> 32)).duplicate();
+			recordSize = slab.getInt((int) loc);
+		}
+		List<byte[][]> tuples = decode(slab, (int) loc, recordSize);
+		int id = (int) (loc >>> 32);
+		synchronized(this) {
+			if(id < oldestSlab) {
+				hits--;
+				misses++;
+				return null;
+			}
+			if(tuples == null)
+				throw new IllegalStateException(this + " has a malformed record in slab " + id);
+			if(id - oldestSlab < (nextSlab - oldestSlab) / 2)
+				promote(key, loc, recordSize);
+		}
+		return tuples;
+	}
+	
+	public synchronized boolean remove(byte[] key) {
+		generation++;
+		return drop(key);
+	}
+	
+	private boolean drop(byte[] key) {
+		int i = slot(key);
+		if(locations[i] == 0)
+			return false;
+		clearSlot(i);
+		return true;
+	}
+	
+	/**
+	 * Drops all records, keeping slabs of the default size for reuse.
+	 */
+	public synchronized void clear() {
+		generation++;
+		for(ByteBuffer slab : slabs.values()) {
+			if(slab.capacity() == slabSize)
+				free.add(slab);
+			else
+				allocated -= slab.capacity();
+		}
+		slabs.clear();
+		oldestSlab = nextSlab;
+		locations = new long[MIN_CAPACITY];
+		size = 0;
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * Direct memory held by slabs, in use or kept for reuse.
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocated;
+	}
+	
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	public synchronized long getHitCount() {
+		return hits;
+	}
+	
+	public synchronized long getMissCount() {
+		return misses;
+	}
+	
+	/**
+	 * Records dropped with an evicted slab.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + size() + " lists, " + getAllocatedBytes() + " bytes]";
+	}
+}
@@ -0,0 +1,120 @@
+package org.rbkluster.hgraph;
+
+import java.util.Arrays;
+
+/**
+ * Set of byte arrays without an object per element.  Elements are copied
+ * one after the other into a single arena, each behind its length; an open
+ * addressing table of arena offsets, probed linearly, finds them.  Meant for
+ * the visited ids of a traversal, which only grow.
+ */
+public class GByteSet {
+	private static final int MIN_CAPACITY = 16;
+	
+	private byte[] arena;
+	private int arenaSize;
+	private int[] slots;
+	private int size;
+	
+	public GByteSet() {
+		this(MIN_CAPACITY);
+	}
+	
+	public GByteSet(int expected) {
+		int capacity = MIN_CAPACITY;
+		while(capacity < expected * 2)
+			capacity <<= 1;
+		slots = new int[capacity];
+		arena = new byte[capacity * 8];
+	}
+	
+	private static int hash(byte[] b, int offset, int length) {
+		int h = 1;
+		for(int i = offset; i < offset + length; i++)
+			h = 31 * h + b[i];
+		return (int) GIdAllocator.mix(h);
+	}
+	
+	private boolean matches(int offset, byte[] b) {
+		int len = readLength(offset);
+		if(len != b.length)
+			return false;
+		offset += 4;
+		for(int i = 0; i < len; i++) {
+			if(arena[offset + i] != b[i])
+				return false;
+		}
+		return true;
+	}
+	
+	private int readLength(int offset) {
+		return (arena[offset] & 0xff) << 24 | (arena[offset + 1] & 0xff) << 16 | (arena[offset + 2] & 0xff) << 8 | (arena[offset + 3] & 0xff);
+	}
+	
+	/**
+	 * Index of the slot holding {@code b}, or of the empty slot where it
+	 * belongs.
+	 */
+	private int slot(byte[] b) {
+		int mask = slots.length - 1;
+		for(int i = hash(b, 0, b.length) & mask;; i = (i + 1) & mask) {
+			if(slots[i] == 0 || matches(slots[i] - 1, b))
+				return i;
+		}
+	}
+	
+	public boolean contains(byte[] b) {
+		return slots[slot(b)] != 0;
+	}
+	
+	/**
+	 * Adds a copy of {@code b}.  Returns false if it was already present.
+	 */
+	public boolean add(byte[] b) {
+		int i = slot(b);
+		if(slots[i] != 0)
+			return false;
+		if(arenaSize + 4 + b.length > arena.length)
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + 4 + b.length));
+		int offset = arenaSize;
+		arena[offset] = (byte) (b.length >>> 24);
+		arena[offset + 1] = (byte) (b.length >>> 16);
+		arena[offset + 2] = (byte) (b.length >>> 8);
+		arena[offset + 3] = (byte) b.length;
+		System.arraycopy(b, 0, arena, offset + 4, b.length);
+		arenaSize += 4 + b.length;
+		slots[i] = offset + 1;
+		if(++size * 2 > slots.length)
+			rehash();
+		return true;
+	}
+	
+	private void rehash() {
+		int[] grown = new int[slots.length * 2];
+		int mask = grown.length - 1;
+		for(int offset : slots) {
+			if(offset == 0)
+				continue;
+			int i = hash(arena, offset + 3, readLength(offset - 1)) & mask;
+			while(grown[i] != 0)
+				i = (i + 1) & mask;
+			grown[i] = offset;
+		}
+		slots = grown;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Bytes used by the arena and the table.
+	 */
+	public long getMemorySize() {
+		return arena.length + 4L * slots.length;
+	}
+}
@@ -0,0 +1,7 @@
+package org.rbkluster.hgraph;
+
+public interface GCodec {
+	public byte[] encode(Object value);
+	
+	public Object decode(byte[] bytes);
+}
@@ -9,24 +9,52 @@ public class GConstants {
 	public static final byte[] EDG_TABLE = Bytes.toBytes("_edg");
 	public static final byte[] EDGP_TABLE = Bytes.toBytes("_edgp");
 	public static final byte[] IDX_TABLE = Bytes.toBytes("_idx_");
+	public static final byte[] META_TABLE = Bytes.toBytes("_meta");
 	
 	public static final byte[] VTX_CF = Bytes.toBytes("vtx");
 	public static final byte[] VTX_IS_Q = Bytes.toBytes("is");
 	public static final byte[] VTX_OUT_CF = Bytes.toBytes("out");
 	public static final byte[] VTX_IN_CF = Bytes.toBytes("in");
 	
+	public static final byte[] DEG_CF = Bytes.toBytes("deg");
+	public static final byte[] DEG_OUT_Q = Bytes.toBytes("o");
+	public static final byte[] DEG_IN_Q = Bytes.toBytes("i");
+	public static final byte[] DEG_LABEL_OUT_Q = Bytes.toBytes("O");
+	public static final byte[] DEG_LABEL_IN_Q = Bytes.toBytes("I");
+	
 	public static final byte[] VTXP_CF = Bytes.toBytes("vtxp");
 	
 	public static final byte[] EDG_CF = Bytes.toBytes("edg");
 	public static final byte[] EDG_IS_Q = Bytes.toBytes("is");
 	public static final byte[] EDG_OUT_Q = Bytes.toBytes("out");
 	public static final byte[] EDG_IN_Q = Bytes.toBytes("in");
+	public static final byte[] EDG_LABEL_Q = Bytes.toBytes("label");
 	
 	public static final byte[] EDGP_CF = Bytes.toBytes("edgp");
 	
 	public static final byte[] IDX_VTX_CF = Bytes.toBytes("vtx_idx");
 	public static final byte[] IDX_EDG_CF = Bytes.toBytes("edg_idx");
 	
+	public static final byte[] META_CF = Bytes.toBytes("meta");
+	public static final byte[] META_ID_Q = Bytes.toBytes("id");
+	public static final byte[] META_LABEL_ROW = Bytes.toBytes("label.");
+	public static final byte[] META_LABEL_SEQ_ROW = Bytes.toBytes("label_seq");
+	public static final byte[] META_ID_SEQ_ROW = Bytes.toBytes("id_seq");
+	public static final byte[] META_DEGREES_ROW = Bytes.toBytes("degrees");
+	public static final byte[] META_VALID_Q = Bytes.toBytes("valid");
+	public static final byte[] META_ELEMENTS_ROW = Bytes.toBytes("elements");
+	public static final byte[] META_COUNT_ROW = Bytes.toBytes("count.");
+	public static final byte[] META_VERTICES_Q = Bytes.toBytes("vertices");
+	public static final byte[] META_EDGES_Q = Bytes.toBytes("edges");
+	public static final int COUNT_SHARDS = 16;
+	public static final byte[] META_LAYOUT_ROW = Bytes.toBytes("layout");
+	public static final byte[] META_WIDE_PROPERTIES_Q = Bytes.toBytes("wide_properties");
+	public static final byte[] META_COLOCATED_VERTICES_Q = Bytes.toBytes("colocated_vertices");
+	public static final byte[] META_ADJACENCY_FORMAT_Q = Bytes.toBytes("adjacency_format");
+	
+	public static final int LABEL_ID_LENGTH = 4;
+	public static final byte[] NO_LABEL = new byte[LABEL_ID_LENGTH];
+	
 	public static final byte[] TRUE = Bytes.toBytes(true);
 	public static final byte[] FALSE = Bytes.toBytes(false);
 	
@@ -0,0 +1,66 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Hands out {@link #ID_LENGTH} byte ids from blocks reserved with a single
+ * atomic increment of the id counter in the {@code _meta} table, so the
+ * counter is touched once per {@code blockSize} ids.  Ids are unique across
+ * all clients of a graph.  Sequential ids would all land in the last region
+ * of a table; with mixing on they are passed through a bijective 64 bit mix
+ * so that new rows spread over the whole key space.
+ */
+public class GIdAllocator {
+	public static final int ID_LENGTH = 8;
+	
+	protected HRawGraph raw;
+	protected int blockSize;
+	protected boolean mixed;
+	
+	private long next;
+	private long limit;
+	
+	public GIdAllocator(HRawGraph raw, int blockSize, boolean mixed) {
+		if(blockSize <= 0)
+			throw new IllegalArgumentException("block size must be positive");
+		this.raw = raw;
+		this.blockSize = blockSize;
+		this.mixed = mixed;
+	}
+	
+	public synchronized long nextLong() throws IOException {
+		if(next == limit) {
+			limit = raw.reserveIds(blockSize);
+			next = limit - blockSize;
+		}
+		return next++;
+	}
+	
+	public byte[] newId() throws IOException {
+		long id = nextLong();
+		return Bytes.toBytes(mixed ? mix(id) : id);
+	}
+	
+	/**
+	 * The 64 bit finalizer of MurmurHash3.  Both the xor-shifts and the odd
+	 * multiplications are invertible, so distinct inputs stay distinct.
+	 */
+	public static long mix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+	
+	public int getBlockSize() {
+		return blockSize;
+	}
+	
+	public boolean isMixed() {
+		return mixed;
+	}
+}
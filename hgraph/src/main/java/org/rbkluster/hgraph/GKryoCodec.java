@@ -0,0 +1,174 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.FastInput;
+import com.esotericsoftware.kryo.io.FastOutput;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+
+/**
+ * Thread-safe Kryo codec.  Each thread keeps its own {@link Kryo} and output
+ * buffer.  With a {@link Registrations} store, classes written for the first
+ * time are assigned a registration id that is persisted through the store and
+ * written instead of the class name; values written with class names stay
+ * readable.
+ */
+public class GKryoCodec implements GCodec {
+	private static final Logger log = LoggerFactory.getLogger(GKryoCodec.class);
+	
+	public static final int FIRST_REGISTRATION_ID = 64;
+	
+	private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+	
+	public static interface Registrations {
+		public List<String> load() throws IOException;
+		
+		public boolean store(List<String> expected, List<String> updated) throws IOException;
+	}
+	
+	protected class Resolver extends DefaultClassResolver {
+		protected Local local;
+		
+		@Override
+		public Registration registerImplicit(@SuppressWarnings("rawtypes") Class type) {
+			if(!local.writing || registrations == null)
+				return super.registerImplicit(type);
+			try {
+				allocate(type);
+			} catch(IOException e) {
+				log.warn(GKryoCodec.this + " unable to register " + type.getName() + ", writing class name", e);
+				return super.registerImplicit(type);
+			}
+			local.sync();
+			Registration r = getRegistration(type);
+			return r != null ? r : super.registerImplicit(type);
+		}
+	}
+	
+	protected class Local {
+		protected Resolver resolver = new Resolver();
+		protected Kryo kryo = new Kryo(resolver, new MapReferenceResolver());
+		protected Output output = new FastOutput(256, -1);
+		protected Input input = new FastInput();
+		protected int synced;
+		protected boolean writing;
+		
+		protected Local() {
+			resolver.local = this;
+			kryo.setRegistrationRequired(false);
+		}
+		
+		protected void sync() {
+			List<String> c = classes;
+			for(; synced < c.size(); synced++) {
+				try {
+					kryo.register(Class.forName(c.get(synced), false, kryo.getClassLoader()), FIRST_REGISTRATION_ID + synced);
+				} catch(ClassNotFoundException e) {
+					log.debug("{} registered class {} not found", GKryoCodec.this, c.get(synced));
+				}
+			}
+		}
+	}
+	
+	protected final Registrations registrations;
+	protected volatile List<String> classes = Collections.emptyList();
+	
+	protected final ThreadLocal<Local> local = new ThreadLocal<Local>() {
+		@Override
+		protected Local initialValue() {
+			return new Local();
+		}
+	};
+	
+	public GKryoCodec() {
+		registrations = null;
+	}
+	
+	public GKryoCodec(Registrations registrations) throws IOException {
+		this.registrations = registrations;
+		classes = Collections.unmodifiableList(new ArrayList<>(registrations.load()));
+	}
+	
+	public List<String> getRegisteredClasses() {
+		return classes;
+	}
+	
+	protected synchronized int allocate(Class<?> type) throws IOException {
+		String name = type.getName();
+		for(;;) {
+			int i = classes.indexOf(name);
+			if(i >= 0)
+				return FIRST_REGISTRATION_ID + i;
+			List<String> updated = new ArrayList<>(classes);
+			updated.add(name);
+			if(registrations.store(classes, updated)) {
+				log.debug("{} registered {} as {}", new Object[] {this, name, FIRST_REGISTRATION_ID + classes.size()});
+				classes = Collections.unmodifiableList(updated);
+				continue;
+			}
+			classes = Collections.unmodifiableList(new ArrayList<>(registrations.load()));
+		}
+	}
+	
+	protected synchronized boolean reload() throws IOException {
+		List<String> loaded = registrations.load();
+		if(loaded.size() <= classes.size())
+			return false;
+		classes = Collections.unmodifiableList(new ArrayList<>(loaded));
+		return true;
+	}
+	
+	@Override
+	public byte[] encode(Object value) {
+		Local l = local.get();
+		l.sync();
+		l.output.clear();
+		l.writing = true;
+		try {
+			l.kryo.writeClassAndObject(l.output, value);
+		} finally {
+			l.writing = false;
+		}
+		byte[] b = l.output.toBytes();
+		if(l.output.getBuffer().length > MAX_RETAINED_BUFFER)
+			l.output = new FastOutput(256, -1);
+		return b;
+	}
+	
+	@Override
+	public Object decode(byte[] bytes) {
+		Local l = local.get();
+		l.sync();
+		try {
+			l.input.setBuffer(bytes);
+			return l.kryo.readClassAndObject(l.input);
+		} catch(KryoException e) {
+			try {
+				if(registrations == null || !reload())
+					throw e;
+			} catch(IOException ioe) {
+				throw new KryoException(ioe);
+			}
+			l.sync();
+			l.input.setBuffer(bytes);
+			return l.kryo.readClassAndObject(l.input);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + classes.size() + " registered]";
+	}
+}
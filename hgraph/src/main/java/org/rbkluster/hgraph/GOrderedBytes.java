@@ -0,0 +1,130 @@
+package org.rbkluster.hgraph;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Order-preserving, prefix-free binary encoding for index keys.  Values of
+ * one type sort bytewise in their natural order; every encoding starts with a
+ * type tag so different types never interleave.
+ */
+public class GOrderedBytes {
+	public static final byte BOOLEAN = 0x10;
+	public static final byte BYTE = 0x21;
+	public static final byte SHORT = 0x22;
+	public static final byte INTEGER = 0x23;
+	public static final byte LONG = 0x24;
+	public static final byte FLOAT = 0x31;
+	public static final byte DOUBLE = 0x32;
+	public static final byte DATE = 0x40;
+	public static final byte STRING = 0x50;
+	public static final byte OTHER = (byte) 0xff;
+	
+	public static boolean isOrdered(Object value) {
+		return value instanceof Boolean
+				|| value instanceof Byte
+				|| value instanceof Short
+				|| value instanceof Integer
+				|| value instanceof Long
+				|| value instanceof Float
+				|| value instanceof Double
+				|| value instanceof Date
+				|| value instanceof String;
+	}
+	
+	public static byte[] toBytes(Object value) {
+		if(value instanceof Boolean)
+			return new byte[] {BOOLEAN, (byte) ((Boolean) value ? 1 : 0)};
+		if(value instanceof Byte)
+			return new byte[] {BYTE, (byte) ((Byte) value ^ Byte.MIN_VALUE)};
+		if(value instanceof Short)
+			return tagged(SHORT, Bytes.toBytes((short) ((Short) value ^ Short.MIN_VALUE)));
+		if(value instanceof Integer)
+			return tagged(INTEGER, Bytes.toBytes((Integer) value ^ Integer.MIN_VALUE));
+		if(value instanceof Long)
+			return tagged(LONG, Bytes.toBytes((Long) value ^ Long.MIN_VALUE));
+		if(value instanceof Float) {
+			int bits = Float.floatToIntBits((Float) value);
+			bits = bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE;
+			return tagged(FLOAT, Bytes.toBytes(bits));
+		}
+		if(value instanceof Double) {
+			long bits = Double.doubleToLongBits((Double) value);
+			bits = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+			return tagged(DOUBLE, Bytes.toBytes(bits));
+		}
+		if(value instanceof Date)
+			return tagged(DATE, Bytes.toBytes(((Date) value).getTime() ^ Long.MIN_VALUE));
+		if(value instanceof String) {
+			byte[] utf = Bytes.toBytes((String) value);
+			ByteArrayOutputStream bout = new ByteArrayOutputStream(utf.length + 2);
+			bout.write(STRING);
+			for(byte b : utf) {
+				bout.write(b);
+				if(b == 0)
+					bout.write(0xff);
+			}
+			bout.write(0);
+			return bout.toByteArray();
+		}
+		throw new IllegalArgumentException("not an ordered type:" + (value == null ? null : value.getClass()));
+	}
+	
+	public static byte[] toBytes(Object value, GCodec fallback) {
+		if(isOrdered(value))
+			return toBytes(value);
+		return tagged(OTHER, fallback.encode(value));
+	}
+	
+	public static Object fromBytes(byte[] b) {
+		switch(b[0]) {
+		case BOOLEAN:
+			return b[1] != 0;
+		case BYTE:
+			return (byte) (b[1] ^ Byte.MIN_VALUE);
+		case SHORT:
+			return (short) (Bytes.toShort(b, 1) ^ Short.MIN_VALUE);
+		case INTEGER:
+			return Bytes.toInt(b, 1) ^ Integer.MIN_VALUE;
+		case LONG:
+			return Bytes.toLong(b, 1) ^ Long.MIN_VALUE;
+		case FLOAT: {
+			int bits = Bytes.toInt(b, 1);
+			bits = bits < 0 ? bits ^ Integer.MIN_VALUE : ~bits;
+			return Float.intBitsToFloat(bits);
+		}
+		case DOUBLE: {
+			long bits = Bytes.toLong(b, 1);
+			bits = bits < 0 ? bits ^ Long.MIN_VALUE : ~bits;
+			return Double.longBitsToDouble(bits);
+		}
+		case DATE:
+			return new Date(Bytes.toLong(b, 1) ^ Long.MIN_VALUE);
+		case STRING: {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream(b.length);
+			for(int i = 1; i < b.length; i++) {
+				if(b[i] != 0)
+					bout.write(b[i]);
+				else if(i + 1 < b.length && b[i + 1] == (byte) 0xff)
+					bout.write(b[i++]);
+				else
+					break;
+			}
+			return Bytes.toString(bout.toByteArray());
+		}
+		default:
+			throw new IllegalArgumentException("not an ordered encoding:" + Bytes.toStringBinary(b));
+		}
+	}
+	
+	private static byte[] tagged(byte tag, byte[] b) {
+		byte[] r = new byte[b.length + 1];
+		r[0] = tag;
+		System.arraycopy(b, 0, r, 1, b.length);
+		return r;
+	}
+	
+	private GOrderedBytes() {}
+}
@@ -0,0 +1,133 @@
+package org.rbkluster.hgraph;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates several partitions concurrently on an {@link ExecutorService},
+ * merging their elements in no particular order.  Each iterator starts one
+ * task per partition; the tasks hand elements over through a bounded queue.
+ * An iterator abandoned before exhaustion should be {@link Closeable#close()
+ * closed} so its tasks stop.  Whatever a partition throws, errors included,
+ * is rethrown by the iterator.
+ */
+public class GParallelIterable<T> implements Iterable<T> {
+	public static final int DEFAULT_QUEUE_SIZE = 8192;
+	
+	private static final Object DONE = new Object();
+	
+	private static class Failure {
+		private final Throwable cause;
+		
+		private Failure(Throwable cause) {
+			this.cause = cause;
+		}
+	}
+	
+	protected List<? extends Iterable<? extends T>> partitions;
+	protected ExecutorService executor;
+	protected int queueSize;
+	
+	public GParallelIterable(List<? extends Iterable<? extends T>> partitions, ExecutorService executor) {
+		this(partitions, executor, DEFAULT_QUEUE_SIZE);
+	}
+	
+	public GParallelIterable(List<? extends Iterable<? extends T>> partitions, ExecutorService executor, int queueSize) {
+		this.partitions = partitions;
+		this.executor = executor;
+		this.queueSize = queueSize;
+	}
+	
+	@Override
+	public ParallelIterator iterator() {
+		return new ParallelIterator();
+	}
+	
+	public class ParallelIterator implements Iterator<T>, Closeable {
+		private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueSize);
+		private final List<Future<?>> tasks = new ArrayList<>();
+		private int running;
+		private Object next;
+		
+		protected ParallelIterator() {
+			for(final Iterable<? extends T> partition : partitions) {
+				tasks.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							Object last = DONE;
+							try {
+								for(T t : partition)
+									queue.put(t);
+							} catch(Throwable t) {
+								last = new Failure(t);
+							}
+							queue.put(last);
+						} catch(InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}));
+			}
+			running = tasks.size();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			while(next == null && running > 0) {
+				Object o;
+				try {
+					o = queue.take();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					close();
+					throw new RuntimeException(e);
+				}
+				if(o == DONE)
+					running--;
+				else if(o instanceof Failure) {
+					close();
+					Throwable cause = ((Failure) o).cause;
+					if(cause instanceof Error)
+						throw (Error) cause;
+					if(cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					throw new RuntimeException(cause);
+				} else
+					next = o;
+			}
+			return next != null;
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if(!hasNext())
+				throw new NoSuchElementException();
+			T t = (T) next;
+			next = null;
+			return t;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public void close() {
+			for(Future<?> task : tasks)
+				task.cancel(true);
+			running = 0;
+			next = null;
+			queue.clear();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.rbkluster.hgraph;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link FutureTask} for long running graph operations that reports how
+ * many of its items it has processed so far.  Subclasses implement
+ * {@link #compute()} and call {@link #setTotal(long)} and
+ * {@link #advance(long)} from it.  {@link #cancel(boolean) Cancelling} with
+ * interruption stops the operation at its next check.
+ */
+public abstract class GProgressFuture<V> extends FutureTask<V> {
+	private static class Body<V> implements Callable<V> {
+		private GProgressFuture<V> future;
+		
+		@Override
+		public V call() throws Exception {
+			return future.compute();
+		}
+	}
+	
+	private final AtomicLong done = new AtomicLong();
+	private volatile long total = -1;
+	
+	protected GProgressFuture() {
+		this(new Body<V>());
+	}
+	
+	private GProgressFuture(Body<V> body) {
+		super(body);
+		body.future = this;
+	}
+	
+	protected abstract V compute() throws Exception;
+	
+	public void setTotal(long total) {
+		this.total = total;
+	}
+	
+	public void advance(long items) {
+		done.addAndGet(items);
+	}
+	
+	/**
+	 * Number of items to process, or -1 if not known yet.
+	 */
+	public long getTotal() {
+		return total;
+	}
+	
+	public long getDone() {
+		return done.get();
+	}
+	
+	/**
+	 * Fraction of the items processed, 1 once the operation is done.
+	 */
+	public double getProgress() {
+		if(isDone())
+			return 1;
+		long t = total;
+		return t <= 0 ? 0 : Math.min(1, (double) done.get() / t);
+	}
+}
@@ -0,0 +1,164 @@
+package org.rbkluster.hgraph;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Bounded client side cache of adjacency lists and property lists of a
+ * {@link HRawGraph}, both as lists of byte array tuples.  Entries are
+ * weighed by their approximate heap size and evicted least recently used
+ * first once {@code maxBytes} is reached.  With a positive {@code ttl}
+ * entries also expire that long after being loaded, which bounds how stale
+ * writes of other clients can be; writes of the graph holding this cache
+ * invalidate the entries they touch.  A list read while an invalidation
+ * happened is not kept, see {@link #put(byte[], List, long)}.
+ */
+public class GReadCache {
+	public static final byte VERTEX_PROPERTIES = 'v';
+	public static final byte EDGE_PROPERTIES = 'e';
+	public static final byte EDGES_OUT = 'o';
+	public static final byte EDGES_IN = 'i';
+	
+	protected Cache<ByteBuffer, List<byte[][]>> cache;
+	protected AtomicLong hits = new AtomicLong();
+	protected AtomicLong misses = new AtomicLong();
+	protected AtomicLong evictions = new AtomicLong();
+	protected AtomicLong generation = new AtomicLong();
+	
+	public GReadCache(long maxBytes, long ttl, TimeUnit unit) {
+		CacheBuilder<Object, Object> b = CacheBuilder.newBuilder();
+		b.maximumWeight(maxBytes);
+		if(ttl > 0)
+			b.expireAfterWrite(ttl, unit);
+		cache = b.weigher(new Weigher<ByteBuffer, List<byte[][]>>() {
+			@Override
+			public int weigh(ByteBuffer key, List<byte[][]> value) {
+				return (int) Math.min(Integer.MAX_VALUE, 64 + key.capacity() + sizeOf(value));
+			}
+		}).removalListener(new RemovalListener<ByteBuffer, List<byte[][]>>() {
+			@Override
+			public void onRemoval(RemovalNotification<ByteBuffer, List<byte[][]>> notification) {
+				if(notification.wasEvicted())
+					evictions.incrementAndGet();
+			}
+		}).build();
+	}
+	
+	/**
+	 * Approximate heap size of a list of tuples.
+	 */
+	public static long sizeOf(List<byte[][]> value) {
+		long size = 16 + 8L * value.size();
+		for(byte[][] t : value) {
+			size += 16 + 8L * t.length;
+			for(byte[] b : t)
+				size += b == null ? 0 : 16 + b.length;
+		}
+		return size;
+	}
+	
+	/**
+	 * Key of the entry of element {@code id} with {@code kind}; adjacency
+	 * entries are further told apart by the row prefix they were read with.
+	 */
+	public static byte[] key(byte kind, byte[] id, byte[] rowPrefix) {
+		return Bytes.add(new byte[] {kind}, Bytes.toBytes(id.length), rowPrefix);
+	}
+	
+	/**
+	 * The cached list under {@code key}, or null.
+	 */
+	public List<byte[][]> get(byte[] key) {
+		List<byte[][]> value = cache.getIfPresent(ByteBuffer.wrap(key));
+		(value == null ? misses : hits).incrementAndGet();
+		return value;
+	}
+	
+	/**
+	 * Caches a copy of {@code value} and returns it, unmodifiable.
+	 */
+	public List<byte[][]> put(byte[] key, List<byte[][]> value) {
+		value = Collections.unmodifiableList(new ArrayList<>(value));
+		cache.put(ByteBuffer.wrap(key), value);
+		return value;
+	}
+	
+	/**
+	 * Number of invalidations so far, taken before reading a list to
+	 * {@link #put(byte[], List, long) put}.
+	 */
+	public long generation() {
+		return generation.get();
+	}
+	
+	/**
+	 * Like {@link #put(byte[], List)} for a {@code value} read after
+	 * {@link #generation()} returned {@code generation}, but drops the copy
+	 * again if anything was invalidated since, as it may predate that write.
+	 */
+	public List<byte[][]> put(byte[] key, List<byte[][]> value, long generation) {
+		value = Collections.unmodifiableList(new ArrayList<>(value));
+		ByteBuffer k = ByteBuffer.wrap(key);
+		cache.put(k, value);
+		if(this.generation.get() != generation)
+			cache.asMap().remove(k, value);
+		return value;
+	}
+	
+	public void invalidate(byte[] key) {
+		generation.incrementAndGet();
+		cache.invalidate(ByteBuffer.wrap(key));
+	}
+	
+	public void invalidate(Iterable<byte[]> keys) {
+		for(byte[] key : keys)
+			invalidate(key);
+	}
+	
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		cache.invalidateAll();
+	}
+	
+	public long size() {
+		return cache.size();
+	}
+	
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	/**
+	 * Entries evicted for size or expired, not counting invalidations.
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	public double getHitRate() {
+		long h = hits.get();
+		long n = h + misses.get();
+		return n == 0 ? 1.0 : (double) h / n;
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + size() + " entries, " + hits + " hits, " + misses + " misses]";
+	}
+}
@@ -0,0 +1,359 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offline import of edge lists and vertex property files, bypassing the
+ * region server write path.  Input files are tab separated text:
+ * <pre>
+ * edges:      vout  vin  label  [key  value]...
+ * vertices:   vid  [key  value]...
+ * </pre>
+ * Vertex ids are in the {@link HGraphId} string form, edge ids are generated
+ * by the graph and property values are strings.
+ * <p>
+ * A first job turns every edge line, in its mappers, and all the lines of
+ * each vertex, in its reducers, into the cells {@link HRawBatch} would write
+ * for them, including label ids and entries of existing index tables, and
+ * sorts them into one directory per table.  A second job per table then
+ * writes HFiles split along the regions of that table, which are handed to
+ * {@link LoadIncrementalHFiles}.  All cells of a load get the same
+ * timestamp, so vertices mentioned on many lines collapse into one row.
+ * A property given on several lines of a vertex gets one of its values,
+ * with the index entry of that value.  Index entries of indexed property
+ * values replaced by a load are deleted by cells of the load, the old values
+ * being read from the graph.
+ * Degree counters and element counts, which cannot be written as cells,
+ * are recounted after the load, and the read caches of the graph are
+ * cleared.
+ */
+public class HBulkLoader {
+	private static final Logger log = LoggerFactory.getLogger(HBulkLoader.class);
+	
+	public static final String PREFIX = "hgraph.bulk.prefix";
+	public static final String TIMESTAMP = "hgraph.bulk.timestamp";
+	
+	protected HRawGraph raw;
+	
+	public HBulkLoader(HRawGraph raw) {
+		this.raw = raw;
+	}
+	
+	/**
+	 * Loads {@code edges} and {@code vertices}, either of which may be null,
+	 * using {@code workDir} for intermediate files and HFiles.  The graph
+	 * must use typed properties.
+	 */
+	public void load(Path edges, Path vertices, Path workDir) throws IOException {
+		if(!new HGraph(raw).isTypedProperties())
+			throw new IllegalStateException(raw + " has legacy properties; upgrade the property format first");
+		Configuration conf = new Configuration(raw.conf);
+		conf.set(PREFIX, Bytes.toStringBinary(raw.getPrefix()));
+		conf.setLong(TIMESTAMP, System.currentTimeMillis());
+		
+		Path cells = new Path(workDir, "cells");
+		Path hfiles = new Path(workDir, "hfiles");
+		
+		log.info("{} generating cells from {} and {}", new Object[] {this, edges, vertices});
+		Job job = new Job(conf, this + " cells");
+		job.setJarByClass(HBulkLoader.class);
+		if(edges != null)
+			MultipleInputs.addInputPath(job, edges, TextInputFormat.class, EdgeMapper.class);
+		if(vertices != null) {
+			MultipleInputs.addInputPath(job, vertices, TextInputFormat.class, VertexMapper.class);
+			job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+			job.setMapOutputValueClass(Text.class);
+			job.setReducerClass(VertexReducer.class);
+		} else
+			job.setNumReduceTasks(0);
+		job.setOutputKeyClass(ImmutableBytesWritable.class);
+		job.setOutputValueClass(KeyValue.class);
+		LazyOutputFormat.setOutputFormatClass(job, SequenceFileOutputFormat.class);
+		FileOutputFormat.setOutputPath(job, cells);
+		run(job);
+		
+		FileSystem fs = cells.getFileSystem(conf);
+		List<Job> jobs = new ArrayList<>();
+		List<byte[]> tables = new ArrayList<>();
+		for(FileStatus s : fs.listStatus(cells)) {
+			if(!s.isDir())
+				continue;
+			byte[] tableName = Bytes.toBytes(s.getPath().getName());
+			HTable table = new HTable(conf, tableName);
+			try {
+				log.debug("{} writing hfiles for {}", this, s.getPath().getName());
+				job = new Job(conf, this + " hfiles " + s.getPath().getName());
+				job.setJarByClass(HBulkLoader.class);
+				job.setInputFormatClass(SequenceFileInputFormat.class);
+				FileInputFormat.addInputPath(job, s.getPath());
+				job.setMapperClass(Mapper.class);
+				job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+				job.setMapOutputValueClass(KeyValue.class);
+				HFileOutputFormat.configureIncrementalLoad(job, table);
+				FileOutputFormat.setOutputPath(job, new Path(hfiles, s.getPath().getName()));
+				submit(job);
+			} finally {
+				table.close();
+			}
+			jobs.add(job);
+			tables.add(tableName);
+		}
+		for(Job j : jobs)
+			run(j);
+		
+		LoadIncrementalHFiles loader = new LoadIncrementalHFiles(conf);
+		for(byte[] tableName : tables) {
+			log.debug("{} loading hfiles into {}", this, Bytes.toString(tableName));
+			HTable table = new HTable(conf, tableName);
+			try {
+				loader.doBulkLoad(new Path(hfiles, Bytes.toString(tableName)), table);
+			} catch(IOException e) {
+				throw e;
+			} catch(Exception e) {
+				throw new IOException(e);
+			} finally {
+				table.close();
+			}
+		}
+		log.info("{} loaded {} tables", this, tables.size());
+		if(raw.hasDegreeCounters())
+			raw.recountDegrees();
+		if(raw.hasElementCounters())
+			raw.recountElements();
+		raw.clearReadCaches();
+	}
+	
+	protected static void submit(Job job) throws IOException {
+		try {
+			job.submit();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(job.getJobName() + " interrupted");
+		} catch(ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	protected static void run(Job job) throws IOException {
+		try {
+			if(!job.waitForCompletion(false))
+				throw new IOException(job.getJobName() + " failed");
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(job.getJobName() + " interrupted");
+		} catch(ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * Batch that writes the cells of its mutations to one output directory
+	 * per table instead of sending them.  Old values of indexed vertex
+	 * properties are read from the graph, edges being new, and nothing is
+	 * counted.
+	 */
+	protected static class CellBatch extends HRawBatch {
+		protected MultipleOutputs<ImmutableBytesWritable, KeyValue> out;
+		protected long ts;
+		
+		public CellBatch(HRawGraph raw, MultipleOutputs<ImmutableBytesWritable, KeyValue> out, long ts) {
+			super(raw);
+			this.out = out;
+			this.ts = ts;
+		}
+		
+		@Override
+		protected void queue(byte[] tableName, Mutation m) throws IOException {
+			if(m.getFamilyMap().isEmpty())
+				throw new UnsupportedOperationException(this + " cannot delete whole rows");
+			String path = Bytes.toString(tableName) + "/part";
+			ImmutableBytesWritable row = new ImmutableBytesWritable(m.getRow());
+			try {
+				for(List<KeyValue> kvs : m.getFamilyMap().values()) {
+					for(KeyValue kv : kvs)
+						out.write(row, new KeyValue(m.getRow(), kv.getFamily(), kv.getQualifier(), ts, KeyValue.Type.codeToType(kv.getType()), kv.getValue()), path);
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(this + " interrupted");
+			}
+			// nothing is sent, so there are no pending values to read back
+			pendingVertexIndexed.clear();
+			pendingEdgeIndexed.clear();
+			pendingVertexStates.clear();
+		}
+		
+		@Override
+		protected void count(byte[] vid, byte[] qualifier, long delta) {
+		}
+		
+		@Override
+		protected void countElements(long vertices, long edges) {
+		}
+		
+		/**
+		 * Element counts are recounted after the load, so whether a vertex
+		 * exists is not read.
+		 */
+		@Override
+		protected boolean vertexExists(byte[] vid) {
+			return false;
+		}
+		
+		@Override
+		protected long indexedTimestamp(long cellTimestamp) {
+			return ts;
+		}
+		
+		@Override
+		protected byte[] indexedEdgeProperty(byte[] eid, byte[] pkey, long[] ts) {
+			ts[0] = this.ts;
+			return null;
+		}
+	}
+	
+	/**
+	 * Graph and cell batch of a task writing cells.
+	 */
+	protected static class CellTask {
+		protected HRawGraph raw;
+		protected HGraph graph;
+		protected MultipleOutputs<ImmutableBytesWritable, KeyValue> out;
+		protected CellBatch batch;
+		
+		public CellTask(TaskInputOutputContext<?, ?, ImmutableBytesWritable, KeyValue> context) throws IOException {
+			Configuration conf = context.getConfiguration();
+			raw = new HRawGraph(Bytes.toBytesBinary(conf.get(PREFIX)), conf);
+			graph = new HGraph(raw);
+			out = new MultipleOutputs<>(context);
+			batch = new CellBatch(raw, out, conf.getLong(TIMESTAMP, System.currentTimeMillis()));
+		}
+		
+		public Map<byte[], byte[]> properties(String[] fields, int off) {
+			Map<byte[], byte[]> properties = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+			for(int i = off; i + 1 < fields.length; i += 2)
+				properties.put(Bytes.toBytes(fields[i]), graph.encodeProperty(fields[i], fields[i+1]));
+			return properties;
+		}
+		
+		public void close() throws IOException, InterruptedException {
+			try {
+				out.close();
+			} finally {
+				raw.shutdown();
+			}
+		}
+	}
+	
+	public static class EdgeMapper extends Mapper<LongWritable, Text, ImmutableBytesWritable, KeyValue> {
+		protected CellTask task;
+		
+		@Override
+		protected void setup(Context context) throws IOException {
+			task = new CellTask(context);
+		}
+		
+		@Override
+		protected void map(LongWritable key, Text value, Context context) throws IOException {
+			String line = value.toString();
+			if(line.trim().isEmpty())
+				return;
+			String[] fields = line.split("\t", -1);
+			if(fields.length < 3)
+				throw new IllegalArgumentException("edge line needs vout, vin and label: " + Arrays.toString(fields));
+			byte[] vout = Bytes.toBytesBinary(fields[0]);
+			byte[] vin = Bytes.toBytesBinary(fields[1]);
+			task.batch.addVertex(vout);
+			task.batch.addVertex(vin);
+			byte[] eid = task.batch.addEdge(null, vout, vin, Bytes.toBytes(fields[2]));
+			Map<byte[], byte[]> properties = task.properties(fields, 3);
+			properties.put(Bytes.toBytes(HGraphEdge.LABEL), task.graph.encodeProperty(HGraphEdge.LABEL, fields[2]));
+			task.batch.setEdgeProperties(eid, properties);
+		}
+		
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			task.close();
+		}
+	}
+	
+	/**
+	 * Sends each vertex line to the {@link VertexReducer} of its vertex.
+	 */
+	public static class VertexMapper extends Mapper<LongWritable, Text, ImmutableBytesWritable, Text> {
+		@Override
+		protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+			String line = value.toString();
+			if(line.trim().isEmpty())
+				return;
+			context.write(new ImmutableBytesWritable(Bytes.toBytesBinary(line.split("\t", 2)[0])), value);
+		}
+	}
+	
+	/**
+	 * Writes the cells of a vertex from all its lines, merging their
+	 * properties first so that each gets a single value and index entry.
+	 */
+	public static class VertexReducer extends Reducer<ImmutableBytesWritable, Text, ImmutableBytesWritable, KeyValue> {
+		protected CellTask task;
+		
+		@Override
+		protected void setup(Context context) throws IOException {
+			task = new CellTask(context);
+		}
+		
+		@Override
+		protected void reduce(ImmutableBytesWritable key, Iterable<Text> values, Context context) throws IOException {
+			byte[] vid = key.copyBytes();
+			Map<byte[], byte[]> properties = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+			for(Text value : values)
+				properties.putAll(task.properties(value.toString().split("\t", -1), 1));
+			task.batch.addVertex(vid);
+			task.batch.setVertexProperties(vid, properties);
+		}
+		
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			task.close();
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + Bytes.toString(raw.getPrefix()) + "]";
+	}
+}
@@ -1,14 +1,22 @@
 package org.rbkluster.hgraph;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.tinkerpop.blueprints.Edge;
@@ -19,33 +27,217 @@ import com.tinkerpop.blueprints.GraphQuery;
 import com.tinkerpop.blueprints.KeyIndexableGraph;
 import com.tinkerpop.blueprints.Parameter;
 import com.tinkerpop.blueprints.Vertex;
-import com.tinkerpop.blueprints.util.DefaultGraphQuery;
 import com.tinkerpop.blueprints.util.StringFactory;
 
 public class HGraph implements Graph, KeyIndexableGraph {
+	private static final Logger log = LoggerFactory.getLogger(HGraph.class);
+	
 	private static final byte[] META_ROW = Bytes.toBytes(HGraph.class.getName() + ".META_ROW");
 	private static final byte[] VERTEX_INDEXES = Bytes.toBytes("vertex_indexes");
 	private static final byte[] EDGE_INDEXES = Bytes.toBytes("edge_indexes");
-
+	private static final byte[] PROPERTY_FORMAT = Bytes.toBytes("property_format");
+	private static final byte[] KRYO_CLASSES = Bytes.toBytes("kryo_classes");
+	private static final byte[] UPGRADE_INDEXES = Bytes.toBytes("upgrade_indexes");
+	
+	public static final int LEGACY_PROPERTY_FORMAT = 1;
+	public static final int TYPED_PROPERTY_FORMAT = 2;
+	public static final int ORDERED_PROPERTY_FORMAT = 3;
+	
 	protected HRawGraph raw;
 	protected Set<String> vertexIndexes = new TreeSet<>();
 	protected Set<String> edgeIndexes = new TreeSet<>();
+	protected int propertyFormat = LEGACY_PROPERTY_FORMAT;
+	protected GKryoCodec codec;
+	protected Map<String, GCodec> propertyCodecs = new ConcurrentHashMap<>();
+	
+	protected class OrderedIndexEncoder implements HRawGraph.IndexEncoder {
+		@Override
+		public byte[] toIndexKey(byte[] pkey, byte[] pval) {
+			String key = Bytes.toString(pkey);
+			return GOrderedBytes.toBytes(decodeProperty(key, pval), getPropertyCodec(key));
+		}
+	}
+	
+	protected class KryoRegistrations implements GKryoCodec.Registrations {
+		@SuppressWarnings("unchecked")
+		@Override
+		public List<String> load() throws IOException {
+			byte[] classes = raw.getVertexProperty(META_ROW, KRYO_CLASSES);
+			if(classes == null)
+				return new ArrayList<>();
+			return (List<String>) GBytes.fromKryoBytes(classes);
+		}
+		
+		@Override
+		public boolean store(List<String> expected, List<String> updated) throws IOException {
+			byte[] old = expected.isEmpty() ? null : GBytes.toKryoBytes(new ArrayList<>(expected));
+			return raw.checkAndSetVertexProperty(META_ROW, KRYO_CLASSES, old, GBytes.toKryoBytes(new ArrayList<>(updated)));
+		}
+	}
 	
 	public HGraph(HRawGraph raw) throws IOException {
 		this.raw = raw;
-		raw.addVertex(META_ROW);
+		if(!raw.vertexExists(META_ROW))
+			raw.addVertex(META_ROW);
 		
-		if(raw.getVertexProperty(META_ROW, VERTEX_INDEXES) == null)
+		if(raw.getVertexProperty(META_ROW, VERTEX_INDEXES) == null) {
+			raw.setVertexProperty(META_ROW, PROPERTY_FORMAT, GBytes.toKryoBytes(ORDERED_PROPERTY_FORMAT));
 			raw.setVertexProperty(META_ROW, VERTEX_INDEXES, GBytes.toKryoBytes(vertexIndexes));
+		}
 		if(raw.getVertexProperty(META_ROW, EDGE_INDEXES) == null)
 			raw.setVertexProperty(META_ROW, EDGE_INDEXES, GBytes.toKryoBytes(edgeIndexes));
 		
+		if(raw.getVertexProperty(META_ROW, PROPERTY_FORMAT) != null)
+			propertyFormat = (Integer) GBytes.fromKryoBytes(raw.getVertexProperty(META_ROW, PROPERTY_FORMAT));
+		
+		codec = new GKryoCodec(new KryoRegistrations());
+		if(isOrderedIndexes())
+			raw.setIndexEncoder(new OrderedIndexEncoder());
+		
 		if(raw.getVertexProperty(META_ROW, VERTEX_INDEXES) != null)
 			vertexIndexes = (Set<String>) GBytes.fromKryoBytes(raw.getVertexProperty(META_ROW, VERTEX_INDEXES));
 		if(raw.getVertexProperty(META_ROW, EDGE_INDEXES) != null)
 			edgeIndexes = (Set<String>) GBytes.fromKryoBytes(raw.getVertexProperty(META_ROW, EDGE_INDEXES));
 	}
 	
+	/**
+	 * Writes graph metadata through a batch of its own, so that it is not
+	 * part of a transaction.
+	 */
+	protected void setMetaProperty(byte[] pkey, Object value) throws IOException {
+		HRawBatch batch = raw.batch();
+		try {
+			batch.setVertexProperty(META_ROW, pkey, GBytes.toKryoBytes(value));
+		} finally {
+			batch.close();
+		}
+	}
+	
+	public HRawGraph getRaw() {
+		return raw;
+	}
+	
+	public int getPropertyFormat() {
+		return propertyFormat;
+	}
+	
+	public boolean isTypedProperties() {
+		return propertyFormat >= TYPED_PROPERTY_FORMAT;
+	}
+	
+	public boolean isOrderedIndexes() {
+		return propertyFormat >= ORDERED_PROPERTY_FORMAT;
+	}
+	
+	public GCodec getPropertyCodec(String key) {
+		GCodec c = propertyCodecs.get(key);
+		return c != null ? c : codec;
+	}
+	
+	public void setPropertyCodec(String key, GCodec codec) {
+		if(codec == null)
+			propertyCodecs.remove(key);
+		else
+			propertyCodecs.put(key, codec);
+	}
+	
+	protected byte[] encodeProperty(String key, Object value) {
+		return getPropertyCodec(key).encode(value);
+	}
+	
+	protected Object decodeProperty(String key, byte[] value) {
+		return getPropertyCodec(key).decode(value);
+	}
+	
+	protected byte[] toIndexValue(String key, Object value) {
+		if(isOrderedIndexes())
+			return GOrderedBytes.toBytes(value, getPropertyCodec(key));
+		if(isTypedProperties())
+			return encodeProperty(key, value);
+		byte[] pval = GBytes.toKryoBytes(value);
+		return Bytes.tail(pval, pval.length - 1);
+	}
+	
+	/**
+	 * Rewrites legacy properties in the typed format and rebuilds the index
+	 * tables with ordered index keys.  The keys of the dropped index tables
+	 * are stored in the graph metadata first, so an upgrade interrupted by a
+	 * failure rebuilds them when run again.
+	 */
+	@SuppressWarnings("unchecked")
+	public void upgradePropertyFormat() {
+		try {
+			byte[] pending = raw.getVertexProperty(META_ROW, UPGRADE_INDEXES);
+			if(isOrderedIndexes() && pending == null)
+				return;
+			log.info("{} upgrading property format {} to {}", new Object[] {this, propertyFormat, ORDERED_PROPERTY_FORMAT});
+			Set<String> keys = new TreeSet<>();
+			if(pending != null)
+				keys.addAll((Set<String>) GBytes.fromKryoBytes(pending));
+			for(byte[] pkey : raw.getIndexKeys())
+				keys.add(Bytes.toString(pkey));
+			setMetaProperty(UPGRADE_INDEXES, keys);
+			for(byte[] pkey : new ArrayList<>(raw.getIndexKeys()))
+				raw.dropIndex(pkey);
+			
+			if(!isTypedProperties()) {
+				HRawBatch batch = raw.batch();
+				try {
+					for(byte[] vid : raw.getAllVertices()) {
+						if(!Arrays.equals(META_ROW, vid))
+							upgradeProperties(batch, vid, raw.getVertexProperties(vid), true);
+					}
+					for(byte[] eid : raw.getAllEdges())
+						upgradeProperties(batch, eid, raw.getEdgeProperties(eid), false);
+				} finally {
+					batch.close();
+				}
+			}
+			
+			setMetaProperty(PROPERTY_FORMAT, ORDERED_PROPERTY_FORMAT);
+			propertyFormat = ORDERED_PROPERTY_FORMAT;
+			raw.setIndexEncoder(new OrderedIndexEncoder());
+			
+			for(String key : keys) {
+				byte[] pkey = Bytes.toBytes(key);
+				raw.createIndex(pkey);
+				if(vertexIndexes.contains(key))
+					raw.reindexVertices(pkey);
+				if(edgeIndexes.contains(key))
+					raw.reindexEdges(pkey);
+			}
+			
+			HRawBatch batch = raw.batch();
+			try {
+				batch.removeVertexProperty(META_ROW, UPGRADE_INDEXES);
+			} finally {
+				batch.close();
+			}
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	protected void upgradeProperties(HRawBatch batch, byte[] id, Iterable<byte[][]> properties, boolean vertex) throws IOException {
+		Map<byte[], byte[]> values = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		for(byte[][] p : properties)
+			values.put(p[0], p[1]);
+		for(Map.Entry<byte[], byte[]> e : values.entrySet()) {
+			byte[] typeKey = Bytes.add(e.getKey(), HGraphElement.TYPE_SUFFIX);
+			byte[] type = values.get(typeKey);
+			if(type == null)
+				continue;
+			byte[] typed = Bytes.add(type, e.getValue());
+			if(vertex) {
+				batch.setVertexProperty(id, e.getKey(), typed);
+				batch.removeVertexProperty(id, typeKey, type);
+			} else {
+				batch.setEdgeProperty(id, e.getKey(), typed);
+				batch.removeEdgeProperty(id, typeKey, type);
+			}
+		}
+	}
+	
 	@Override
 	public Features getFeatures() {
 		Features f = new Features();
@@ -82,7 +274,7 @@ public class HGraph implements Graph, KeyIndexableGraph {
 		
 		return f;
 	}
-
+	
 	protected byte[] idToByteId(Object id) {
 		if(id == null)
 			return null;
@@ -99,12 +291,12 @@ public class HGraph implements Graph, KeyIndexableGraph {
 	public Vertex addVertex(Object id) {
 		byte[] vid = idToByteId(id);
 		try {
-			return new HGraphVertex(raw, raw.addVertex(vid));
+			return new HGraphVertex(this, raw.addVertex(vid));
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
-
+	
 	@Override
 	public Vertex getVertex(Object id) {
 		if(id == null)
@@ -118,9 +310,9 @@ public class HGraph implements Graph, KeyIndexableGraph {
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		return new HGraphVertex(raw, vid);
+		return new HGraphVertex(this, vid);
 	}
-
+	
 	@Override
 	public void removeVertex(Vertex vertex) {
 		byte[] vid = ((HGraphId) vertex.getId()).getId();
@@ -130,7 +322,27 @@ public class HGraph implements Graph, KeyIndexableGraph {
 			throw new RuntimeException(e);
 		}
 	}
-
+	
+	/**
+	 * Number of vertices, from the {@link HRawGraph#getVertexCount() counts}
+	 * of the graph.
+	 */
+	public long getVertexCount() {
+		try {
+			return raw.getVertexCount() - (raw.vertexExists(META_ROW) ? 1 : 0);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public long getEdgeCount() {
+		try {
+			return raw.getEdgeCount();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	@Override
 	public Iterable<Vertex> getVertices() {
 		return new Iterable<Vertex>() {
@@ -150,7 +362,7 @@ public class HGraph implements Graph, KeyIndexableGraph {
 						if(!hasNext())
 							throw new NoSuchElementException();
 						try {
-							return new HGraphVertex(raw, next);
+							return new HGraphVertex(HGraph.this, next);
 						} finally {
 							next = null;
 						}
@@ -171,35 +383,24 @@ public class HGraph implements Graph, KeyIndexableGraph {
 			}
 		};
 	}
-
+	
 	@Override
 	public Iterable<Vertex> getVertices(final String key, final Object value) {
-		if(vertexIndexes.contains(key)) {
-			return new Iterable<Vertex>() {
+		if(vertexIndexes.contains(key))
+			return indexedVertices(raw.getIndexedVertices(Bytes.toBytes(key), toIndexValue(key, value)));
+		if(isPropertyScan(value)) {
+			Iterable<byte[]> vids = raw.getVerticesWithProperty(Bytes.toBytes(key), encodeProperty(key, value));
+			return Iterables.transform(Iterables.filter(vids, new Predicate<byte[]>() {
 				@Override
-				public Iterator<Vertex> iterator() {
-					byte[] pkey = Bytes.toBytes(key);
-					byte[] pval = GBytes.toKryoBytes(value);
-					pval = Bytes.tail(pval, pval.length - 1);
-					final Iterator<byte[][]> vids = raw.getIndexedVertices(pkey, pval).iterator();
-					return new Iterator<Vertex>() {
-						@Override
-						public void remove() {
-							throw new UnsupportedOperationException();
-						}
-						
-						@Override
-						public Vertex next() {
-							return new HGraphVertex(raw, vids.next()[2]);
-						}
-						
-						@Override
-						public boolean hasNext() {
-							return vids.hasNext();
-						}
-					};
+				public boolean apply(byte[] input) {
+					return !Arrays.equals(META_ROW, input);
 				}
-			};
+			}), new Function<byte[], Vertex>() {
+				@Override
+				public Vertex apply(byte[] input) {
+					return new HGraphVertex(HGraph.this, input);
+				}
+			});
 		}
 		Predicate<Vertex> pred = new Predicate<Vertex>() {
 			@Override
@@ -209,7 +410,73 @@ public class HGraph implements Graph, KeyIndexableGraph {
 		};
 		return Iterables.filter(getVertices(), pred);
 	}
-
+	
+	/**
+	 * Vertices whose property {@code key} lies in {@code [start, stop)}.
+	 * Uses a single index range scan when the key is indexed with ordered
+	 * index keys, otherwise filters all vertices.
+	 */
+	public Iterable<Vertex> getVertices(final String key, final Object start, final Object stop) {
+		if(vertexIndexes.contains(key) && isIndexRange(start, stop))
+			return indexedVertices(raw.getIndexedVertices(Bytes.toBytes(key), GOrderedBytes.toBytes(start), GOrderedBytes.toBytes(stop)));
+		Predicate<Vertex> pred = new Predicate<Vertex>() {
+			@Override
+			public boolean apply(Vertex input) {
+				return inRange(input.getProperty(key), start, stop);
+			}
+		};
+		return Iterables.filter(getVertices(), pred);
+	}
+	
+	protected Iterable<Vertex> indexedVertices(final Iterable<byte[][]> rows) {
+		return new Iterable<Vertex>() {
+			@Override
+			public Iterator<Vertex> iterator() {
+				final Iterator<byte[][]> vids = rows.iterator();
+				return new Iterator<Vertex>() {
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+					
+					@Override
+					public Vertex next() {
+						return new HGraphVertex(HGraph.this, vids.next()[2]);
+					}
+					
+					@Override
+					public boolean hasNext() {
+						return vids.hasNext();
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Whether an unindexed lookup of {@code value} can scan the property
+	 * table for its encoded bytes: only typed properties store the whole
+	 * value in one cell, and the scan does not see uncommitted writes.
+	 */
+	protected boolean isPropertyScan(Object value) {
+		return value != null && isTypedProperties() && raw.getTransaction() == null;
+	}
+	
+	protected boolean isIndexRange(Object start, Object stop) {
+		return isOrderedIndexes()
+				&& GOrderedBytes.isOrdered(start)
+				&& GOrderedBytes.isOrdered(stop)
+				&& start.getClass() == stop.getClass();
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static boolean inRange(Object value, Object start, Object stop) {
+		if(!(value instanceof Comparable) || value.getClass() != start.getClass() || value.getClass() != stop.getClass())
+			return false;
+		Comparable c = (Comparable) value;
+		return c.compareTo(start) >= 0 && c.compareTo(stop) < 0;
+	}
+	
 	@Override
 	public Edge addEdge(Object id, Vertex outVertex, Vertex inVertex, String label) {
 		byte[] eid = idToByteId(id);
@@ -219,14 +486,27 @@ public class HGraph implements Graph, KeyIndexableGraph {
 			throw new IllegalArgumentException();
 		HGraphEdge e;
 		try {
-			e = new HGraphEdge(raw, raw.addEdge(eid, vout, vin));
+			e = new HGraphEdge(this, raw.addEdge(eid, vout, vin, Bytes.toBytes(label)), vout, vin, label);
 		} catch (IOException ex) {
 			throw new RuntimeException(ex);
 		}
 		e.forceProperty(HGraphEdge.LABEL, label);
 		return e;
 	}
-
+	
+	/**
+	 * Edge of an adjacency entry {@code {vout, eid, vin, labelId}}, which
+	 * carries its endpoints and label.
+	 */
+	protected HGraphEdge edge(byte[][] e) {
+		try {
+			byte[] label = raw.getLabel(e[3]);
+			return new HGraphEdge(this, e[1], e[0], e[2], label == null ? null : Bytes.toString(label));
+		} catch(IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	
 	@Override
 	public Edge getEdge(Object id) {
 		if(id == null)
@@ -240,9 +520,9 @@ public class HGraph implements Graph, KeyIndexableGraph {
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		return new HGraphEdge(raw, eid);
+		return new HGraphEdge(this, eid);
 	}
-
+	
 	@Override
 	public void removeEdge(Edge edge) {
 		byte[] eid = ((HGraphId) edge.getId()).getId();
@@ -252,7 +532,7 @@ public class HGraph implements Graph, KeyIndexableGraph {
 			throw new RuntimeException(e);
 		}
 	}
-
+	
 	@Override
 	public Iterable<Edge> getEdges() {
 		return new Iterable<Edge>() {
@@ -267,7 +547,7 @@ public class HGraph implements Graph, KeyIndexableGraph {
 					
 					@Override
 					public Edge next() {
-						return new HGraphEdge(raw, eids.next());
+						return new HGraphEdge(HGraph.this, eids.next());
 					}
 					
 					@Override
@@ -278,35 +558,18 @@ public class HGraph implements Graph, KeyIndexableGraph {
 			}
 		};
 	}
-
+	
 	@Override
 	public Iterable<Edge> getEdges(final String key, final Object value) {
-		if(edgeIndexes.contains(key)) {
-			return new Iterable<Edge>() {
+		if(edgeIndexes.contains(key))
+			return indexedEdges(raw.getIndexedEdges(Bytes.toBytes(key), toIndexValue(key, value)));
+		if(isPropertyScan(value)) {
+			return Iterables.transform(raw.getEdgesWithProperty(Bytes.toBytes(key), encodeProperty(key, value)), new Function<byte[], Edge>() {
 				@Override
-				public Iterator<Edge> iterator() {
-					byte[] pkey = Bytes.toBytes(key);
-					byte[] pval = GBytes.toKryoBytes(value);
-					pval = Bytes.tail(pval, pval.length - 1);
-					final Iterator<byte[][]> eids = raw.getIndexedEdges(pkey, pval).iterator();
-					return new Iterator<Edge>() {
-						@Override
-						public void remove() {
-							throw new UnsupportedOperationException();
-						}
-						
-						@Override
-						public Edge next() {
-							return new HGraphEdge(raw, eids.next()[2]);
-						}
-						
-						@Override
-						public boolean hasNext() {
-							return eids.hasNext();
-						}
-					};
+				public Edge apply(byte[] input) {
+					return new HGraphEdge(HGraph.this, input);
 				}
-			};
+			});
 		}
 		Predicate<Edge> pred = new Predicate<Edge>() {
 			@Override
@@ -316,12 +579,52 @@ public class HGraph implements Graph, KeyIndexableGraph {
 		};
 		return Iterables.filter(getEdges(), pred);
 	}
-
+	
+	/**
+	 * Edges whose property {@code key} lies in {@code [start, stop)}.
+	 */
+	public Iterable<Edge> getEdges(final String key, final Object start, final Object stop) {
+		if(edgeIndexes.contains(key) && isIndexRange(start, stop))
+			return indexedEdges(raw.getIndexedEdges(Bytes.toBytes(key), GOrderedBytes.toBytes(start), GOrderedBytes.toBytes(stop)));
+		Predicate<Edge> pred = new Predicate<Edge>() {
+			@Override
+			public boolean apply(Edge input) {
+				return inRange(input.getProperty(key), start, stop);
+			}
+		};
+		return Iterables.filter(getEdges(), pred);
+	}
+	
+	protected Iterable<Edge> indexedEdges(final Iterable<byte[][]> rows) {
+		return new Iterable<Edge>() {
+			@Override
+			public Iterator<Edge> iterator() {
+				final Iterator<byte[][]> eids = rows.iterator();
+				return new Iterator<Edge>() {
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+					
+					@Override
+					public Edge next() {
+						return new HGraphEdge(HGraph.this, eids.next()[2]);
+					}
+					
+					@Override
+					public boolean hasNext() {
+						return eids.hasNext();
+					}
+				};
+			}
+		};
+	}
+	
 	@Override
 	public GraphQuery query() {
-		return new DefaultGraphQuery(this);
+		return new HGraphQuery(this);
 	}
-
+	
 	@Override
 	public void shutdown() {
 		try {
@@ -330,7 +633,7 @@ public class HGraph implements Graph, KeyIndexableGraph {
 			throw new RuntimeException(e);
 		}
 	}
-
+	
 	@Override
 	public <T extends Element> void dropKeyIndex(String key, Class<T> elementClass) {
 		if(elementClass == Vertex.class)
@@ -338,8 +641,8 @@ public class HGraph implements Graph, KeyIndexableGraph {
 		if(elementClass == Edge.class)
 			edgeIndexes.remove(key);
 		try {
-			raw.setVertexProperty(META_ROW, VERTEX_INDEXES, GBytes.toKryoBytes(vertexIndexes));
-			raw.setVertexProperty(META_ROW, EDGE_INDEXES, GBytes.toKryoBytes(edgeIndexes));
+			setMetaProperty(VERTEX_INDEXES, vertexIndexes);
+			setMetaProperty(EDGE_INDEXES, edgeIndexes);
 		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -351,7 +654,7 @@ public class HGraph implements Graph, KeyIndexableGraph {
 				throw new RuntimeException(e);
 			}
 	}
-
+	
 	@SuppressWarnings("rawtypes")
 	@Override
 	public <T extends Element> void createKeyIndex(String key, Class<T> elementClass, Parameter... indexParameters) {
@@ -361,8 +664,8 @@ public class HGraph implements Graph, KeyIndexableGraph {
 		if(elementClass == Edge.class)
 			add = edgeIndexes.add(key);
 		try {
-			raw.setVertexProperty(META_ROW, VERTEX_INDEXES, GBytes.toKryoBytes(vertexIndexes));
-			raw.setVertexProperty(META_ROW, EDGE_INDEXES, GBytes.toKryoBytes(edgeIndexes));
+			setMetaProperty(VERTEX_INDEXES, vertexIndexes);
+			setMetaProperty(EDGE_INDEXES, edgeIndexes);
 		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -378,7 +681,7 @@ public class HGraph implements Graph, KeyIndexableGraph {
 			throw new RuntimeException(e);
 		}
 	}
-
+	
 	@Override
 	public <T extends Element> Set<String> getIndexedKeys(Class<T> elementClass) {
 		if(elementClass == Vertex.class)
@@ -387,7 +690,7 @@ public class HGraph implements Graph, KeyIndexableGraph {
 			return edgeIndexes;
 		return null;
 	}
-
+	
 	@Override
 	public String toString() {
 		return StringFactory.graphString(this, Bytes.toString(raw.getPrefix()));
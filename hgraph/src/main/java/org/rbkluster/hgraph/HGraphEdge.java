@@ -11,8 +11,23 @@ import com.tinkerpop.blueprints.util.StringFactory;
 public class HGraphEdge extends HGraphElement implements Edge {
 	public static final String LABEL = StringFactory.LABEL;
 	
-	public HGraphEdge(HRawGraph raw, byte[] id) {
-		super(raw, id);
+	protected byte[] vout;
+	protected byte[] vin;
+	protected String label;
+	
+	public HGraphEdge(HGraph graph, byte[] id) {
+		super(graph, id);
+	}
+	
+	/**
+	 * An edge whose endpoints and label are already known, as they are from
+	 * an adjacency row.  Any of them may be null to be read when needed.
+	 */
+	public HGraphEdge(HGraph graph, byte[] id, byte[] vout, byte[] vin, String label) {
+		super(graph, id);
+		this.vout = vout;
+		this.vin = vin;
+		this.label = label;
 	}
 
 	@Override
@@ -21,9 +36,13 @@ public class HGraphEdge extends HGraphElement implements Edge {
 		try {
 			switch(direction) {
 			case OUT:
-				return new HGraphVertex(raw, raw.getOutVertex(id));
+				if(vout == null)
+					vout = raw.getOutVertex(id);
+				return new HGraphVertex(graph, vout);
 			case IN:
-				return new HGraphVertex(raw, raw.getInVertex(id));
+				if(vin == null)
+					vin = raw.getInVertex(id);
+				return new HGraphVertex(graph, vin);
 			default:
 				throw ExceptionFactory.bothIsNotSupported();
 			}
@@ -34,7 +53,9 @@ public class HGraphEdge extends HGraphElement implements Edge {
 
 	@Override
 	public String getLabel() {
-		return getProperty(LABEL);
+		if(label == null)
+			label = getProperty(LABEL);
+		return label;
 	}
 	
 	
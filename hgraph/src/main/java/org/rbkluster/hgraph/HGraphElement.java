@@ -1,8 +1,12 @@
 package org.rbkluster.hgraph;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.apache.hadoop.hbase.util.Bytes;
@@ -15,15 +19,58 @@ import com.tinkerpop.blueprints.util.StringFactory;
 public abstract class HGraphElement implements Element {
 	public static final byte[] TYPE_SUFFIX = Bytes.toBytes("_type");
 	
+	protected HGraph graph;
 	protected HRawGraph raw;
 	protected byte[] id;
+	/**
+	 * Raw properties read by {@link #loadProperties()}, or null.
+	 */
+	protected Map<byte[], byte[]> properties;
 	
-	protected HGraphElement(HRawGraph raw, byte[] id) {
-		this.raw = raw;
+	protected HGraphElement(HGraph graph, byte[] id) {
+		this.graph = graph;
+		this.raw = graph.raw;
 		this.id = id;
 	}
 	
+	/**
+	 * Reads all properties of this element at once and answers later
+	 * property reads from them.  Writes through this object keep them
+	 * current; writes through other objects or clients are not seen.
+	 */
+	public HGraphElement loadProperties() {
+		Map<byte[], byte[]> loaded = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		for(byte[][] p : getRawProperties())
+			loaded.put(p[0], p[1]);
+		properties = loaded;
+		return this;
+	}
+	
+	/**
+	 * All {@code {key, value}} of this element, from
+	 * {@link #loadProperties()} if loaded.
+	 */
+	protected Iterable<byte[][]> getRawProperties() {
+		if(properties != null) {
+			List<byte[][]> ret = new ArrayList<>(properties.size());
+			for(Map.Entry<byte[], byte[]> e : properties.entrySet())
+				ret.add(new byte[][] {e.getKey(), e.getValue()});
+			return ret;
+		}
+		try {
+			if(this instanceof Vertex)
+				return raw.getVertexProperties(id);
+			if(this instanceof Edge)
+				return raw.getEdgeProperties(id);
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		throw new IllegalStateException("neither vertex nor edge:" + this);
+	}
+	
 	protected byte[] getRawProperty(byte[] key) {
+		if(properties != null)
+			return properties.get(key);
 		try {
 			if(this instanceof Vertex)
 				return raw.getVertexProperty(id, key);
@@ -38,33 +85,62 @@ public abstract class HGraphElement implements Element {
 	protected void setRawProperty(byte[] key, byte[] val) {
 		try {
 			if(this instanceof Vertex)
-				raw.setVertexProperty(id, key, val);
+				raw.upsertVertexProperty(id, key, val);
 			else if(this instanceof Edge)
-				raw.setEdgeProperty(id, key, val);
+				raw.upsertEdgeProperty(id, key, val);
 			else
 				throw new IllegalStateException("neither vertex nor edge:" + this);
 		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}
+		if(properties != null) {
+			if(val == null)
+				properties.remove(key);
+			else
+				properties.put(key, val);
+		}
 	}
 	
 	protected void removeRawProperty(byte[] key) {
 		try {
 			if(this instanceof Vertex)
-				raw.removeVertexProperty(id, key);
+				raw.upsertVertexProperty(id, key, null);
+			else if(this instanceof Edge)
+				raw.upsertEdgeProperty(id, key, null);
+			else
+				throw new IllegalStateException("neither vertex nor edge:" + this);
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		if(properties != null)
+			properties.remove(key);
+	}
+	
+	protected void removeRawProperty(byte[] key, byte[] val) {
+		try {
+			if(this instanceof Vertex)
+				raw.removeVertexProperty(id, key, val);
 			else if(this instanceof Edge)
-				raw.removeEdgeProperty(id, key);
+				raw.removeEdgeProperty(id, key, val);
 			else
 				throw new IllegalStateException("neither vertex nor edge:" + this);
 		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}
+		if(properties != null)
+			properties.remove(key);
 	}
 	
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T getProperty(String key) {
 		byte[] keyBytes = Bytes.toBytes(key);
+		if(graph.isTypedProperties()) {
+			byte[] value = getRawProperty(keyBytes);
+			if(value == null)
+				return null;
+			return (T) graph.decodeProperty(key, value);
+		}
 		byte[] typeKeyBytes = Bytes.add(keyBytes, TYPE_SUFFIX);
 		byte[] keyValue = getRawProperty(keyBytes);
 		byte[] typeValue = getRawProperty(typeKeyBytes);
@@ -77,21 +153,12 @@ public abstract class HGraphElement implements Element {
 	public Set<String> getPropertyKeys() {
 		Set<String> keys = new TreeSet<>();
 		
-		Iterable<byte[][]> pki;
-		try {
-			if(this instanceof Vertex)
-				pki = raw.getVertexProperties(id);
-			else if(this instanceof Edge)
-				pki = raw.getEdgeProperties(id);
-			else
-				throw new IllegalStateException("neither vertex nor edge:" + this);
-		} catch(IOException e) {
-			throw new RuntimeException(e);
-		}
+		Iterable<byte[][]> pki = getRawProperties();
 		
+		boolean typed = graph.isTypedProperties();
 		for(byte[][] pk : pki) {
 			byte[] k = pk[0];
-			if(k.length > TYPE_SUFFIX.length) {
+			if(!typed && k.length > TYPE_SUFFIX.length) {
 				byte[] tail = Bytes.tail(k, TYPE_SUFFIX.length);
 				if(Arrays.equals(tail, TYPE_SUFFIX))
 					continue;
@@ -116,6 +183,10 @@ public abstract class HGraphElement implements Element {
 
 	protected void forceProperty(String key, Object value) {
 		byte[] keyBytes = Bytes.toBytes(key);
+		if(graph.isTypedProperties()) {
+			setRawProperty(keyBytes, graph.encodeProperty(key, value));
+			return;
+		}
 		byte[] typeKeyBytes = Bytes.add(keyBytes, TYPE_SUFFIX);
 		byte[] kryoValue = GBytes.toKryoBytes(value);
 		byte[] keyValue = Bytes.tail(kryoValue, kryoValue.length - 1);
@@ -124,8 +195,17 @@ public abstract class HGraphElement implements Element {
 		setRawProperty(typeKeyBytes, typeValue);
 	}
 	
+	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T removeProperty(String key) {
+		if(graph.isTypedProperties()) {
+			byte[] keyBytes = Bytes.toBytes(key);
+			byte[] value = getRawProperty(keyBytes);
+			if(value == null)
+				return null;
+			removeRawProperty(keyBytes, value);
+			return (T) graph.decodeProperty(key, value);
+		}
 		T val = getProperty(key);
 		byte[] keyBytes = Bytes.toBytes(key);
 		byte[] typeKeyBytes = Bytes.add(keyBytes, TYPE_SUFFIX);
@@ -0,0 +1,248 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Predicate;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.DefaultGraphQuery;
+import com.tinkerpop.blueprints.util.StringFactory;
+
+/**
+ * {@link com.tinkerpop.blueprints.GraphQuery} that drives the most selective
+ * indexed predicate through the key index tables: an equality lookup if
+ * there is one, otherwise a bounded range scan over ordered index keys.
+ * Without a usable index it scans all elements.  The remaining predicates
+ * are checked against property values fetched {@link #PROPERTY_BATCH}
+ * elements at a time, and {@code limit} stops the scan early.
+ */
+public class HGraphQuery extends DefaultGraphQuery {
+	public static final int PROPERTY_BATCH = 256;
+	
+	protected HGraph hgraph;
+	
+	public HGraphQuery(HGraph graph) {
+		super(graph);
+		hgraph = graph;
+	}
+	
+	/**
+	 * {@link com.tinkerpop.blueprints.Compare} and
+	 * {@link com.tinkerpop.blueprints.Query.Compare} as
+	 * the latter, which is what {@code Compare} names inside a query.
+	 */
+	protected static Compare compare(Predicate p) {
+		if(p instanceof Compare)
+			return (Compare) p;
+		if(p instanceof com.tinkerpop.blueprints.Compare)
+			return Compare.valueOf(((com.tinkerpop.blueprints.Compare) p).name());
+		return null;
+	}
+	
+	/**
+	 * Evaluates {@code hasContainers} against the elements {@code ids},
+	 * fetching each key's values for all of them with one multi-get.
+	 * Predicates on {@link StringFactory#ID} are checked against the ids.
+	 */
+	protected static boolean[] matches(HGraph graph, List<byte[]> ids, List<HasContainer> hasContainers, boolean vertices) throws IOException {
+		boolean[] legal = new boolean[ids.size()];
+		Arrays.fill(legal, true);
+		if(!graph.isTypedProperties()) {
+			for(int i = 0; i < legal.length; i++) {
+				Element e = vertices ? new HGraphVertex(graph, ids.get(i)) : new HGraphEdge(graph, ids.get(i));
+				for(HasContainer hc : hasContainers)
+					legal[i] &= hc.isLegal(e);
+			}
+			return legal;
+		}
+		for(HasContainer hc : hasContainers) {
+			if(hc.key.equals(StringFactory.ID)) {
+				for(int i = 0; i < legal.length; i++) {
+					if(legal[i])
+						legal[i] = hc.isLegal(vertices ? new HGraphVertex(graph, ids.get(i)) : new HGraphEdge(graph, ids.get(i)));
+				}
+				continue;
+			}
+			byte[] pkey = Bytes.toBytes(hc.key);
+			byte[][] pvals = vertices ? graph.raw.getVertexProperties(ids, pkey) : graph.raw.getEdgeProperties(ids, pkey);
+			for(int i = 0; i < pvals.length; i++) {
+				if(!legal[i])
+					continue;
+				Object value = pvals[i] == null ? null : graph.decodeProperty(hc.key, pvals[i]);
+				legal[i] = hc.predicate.evaluate(value, hc.value);
+			}
+		}
+		return legal;
+	}
+	
+	protected Iterable<byte[][]> indexScan(String key, byte[] start, byte[] stop, boolean vertices) {
+		HRawGraph raw = hgraph.getRaw();
+		byte[] pkey = Bytes.toBytes(key);
+		if(stop == null)
+			return vertices ? raw.getIndexedVertices(pkey, start) : raw.getIndexedEdges(pkey, start);
+		return vertices ? raw.getIndexedVertices(pkey, start, stop) : raw.getIndexedEdges(pkey, start, stop);
+	}
+	
+	/**
+	 * Index rows for the most selective indexed predicate, or null if no
+	 * predicate can use an index.
+	 */
+	protected Iterable<byte[][]> plan(boolean vertices) {
+		Set<String> indexes = vertices ? hgraph.vertexIndexes : hgraph.edgeIndexes;
+		for(HasContainer hc : hasContainers) {
+			if(indexes.contains(hc.key) && compare(hc.predicate) == Compare.EQUAL && hc.value != null)
+				return indexScan(hc.key, hgraph.toIndexValue(hc.key, hc.value), null, vertices);
+		}
+		if(!hgraph.isOrderedIndexes())
+			return null;
+		
+		String rangeKey = null;
+		byte[] rangeStart = null;
+		byte[] rangeStop = null;
+		for(HasContainer hc : hasContainers) {
+			if(!indexes.contains(hc.key))
+				continue;
+			byte[] start = null;
+			byte[] stop = null;
+			byte tag = 0;
+			boolean usable = true;
+			for(HasContainer b : hasContainers) {
+				Compare c = compare(b.predicate);
+				if(!b.key.equals(hc.key) || c == null || c == Compare.EQUAL || c == Compare.NOT_EQUAL)
+					continue;
+				if(!GOrderedBytes.isOrdered(b.value)) {
+					usable = false;
+					break;
+				}
+				byte[] k = GOrderedBytes.toBytes(b.value);
+				if(tag != 0 && tag != k[0]) {
+					usable = false;
+					break;
+				}
+				tag = k[0];
+				if(c == Compare.GREATER_THAN || c == Compare.GREATER_THAN_EQUAL) {
+					if(start == null || Bytes.compareTo(k, start) > 0)
+						start = k;
+				} else {
+					if(c == Compare.LESS_THAN_EQUAL)
+						k = GBytes.endKey(k);
+					if(stop == null || Bytes.compareTo(k, stop) < 0)
+						stop = k;
+				}
+			}
+			if(!usable || tag == 0)
+				continue;
+			boolean closed = start != null && stop != null;
+			if(rangeKey != null && (!closed || rangeStart != null && rangeStop != null))
+				continue;
+			rangeKey = hc.key;
+			rangeStart = start;
+			rangeStop = stop;
+			if(closed)
+				break;
+		}
+		if(rangeKey == null)
+			return null;
+		byte tag = (rangeStart != null ? rangeStart : rangeStop)[0];
+		if(rangeStart == null)
+			rangeStart = new byte[] {tag};
+		if(rangeStop == null)
+			rangeStop = new byte[] {(byte) (tag + 1)};
+		return indexScan(rangeKey, rangeStart, rangeStop, vertices);
+	}
+	
+	protected Iterable<byte[]> candidates(boolean vertices) {
+		Iterable<byte[][]> rows = plan(vertices);
+		if(rows != null) {
+			return Iterables.transform(rows, new Function<byte[][], byte[]>() {
+				@Override
+				public byte[] apply(byte[][] input) {
+					return input[2];
+				}
+			});
+		}
+		Iterable<? extends Element> all = vertices ? hgraph.getVertices() : hgraph.getEdges();
+		return Iterables.transform(all, new Function<Element, byte[]>() {
+			@Override
+			public byte[] apply(Element input) {
+				return ((HGraphId) input.getId()).getId();
+			}
+		});
+	}
+	
+	protected Iterable<byte[]> filtered(final Iterable<byte[]> ids, final boolean vertices) {
+		return new Iterable<byte[]>() {
+			@Override
+			public Iterator<byte[]> iterator() {
+				final Iterator<byte[]> ii = ids.iterator();
+				return new AbstractIterator<byte[]>() {
+					private Iterator<byte[]> accepted = Iterables.<byte[]> concat().iterator();
+					
+					@Override
+					protected byte[] computeNext() {
+						while(!accepted.hasNext()) {
+							if(!ii.hasNext())
+								return endOfData();
+							List<byte[]> chunk = new ArrayList<>(PROPERTY_BATCH);
+							while(chunk.size() < PROPERTY_BATCH && ii.hasNext())
+								chunk.add(ii.next());
+							boolean[] legal;
+							try {
+								legal = matches(hgraph, chunk, hasContainers, vertices);
+							} catch(IOException e) {
+								throw new RuntimeException(e);
+							}
+							List<byte[]> next = new ArrayList<>();
+							for(int i = 0; i < legal.length; i++) {
+								if(legal[i])
+									next.add(chunk.get(i));
+							}
+							accepted = next.iterator();
+						}
+						return accepted.next();
+					}
+				};
+			}
+		};
+	}
+	
+	protected Iterable<byte[]> ids(boolean vertices) {
+		Iterable<byte[]> ids = candidates(vertices);
+		if(!hasContainers.isEmpty())
+			ids = filtered(ids, vertices);
+		if(limit < Integer.MAX_VALUE)
+			ids = Iterables.limit(ids, limit);
+		return ids;
+	}
+	
+	@Override
+	public Iterable<Vertex> vertices() {
+		return Iterables.transform(ids(true), new Function<byte[], Vertex>() {
+			@Override
+			public Vertex apply(byte[] input) {
+				return new HGraphVertex(hgraph, input);
+			}
+		});
+	}
+	
+	@Override
+	public Iterable<Edge> edges() {
+		return Iterables.transform(ids(false), new Function<byte[], Edge>() {
+			@Override
+			public Edge apply(byte[] input) {
+				return new HGraphEdge(hgraph, input);
+			}
+		});
+	}
+}
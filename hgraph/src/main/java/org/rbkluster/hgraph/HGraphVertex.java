@@ -1,14 +1,17 @@
 package org.rbkluster.hgraph;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
 
 import com.google.common.collect.Iterables;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.VertexQuery;
-import com.tinkerpop.blueprints.util.DefaultVertexQuery;
 
 public class HGraphVertex extends HGraphElement implements Vertex {
 
@@ -30,7 +33,7 @@ public class HGraphVertex extends HGraphElement implements Vertex {
 				
 				@Override
 				public Edge next() {
-					return new HGraphEdge(raw, i.next()[1]);
+					return graph.edge(i.next());
 				}
 				
 				@Override
@@ -59,7 +62,7 @@ public class HGraphVertex extends HGraphElement implements Vertex {
 				
 				@Override
 				public Vertex next() {
-					return new HGraphVertex(raw, i.next()[0]);
+					return new HGraphVertex(graph, i.next()[0]);
 				}
 				
 				@Override
@@ -88,7 +91,7 @@ public class HGraphVertex extends HGraphElement implements Vertex {
 				
 				@Override
 				public Vertex next() {
-					return new HGraphVertex(raw, i.next()[2]);
+					return new HGraphVertex(graph, i.next()[2]);
 				}
 				
 				@Override
@@ -100,8 +103,26 @@ public class HGraphVertex extends HGraphElement implements Vertex {
 	}
 
 	
-	public HGraphVertex(HRawGraph raw, byte[] id) {
-		super(raw, id);
+	public HGraphVertex(HGraph graph, byte[] id) {
+		super(graph, id);
+	}
+
+	protected Iterable<byte[][]> edgesOut(String... labels) throws IOException {
+		if(labels.length == 0)
+			return raw.getEdgesOut(id);
+		List<Iterable<byte[][]>> out = new ArrayList<>();
+		for(String label : labels)
+			out.add(raw.getEdgesOut(id, Bytes.toBytes(label)));
+		return Iterables.concat(out);
+	}
+	
+	protected Iterable<byte[][]> edgesIn(String... labels) throws IOException {
+		if(labels.length == 0)
+			return raw.getEdgesIn(id);
+		List<Iterable<byte[][]>> in = new ArrayList<>();
+		for(String label : labels)
+			in.add(raw.getEdgesIn(id, Bytes.toBytes(label)));
+		return Iterables.concat(in);
 	}
 
 	@Override
@@ -111,9 +132,9 @@ public class HGraphVertex extends HGraphElement implements Vertex {
 		
 		try {
 			if(direction != Direction.IN)
-				out = raw.getEdgesOut(id);
+				out = edgesOut(labels);
 			if(direction != Direction.OUT)
-				in = raw.getEdgesIn(id);
+				in = edgesIn(labels);
 		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -141,9 +162,9 @@ public class HGraphVertex extends HGraphElement implements Vertex {
 		
 		try {
 			if(direction != Direction.IN)
-				out = raw.getEdgesOut(id);
+				out = edgesOut(labels);
 			if(direction != Direction.OUT)
-				in = raw.getEdgesIn(id);
+				in = edgesIn(labels);
 		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -152,9 +173,9 @@ public class HGraphVertex extends HGraphElement implements Vertex {
 		Iterable<Vertex> vin = null;
 		
 		if(out != null)
-			vout = new OutVertexIterable(out);
+			vout = new InVertexIterable(out);
 		if(in != null)
-			vin = new InVertexIterable(in);
+			vin = new OutVertexIterable(in);
 		
 		if(vout == null)
 			return vin;
@@ -165,7 +186,7 @@ public class HGraphVertex extends HGraphElement implements Vertex {
 
 	@Override
 	public VertexQuery query() {
-		return new DefaultVertexQuery(this);
+		return new HGraphVertexQuery(this);
 	}
 
 	@Override
@@ -175,11 +196,11 @@ public class HGraphVertex extends HGraphElement implements Vertex {
 			throw new IllegalArgumentException();
 		byte[] eid;
 		try {
-			eid = raw.addEdge(null, id, vin);
+			eid = raw.addEdge(null, id, vin, Bytes.toBytes(label));
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		HGraphEdge e = new HGraphEdge(raw, eid);
+		HGraphEdge e = new HGraphEdge(graph, eid, id, vin, label);
 		e.forceProperty(HGraphEdge.LABEL, label);
 		return e;
 	}
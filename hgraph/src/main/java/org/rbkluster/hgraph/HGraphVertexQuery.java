@@ -0,0 +1,161 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.DefaultVertexQuery;
+
+/**
+ * {@link com.tinkerpop.blueprints.VertexQuery} that reads adjacency rows
+ * directly.  Direction and labels select row-prefix scans, {@code limit} is
+ * pushed to the region server when there are no {@code has} predicates, and
+ * predicates are evaluated against edge properties fetched
+ * {@link #PROPERTY_BATCH} edges at a time.
+ */
+public class HGraphVertexQuery extends DefaultVertexQuery {
+	public static final int PROPERTY_BATCH = 256;
+	
+	protected HGraph graph;
+	protected HRawGraph raw;
+	protected byte[] vid;
+	
+	public HGraphVertexQuery(HGraphVertex vertex) {
+		super(vertex);
+		graph = vertex.graph;
+		raw = vertex.raw;
+		vid = vertex.id;
+	}
+	
+	protected byte[][] rawLabels() {
+		if(labels.length == 0)
+			return new byte[][] {null};
+		byte[][] r = new byte[labels.length][];
+		for(int i = 0; i < labels.length; i++)
+			r[i] = Bytes.toBytes(labels[i]);
+		return r;
+	}
+	
+	protected Iterable<byte[][]> adjacent() {
+		int scanLimit = hasContainers.isEmpty() ? limit : Integer.MAX_VALUE;
+		List<Iterable<byte[][]>> adj = new ArrayList<>();
+		try {
+			for(byte[] label : rawLabels()) {
+				if(direction != Direction.IN)
+					adj.add(raw.getEdgesOut(vid, label, scanLimit));
+				if(direction != Direction.OUT)
+					adj.add(raw.getEdgesIn(vid, label, scanLimit));
+			}
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		Iterable<byte[][]> edges = Iterables.concat(adj);
+		if(!hasContainers.isEmpty())
+			edges = filtered(edges);
+		if(limit < Integer.MAX_VALUE)
+			edges = Iterables.limit(edges, limit);
+		return edges;
+	}
+	
+	protected Iterable<byte[][]> filtered(final Iterable<byte[][]> edges) {
+		return new Iterable<byte[][]>() {
+			@Override
+			public Iterator<byte[][]> iterator() {
+				final Iterator<byte[][]> ei = edges.iterator();
+				return new AbstractIterator<byte[][]>() {
+					private Iterator<byte[][]> accepted = Iterables.<byte[][]> concat().iterator();
+					
+					@Override
+					protected byte[][] computeNext() {
+						while(!accepted.hasNext()) {
+							if(!ei.hasNext())
+								return endOfData();
+							List<byte[][]> chunk = new ArrayList<>(PROPERTY_BATCH);
+							while(chunk.size() < PROPERTY_BATCH && ei.hasNext())
+								chunk.add(ei.next());
+							try {
+								accepted = accept(chunk).iterator();
+							} catch(IOException e) {
+								throw new RuntimeException(e);
+							}
+						}
+						return accepted.next();
+					}
+				};
+			}
+		};
+	}
+	
+	protected List<byte[][]> accept(List<byte[][]> chunk) throws IOException {
+		List<byte[]> eids = new ArrayList<>(chunk.size());
+		for(byte[][] e : chunk)
+			eids.add(e[1]);
+		boolean[] legal = HGraphQuery.matches(graph, eids, hasContainers, false);
+		List<byte[][]> accepted = new ArrayList<>();
+		for(int i = 0; i < legal.length; i++) {
+			if(legal[i])
+				accepted.add(chunk.get(i));
+		}
+		return accepted;
+	}
+	
+	protected byte[] otherVertex(byte[][] e) {
+		return Arrays.equals(vid, e[0]) ? e[2] : e[0];
+	}
+	
+	@Override
+	public Iterable<Edge> edges() {
+		return Iterables.transform(adjacent(), new Function<byte[][], Edge>() {
+			@Override
+			public Edge apply(byte[][] input) {
+				return graph.edge(input);
+			}
+		});
+	}
+	
+	@Override
+	public Iterable<Vertex> vertices() {
+		return Iterables.transform(adjacent(), new Function<byte[][], Vertex>() {
+			@Override
+			public Vertex apply(byte[][] input) {
+				return new HGraphVertex(graph, otherVertex(input));
+			}
+		});
+	}
+	
+	@Override
+	public long count() {
+		if(!hasContainers.isEmpty())
+			return Iterables.size(adjacent());
+		long count = 0;
+		try {
+			for(byte[] label : rawLabels()) {
+				if(direction != Direction.IN)
+					count += raw.getDegreeOut(vid, label);
+				if(direction != Direction.OUT)
+					count += raw.getDegreeIn(vid, label);
+			}
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		return Math.min(count, limit);
+	}
+	
+	@Override
+	public Object vertexIds() {
+		List<Object> ids = new ArrayList<>();
+		for(byte[][] e : adjacent())
+			ids.add(new HGraphId(otherVertex(e)));
+		return ids;
+	}
+}
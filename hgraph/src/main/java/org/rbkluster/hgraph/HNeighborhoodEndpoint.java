@@ -0,0 +1,94 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.BaseEndpointCoprocessor;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import static org.rbkluster.hgraph.GConstants.*;
+
+/**
+ * Region side of {@link HNeighborhoodProtocol}.  Install it on the vertex
+ * table with {@link HRawGraph#installNeighborhoodEndpoint(String)}.  Only
+ * neighbor ids or counts leave the region server.
+ */
+public class HNeighborhoodEndpoint extends BaseEndpointCoprocessor implements HNeighborhoodProtocol {
+	@Override
+	public byte[][] getNeighbors(byte[][] vids, boolean out, boolean in, byte[][] labelIds, int limit) throws IOException {
+		HRegion region = ((RegionCoprocessorEnvironment) getEnvironment()).getRegion();
+		GByteSet seen = new GByteSet(vids.length);
+		List<byte[]> neighbors = new ArrayList<>();
+		for(byte[] vid : vids) {
+			List<byte[]> adjacent = new ArrayList<>();
+			scan(region, vid, out, in, labelIds, limit, adjacent);
+			for(byte[] other : adjacent) {
+				if(seen.add(other))
+					neighbors.add(other);
+			}
+		}
+		return neighbors.toArray(new byte[neighbors.size()][]);
+	}
+	
+	@Override
+	public long[] getDegrees(byte[][] vids, boolean out, boolean in, byte[][] labelIds) throws IOException {
+		HRegion region = ((RegionCoprocessorEnvironment) getEnvironment()).getRegion();
+		long[] degrees = new long[vids.length];
+		for(int i = 0; i < vids.length; i++)
+			degrees[i] = scan(region, vids[i], out, in, labelIds, Long.MAX_VALUE, null);
+		return degrees;
+	}
+	
+	/**
+	 * Counts up to {@code limit} adjacency cells of {@code vid} in
+	 * {@code region}, adding the vertices they point to to {@code others}
+	 * unless it is null.
+	 */
+	protected long scan(HRegion region, byte[] vid, boolean out, boolean in, byte[][] labelIds, long limit, List<byte[]> others) throws IOException {
+		long count = 0;
+		for(byte[] prefix : labelIds == null ? new byte[][] {vid} : HTraversal.prefixes(vid, labelIds)) {
+			byte[] start = prefix;
+			byte[] stop = GBytes.endKey(prefix);
+			byte[] regionStart = region.getStartKey();
+			byte[] regionEnd = region.getEndKey();
+			if(Bytes.compareTo(start, regionStart) < 0)
+				start = regionStart;
+			if(regionEnd.length > 0 && (stop.length == 0 || Bytes.compareTo(stop, regionEnd) > 0))
+				stop = regionEnd;
+			if(stop.length > 0 && Bytes.compareTo(start, stop) >= 0)
+				continue;
+			
+			Scan scan = new Scan(start, stop);
+			if(out)
+				scan.addColumn(VTX_OUT_CF, vid);
+			if(in)
+				scan.addColumn(VTX_IN_CF, vid);
+			scan.setMaxVersions(1);
+			RegionScanner scanner = region.getScanner(scan);
+			try {
+				List<KeyValue> kvs = new ArrayList<>();
+				boolean more;
+				do {
+					kvs.clear();
+					more = scanner.next(kvs);
+					for(KeyValue kv : kvs) {
+						if(count >= limit)
+							return count;
+						count++;
+						if(others != null)
+							others.add(kv.getValue());
+					}
+				} while(more);
+			} finally {
+				scanner.close();
+			}
+		}
+		return count;
+	}
+}
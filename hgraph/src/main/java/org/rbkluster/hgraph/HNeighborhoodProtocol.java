@@ -0,0 +1,25 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
+
+/**
+ * Adjacency reads answered next to the data by {@link HNeighborhoodEndpoint}
+ * on the vertex table.  Each region only looks at the adjacency rows it
+ * holds, so a vertex whose rows straddle a region boundary is answered in
+ * part by each region.  {@code labelIds} restricts the edges to those
+ * labels, null meaning any label.
+ */
+public interface HNeighborhoodProtocol extends CoprocessorProtocol {
+	/**
+	 * Distinct vertices at the other end of up to {@code limit} edges of each
+	 * of {@code vids}.
+	 */
+	public byte[][] getNeighbors(byte[][] vids, boolean out, boolean in, byte[][] labelIds, int limit) throws IOException;
+	
+	/**
+	 * Number of edges of each of {@code vids}, in order.
+	 */
+	public long[] getDegrees(byte[][] vids, boolean out, boolean in, byte[][] labelIds) throws IOException;
+}
@@ -0,0 +1,740 @@
+package org.rbkluster.hgraph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+
+import static org.rbkluster.hgraph.GConstants.*;
+
+/**
+ * Write session for a {@link HRawGraph}.  Mutations for all graph tables are
+ * queued client side and sent as one {@link HTableInterface#batch(List)} per
+ * table whenever {@code maxRows} or {@code maxBytes} is reached, on
+ * {@link #flush()} and on {@link #close()}.
+ * <p>
+ * Reads made while queuing (old index values, edge endpoints, properties of
+ * removed elements) see the tables plus the indexed property values queued by
+ * this batch.  Mutations within one flush are unordered and a delete would
+ * mask a put of the same timestamp, so queuing a put to a row with a queued
+ * delete, or the reverse, flushes first.  Degree counter and element count
+ * changes are summed and sent after the mutations.  If sending fails, what
+ * was not sent stays queued for the next flush.  Entries of the read caches
+ * of the graph touched by queued mutations are dropped when queued and again
+ * once sent.  Writes of indexed properties and their index entries carry
+ * explicit timestamps, see {@link #indexedTimestamp}.  Not thread-safe.
+ */
+public class HRawBatch implements Closeable {
+	private static final Logger log = LoggerFactory.getLogger(HRawBatch.class);
+	
+	public static final int DEFAULT_MAX_ROWS = 4096;
+	public static final long DEFAULT_MAX_BYTES = 2L * 1024 * 1024;
+	public static final int CASCADE_CHUNK = 256;
+	
+	private static final byte[] REMOVED = new byte[0];
+	
+	protected HRawGraph raw;
+	protected int maxRows;
+	protected long maxBytes;
+	
+	protected Map<byte[], List<Row>> pending = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	protected Map<byte[], Map<byte[], Boolean>> pendingPuts = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	protected int pendingRows;
+	protected long pendingBytes;
+	
+	protected Map<byte[], byte[]> pendingVertexIndexed = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	protected Map<byte[], byte[]> pendingEdgeIndexed = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	protected Map<byte[], Boolean> pendingVertexStates = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	protected Map<byte[], Map<byte[], Long>> pendingCounts = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	protected long pendingVertices;
+	protected long pendingEdges;
+	protected List<byte[]> invalidated = new ArrayList<>();
+	
+	protected boolean closed;
+	
+	public HRawBatch(HRawGraph raw) {
+		this(raw, DEFAULT_MAX_ROWS, DEFAULT_MAX_BYTES);
+	}
+	
+	public HRawBatch(HRawGraph raw, int maxRows, long maxBytes) {
+		if(maxRows <= 0 || maxBytes <= 0)
+			throw new IllegalArgumentException("batch thresholds must be positive");
+		this.raw = raw;
+		this.maxRows = maxRows;
+		this.maxBytes = maxBytes;
+	}
+	
+	protected static long sizeOf(Mutation m) {
+		long size = m.getRow().length;
+		for(List<KeyValue> kvs : m.getFamilyMap().values())
+			for(KeyValue kv : kvs)
+				size += kv.getLength();
+		return size;
+	}
+	
+	protected void queue(byte[] tableName, Mutation m) throws IOException {
+		if(closed)
+			throw new IllegalStateException(this + " is closed");
+		order(tableName, m);
+		List<Row> rows = pending.get(tableName);
+		if(rows == null)
+			pending.put(tableName, rows = new ArrayList<>());
+		rows.add(m);
+		pendingRows++;
+		pendingBytes += sizeOf(m);
+		if(pendingRows >= maxRows || pendingBytes >= maxBytes)
+			flush();
+	}
+	
+	/**
+	 * Flushes if {@code m} puts to a row of {@code tableName} that a queued
+	 * mutation deletes from, or the reverse, then records the row as put or
+	 * deleted.
+	 */
+	protected void order(byte[] tableName, Mutation m) throws IOException {
+		boolean put = m instanceof Put;
+		Map<byte[], Boolean> rows = pendingPuts.get(tableName);
+		Boolean queued = rows == null ? null : rows.get(m.getRow());
+		if(queued != null && queued.booleanValue() != put) {
+			// m is not sent by this flush, so what it invalidated is dropped again after the next
+			List<byte[]> keys = new ArrayList<>(invalidated);
+			flush();
+			invalidated.addAll(keys);
+			rows = pendingPuts.get(tableName);
+		}
+		if(rows == null)
+			pendingPuts.put(tableName, rows = new TreeMap<>(Bytes.BYTES_COMPARATOR));
+		rows.put(m.getRow(), put);
+	}
+	
+	public void put(byte[] tableName, Put p) throws IOException {
+		queue(tableName, p);
+	}
+	
+	public void delete(byte[] tableName, Delete d) throws IOException {
+		queue(tableName, d);
+	}
+	
+	public int getPendingRows() {
+		return pendingRows;
+	}
+	
+	public long getPendingBytes() {
+		return pendingBytes;
+	}
+	
+	public void flush() throws IOException {
+		if(pendingRows == 0 && pendingCounts.isEmpty() && pendingVertices == 0 && pendingEdges == 0)
+			return;
+		log.trace("{} flushing {} mutations ({} bytes)", new Object[] {this, pendingRows, pendingBytes});
+		try {
+			Iterator<Map.Entry<byte[], List<Row>>> pi = pending.entrySet().iterator();
+			while(pi.hasNext()) {
+				Map.Entry<byte[], List<Row>> e = pi.next();
+				HTableInterface table = raw.table(e.getKey());
+				try {
+					table.batch(e.getValue());
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException(ex);
+				} finally {
+					raw.repool(table);
+				}
+				pi.remove();
+				pendingPuts.remove(e.getKey());
+				pendingRows -= e.getValue().size();
+				for(Row r : e.getValue())
+					pendingBytes -= sizeOf((Mutation) r);
+			}
+			flushCounts();
+		} finally {
+			for(byte[] key : invalidated)
+				raw.invalidate(key);
+		}
+		invalidated.clear();
+		pendingVertexIndexed.clear();
+		pendingEdgeIndexed.clear();
+		pendingVertexStates.clear();
+		pendingRows = 0;
+		pendingBytes = 0;
+	}
+	
+	/**
+	 * Sends the summed degree counter deltas, one {@link Increment} per
+	 * vertex, and the element count deltas, to one shard of the graph
+	 * counters, concurrently on the table executor of the graph; increments
+	 * cannot be part of a batch.  Deltas whose increment failed stay queued;
+	 * the others are not sent again.
+	 */
+	protected void flushCounts() throws IOException {
+		List<byte[]> rows = new ArrayList<>();
+		List<Callable<IOException>> tasks = new ArrayList<>();
+		if(!raw.hasElementCounters()) {
+			pendingVertices = 0;
+			pendingEdges = 0;
+		} else if(pendingVertices != 0 || pendingEdges != 0) {
+			Increment inc = new Increment(raw.countShard());
+			if(pendingVertices != 0)
+				inc.addColumn(META_CF, META_VERTICES_Q, pendingVertices);
+			if(pendingEdges != 0)
+				inc.addColumn(META_CF, META_EDGES_Q, pendingEdges);
+			rows.add(null);
+			tasks.add(increment(raw.metaTable, inc));
+		}
+		Iterator<Map.Entry<byte[], Map<byte[], Long>>> ci = pendingCounts.entrySet().iterator();
+		while(ci.hasNext()) {
+			Map.Entry<byte[], Map<byte[], Long>> e = ci.next();
+			Increment inc = new Increment(e.getKey());
+			for(Map.Entry<byte[], Long> c : e.getValue().entrySet()) {
+				if(c.getValue() != 0)
+					inc.addColumn(DEG_CF, c.getKey(), c.getValue());
+			}
+			if(inc.numColumns() == 0) {
+				ci.remove();
+				continue;
+			}
+			rows.add(e.getKey());
+			tasks.add(increment(raw.vtxTable, inc));
+		}
+		List<IOException> failures = raw.invokeAll(raw.tableExecutor, tasks);
+		IOException failure = null;
+		for(int i = 0; i < failures.size(); i++) {
+			if(failures.get(i) != null) {
+				if(failure == null)
+					failure = failures.get(i);
+			} else if(rows.get(i) == null) {
+				pendingVertices = 0;
+				pendingEdges = 0;
+			} else
+				pendingCounts.remove(rows.get(i));
+		}
+		if(failure != null)
+			throw failure;
+	}
+	
+	/**
+	 * Task sending {@code inc}, returning the exception it failed with or
+	 * null.
+	 */
+	protected Callable<IOException> increment(final byte[] tableName, final Increment inc) {
+		return new Callable<IOException>() {
+			@Override
+			public IOException call() {
+				try {
+					HTableInterface table = raw.table(tableName);
+					try {
+						table.increment(inc);
+					} finally {
+						raw.repool(table);
+					}
+					return null;
+				} catch(IOException e) {
+					return e;
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Adds to the graph-wide vertex and edge counts.
+	 */
+	protected void countElements(long vertices, long edges) {
+		pendingVertices += vertices;
+		pendingEdges += edges;
+	}
+	
+	protected void count(byte[] vid, byte[] qualifier, long delta) {
+		Map<byte[], Long> counts = pendingCounts.get(vid);
+		if(counts == null)
+			pendingCounts.put(vid, counts = new TreeMap<>(Bytes.BYTES_COMPARATOR));
+		Long n = counts.get(qualifier);
+		counts.put(qualifier, n == null ? delta : n + delta);
+	}
+	
+	/**
+	 * Adds {@code delta} to the degree counters of the ends of an edge that
+	 * are not null, if the graph {@link HRawGraph#maintainsDegreeCounters()
+	 * keeps them}.
+	 */
+	protected void countEdge(byte[] vout, byte[] vin, byte[] labelId, long delta) throws IOException {
+		if(!raw.maintainsDegreeCounters())
+			return;
+		if(vout != null) {
+			count(vout, DEG_OUT_Q, delta);
+			count(vout, Bytes.add(DEG_LABEL_OUT_Q, labelId), delta);
+		}
+		if(vin != null) {
+			count(vin, DEG_IN_Q, delta);
+			count(vin, Bytes.add(DEG_LABEL_IN_Q, labelId), delta);
+		}
+	}
+	
+	/**
+	 * Drops {@code key} from the read cache of the graph, now and after the
+	 * next flush.
+	 */
+	protected void invalidate(byte[] key) {
+		if(!raw.hasReadCaches())
+			return;
+		raw.invalidate(key);
+		invalidated.add(key);
+	}
+	
+	/**
+	 * Drops the cached adjacency lists an edge is part of, by any label and
+	 * by its own.
+	 */
+	protected void invalidateEdge(byte[] vout, byte[] vin, byte[] labelId) {
+		if(!raw.hasReadCaches())
+			return;
+		if(vout != null) {
+			invalidate(raw.adjacencyKey(vout, vout, VTX_OUT_CF));
+			invalidate(raw.adjacencyKey(vout, Bytes.add(vout, labelId), VTX_OUT_CF));
+		}
+		if(vin != null) {
+			invalidate(raw.adjacencyKey(vin, vin, VTX_IN_CF));
+			invalidate(raw.adjacencyKey(vin, Bytes.add(vin, labelId), VTX_IN_CF));
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(closed)
+			return;
+		try {
+			flush();
+		} finally {
+			closed = true;
+		}
+	}
+	
+	/**
+	 * Adds a vertex, under a new id if {@code vid} is null.  The vertex count
+	 * grows only if the vertex did not exist.
+	 */
+	public byte[] addVertex(byte[] vid) throws IOException {
+		boolean existed = false;
+		if(vid == null)
+			vid = raw.newId();
+		else
+			existed = vertexExists(vid);
+		Put p = new Put(vid);
+		p.add(VTX_CF, VTX_IS_Q, TRUE);
+		put(raw.vtxTable, p);
+		pendingVertexStates.put(vid, true);
+		if(!existed)
+			countElements(1, 0);
+		return vid;
+	}
+	
+	/**
+	 * Whether {@code vid} exists, as left by the queued mutations of this
+	 * batch or else in the graph.
+	 */
+	protected boolean vertexExists(byte[] vid) throws IOException {
+		Boolean state = pendingVertexStates.get(vid);
+		return state != null ? state : raw.vertexExists(vid);
+	}
+	
+	public void removeVertex(byte[] vid) throws IOException {
+		removeVertex(vid, null);
+	}
+	
+	/**
+	 * Removes a vertex with all its edges and properties.  Edges are removed
+	 * {@link #CASCADE_CHUNK} at a time, reading the properties of each chunk
+	 * concurrently.  Removed edges are reported to {@code progress} if it is
+	 * not null, and an interrupt stops the removal between chunks.  The
+	 * vertex count drops only if the vertex existed.
+	 */
+	public void removeVertex(final byte[] vid, GProgressFuture<?> progress) throws IOException {
+		boolean existed = vertexExists(vid);
+		if(progress != null)
+			progress.setTotal(raw.countEdgesOut(vid, null) + raw.countEdgesIn(vid, null));
+		removeEdges(raw.adjacent(vid, vid, VTX_OUT_CF), progress);
+		// self-loops are in both lists and went with the out edges
+		removeEdges(Iterables.filter(raw.adjacent(vid, vid, VTX_IN_CF), new Predicate<byte[][]>() {
+			@Override
+			public boolean apply(byte[][] e) {
+				return !Arrays.equals(vid, e[0]);
+			}
+		}), progress);
+		removeVertexProperties(vid);
+		pendingCounts.remove(vid);
+		delete(raw.vtxTable, new Delete(vid));
+		pendingVertexStates.put(vid, false);
+		if(existed)
+			countElements(-1, 0);
+	}
+	
+	/**
+	 * Removes {@code {vout, eid, vin, labelId}} edges with their properties.
+	 */
+	public void removeEdges(Iterable<byte[][]> edges, GProgressFuture<?> progress) throws IOException {
+		Iterator<byte[][]> ei = edges.iterator();
+		while(ei.hasNext()) {
+			if(Thread.currentThread().isInterrupted())
+				throw new InterruptedIOException(this + " interrupted while removing edges");
+			List<byte[][]> chunk = new ArrayList<>(CASCADE_CHUNK);
+			List<byte[]> eids = new ArrayList<>(CASCADE_CHUNK);
+			while(chunk.size() < CASCADE_CHUNK && ei.hasNext()) {
+				byte[][] e = ei.next();
+				chunk.add(e);
+				eids.add(e[1]);
+			}
+			List<List<byte[][]>> properties = raw.getEdgeProperties(eids);
+			for(int i = 0; i < chunk.size(); i++) {
+				byte[][] e = chunk.get(i);
+				for(byte[][] p : properties.get(i))
+					removeEdgeProperty(e[1], p[0], p[1]);
+				removeEdgeRows(e[1], e[0], e[2], e[3]);
+			}
+			if(progress != null)
+				progress.advance(chunk.size());
+		}
+	}
+	
+	public byte[] addEdge(byte[] eid, byte[] vout, byte[] vin) throws IOException {
+		return addEdge(eid, vout, vin, null);
+	}
+	
+	public byte[] addEdge(byte[] eid, byte[] vout, byte[] vin, byte[] label) throws IOException {
+		if(eid == null)
+			eid = raw.newId();
+		byte[] lid = raw.labelId(label);
+		invalidateEdge(vout, vin, lid);
+		Put p = new Put(eid);
+		p.add(EDG_CF, EDG_IS_Q, TRUE);
+		p.add(EDG_CF, EDG_OUT_Q, vout);
+		p.add(EDG_CF, EDG_IN_Q, vin);
+		p.add(EDG_CF, EDG_LABEL_Q, lid);
+		put(raw.edgTable, p);
+		p = new Put(Bytes.add(vout, lid, eid));
+		p.add(VTX_OUT_CF, vout, vin);
+		put(raw.vtxTable, p);
+		p = new Put(Bytes.add(vin, lid, eid));
+		p.add(VTX_IN_CF, vin, vout);
+		put(raw.vtxTable, p);
+		countEdge(vout, vin, lid, 1);
+		countElements(0, 1);
+		return eid;
+	}
+	
+	public void removeEdge(byte[] eid) throws IOException {
+		HTableInterface table = raw.table(raw.edgTable);
+		byte[] vout, vin, lid;
+		try {
+			Get g = new Get(eid);
+			g.addFamily(EDG_CF);
+			g.setMaxVersions(1);
+			Result r = table.get(g);
+			vout = r.getValue(EDG_CF, EDG_OUT_Q);
+			vin = r.getValue(EDG_CF, EDG_IN_Q);
+			lid = r.getValue(EDG_CF, EDG_LABEL_Q);
+		} finally {
+			raw.repool(table);
+		}
+		removeEdge(eid, vout, vin, lid == null ? NO_LABEL : lid);
+	}
+	
+	public void removeEdge(byte[] eid, byte[] vout, byte[] vin) throws IOException {
+		removeEdge(eid, vout, vin, raw.getEdgeLabelId(eid));
+	}
+	
+	public void removeEdge(byte[] eid, byte[] vout, byte[] vin, byte[] labelId) throws IOException {
+		removeEdgeProperties(eid);
+		removeEdgeRows(eid, vout, vin, labelId);
+	}
+	
+	protected void removeEdgeRows(byte[] eid, byte[] vout, byte[] vin, byte[] labelId) throws IOException {
+		invalidateEdge(vout, vin, labelId);
+		delete(raw.edgTable, new Delete(eid));
+		if(vout != null) {
+			Delete d = new Delete(Bytes.add(vout, labelId, eid));
+			d.deleteColumns(VTX_OUT_CF, vout);
+			delete(raw.vtxTable, d);
+		}
+		if(vin != null) {
+			Delete d = new Delete(Bytes.add(vin, labelId, eid));
+			d.deleteColumns(VTX_IN_CF, vin);
+			delete(raw.vtxTable, d);
+		}
+		countEdge(vout, vin, labelId, -1);
+		if(vout != null || vin != null)
+			countElements(0, -1);
+	}
+	
+	/**
+	 * Timestamp for writing an indexed property and its index entries over
+	 * a cell written at {@code cellTimestamp} (0 if none): above that cell
+	 * whatever clock wrote it, as {@link HRawGraph#upsertProperty upserts}
+	 * take it, so that both write paths order an indexed key by the same
+	 * timestamps.
+	 */
+	protected long indexedTimestamp(long cellTimestamp) {
+		return raw.timestamp(cellTimestamp + 1);
+	}
+	
+	/**
+	 * Current value of indexed property {@code pkey} of element {@code id},
+	 * as queued in {@code pending} or else read from the graph, with the
+	 * {@link #indexedTimestamp(long) timestamp} to overwrite it at in
+	 * {@code ts[0]}; one Get reads both.
+	 */
+	protected byte[] indexedProperty(Map<byte[], byte[]> pending, byte[] tableName, byte[] family, byte[] id, byte[] pkey, long[] ts) throws IOException {
+		byte[] pval = pending.get(Bytes.add(id, pkey));
+		if(pval != null) {
+			ts[0] = indexedTimestamp(0);
+			return pval == REMOVED ? null : pval;
+		}
+		KeyValue kv = raw.propertyCell(tableName, family, id, pkey);
+		ts[0] = indexedTimestamp(kv == null ? 0 : kv.getTimestamp());
+		return kv == null ? null : kv.getValue();
+	}
+	
+	protected byte[] indexedVertexProperty(byte[] vid, byte[] pkey, long[] ts) throws IOException {
+		return indexedProperty(pendingVertexIndexed, raw.vtxPropertiesTable, VTXP_CF, vid, pkey, ts);
+	}
+	
+	public void setVertexProperty(byte[] vid, byte[] pkey, byte[] pval) throws IOException {
+		byte[] old = null;
+		long[] ts = {HConstants.LATEST_TIMESTAMP};
+		if(raw.idxTables.containsKey(pkey))
+			old = indexedVertexProperty(vid, pkey, ts);
+		
+		invalidate(raw.propertiesKey(raw.vtxPropertiesTable, vid));
+		Put p = new Put(raw.propertyRow(raw.vtxPropertiesTable, vid, pkey));
+		p.add(VTXP_CF, raw.propertyQualifier(raw.vtxPropertiesTable, vid, pkey), ts[0], pval);
+		put(raw.vtxPropertiesTable, p);
+		
+		reindexVertexProperty(vid, pkey, old, pval, ts[0]);
+	}
+	
+	/**
+	 * Sets several properties of a vertex, with a single Put if they are
+	 * {@link HRawGraph#isWide(byte[]) laid out wide}.
+	 */
+	public void setVertexProperties(byte[] vid, Map<byte[], byte[]> properties) throws IOException {
+		if(properties.isEmpty())
+			return;
+		if(!raw.isWide(raw.vtxPropertiesTable)) {
+			for(Map.Entry<byte[], byte[]> e : properties.entrySet())
+				setVertexProperty(vid, e.getKey(), e.getValue());
+			return;
+		}
+		invalidate(raw.propertiesKey(raw.vtxPropertiesTable, vid));
+		Put p = new Put(vid);
+		Map<byte[], byte[]> old = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		Map<byte[], Long> ts = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		for(Map.Entry<byte[], byte[]> e : properties.entrySet()) {
+			if(raw.idxTables.containsKey(e.getKey())) {
+				long[] t = new long[1];
+				old.put(e.getKey(), indexedVertexProperty(vid, e.getKey(), t));
+				ts.put(e.getKey(), t[0]);
+				p.add(VTXP_CF, e.getKey(), t[0], e.getValue());
+			} else
+				p.add(VTXP_CF, e.getKey(), e.getValue());
+		}
+		put(raw.vtxPropertiesTable, p);
+		for(Map.Entry<byte[], Long> e : ts.entrySet())
+			reindexVertexProperty(vid, e.getKey(), old.get(e.getKey()), properties.get(e.getKey()), e.getValue());
+	}
+	
+	protected void reindexVertexProperty(byte[] vid, byte[] pkey, byte[] old, byte[] pval, long ts) throws IOException {
+		byte[] idxTable = raw.idxTables.get(pkey);
+		if(idxTable == null)
+			return;
+		byte[] ikey = raw.indexKey(pkey, pval);
+		if(old != null) {
+			byte[] oldKey = raw.indexKey(pkey, old);
+			if(!Arrays.equals(oldKey, ikey)) {
+				Delete d = new Delete(Bytes.add(oldKey, vid));
+				d.deleteColumns(IDX_VTX_CF, oldKey, ts);
+				delete(idxTable, d);
+			}
+		}
+		pendingVertexIndexed.put(Bytes.add(vid, pkey), pval);
+		Put p = new Put(Bytes.add(ikey, vid));
+		p.add(IDX_VTX_CF, ikey, ts, vid);
+		put(idxTable, p);
+	}
+	
+	public void removeVertexProperty(byte[] vid, byte[] pkey) throws IOException {
+		byte[] pval = null;
+		long[] ts = {HConstants.LATEST_TIMESTAMP};
+		if(raw.idxTables.containsKey(pkey))
+			pval = indexedVertexProperty(vid, pkey, ts);
+		removeVertexProperty(vid, pkey, pval, ts[0]);
+	}
+	
+	public void removeVertexProperty(byte[] vid, byte[] pkey, byte[] pval) throws IOException {
+		long[] ts = {HConstants.LATEST_TIMESTAMP};
+		if(raw.idxTables.containsKey(pkey))
+			indexedVertexProperty(vid, pkey, ts);
+		removeVertexProperty(vid, pkey, pval, ts[0]);
+	}
+	
+	/**
+	 * Removes property {@code pkey} of value {@code pval}, and its index
+	 * entry, at {@code ts}.
+	 */
+	protected void removeVertexProperty(byte[] vid, byte[] pkey, byte[] pval, long ts) throws IOException {
+		byte[] idxTable = raw.idxTables.get(pkey);
+		invalidate(raw.propertiesKey(raw.vtxPropertiesTable, vid));
+		Delete d = new Delete(raw.propertyRow(raw.vtxPropertiesTable, vid, pkey));
+		d.deleteColumns(VTXP_CF, raw.propertyQualifier(raw.vtxPropertiesTable, vid, pkey), ts);
+		delete(raw.vtxPropertiesTable, d);
+		
+		if(idxTable != null) {
+			pendingVertexIndexed.put(Bytes.add(vid, pkey), REMOVED);
+			if(pval != null) {
+				byte[] ikey = raw.indexKey(pkey, pval);
+				d = new Delete(Bytes.add(ikey, vid));
+				d.deleteColumns(IDX_VTX_CF, ikey, ts);
+				delete(idxTable, d);
+			}
+		}
+	}
+	
+	public void removeVertexProperties(byte[] vid) throws IOException {
+		for(byte[][] p : raw.getVertexProperties(vid, false))
+			removeVertexProperty(vid, p[0], p[1]);
+	}
+	
+	protected byte[] indexedEdgeProperty(byte[] eid, byte[] pkey, long[] ts) throws IOException {
+		return indexedProperty(pendingEdgeIndexed, raw.edgPropertiesTable, EDGP_CF, eid, pkey, ts);
+	}
+	
+	public void setEdgeProperty(byte[] eid, byte[] pkey, byte[] pval) throws IOException {
+		byte[] old = null;
+		long[] ts = {HConstants.LATEST_TIMESTAMP};
+		if(raw.idxTables.containsKey(pkey))
+			old = indexedEdgeProperty(eid, pkey, ts);
+		
+		invalidate(raw.propertiesKey(raw.edgPropertiesTable, eid));
+		Put p = new Put(raw.propertyRow(raw.edgPropertiesTable, eid, pkey));
+		p.add(EDGP_CF, raw.propertyQualifier(raw.edgPropertiesTable, eid, pkey), ts[0], pval);
+		put(raw.edgPropertiesTable, p);
+		
+		reindexEdgeProperty(eid, pkey, old, pval, ts[0]);
+	}
+	
+	/**
+	 * Sets several properties of an edge, with a single Put if they are
+	 * {@link HRawGraph#isWide(byte[]) laid out wide}.
+	 */
+	public void setEdgeProperties(byte[] eid, Map<byte[], byte[]> properties) throws IOException {
+		if(properties.isEmpty())
+			return;
+		if(!raw.isWide(raw.edgPropertiesTable)) {
+			for(Map.Entry<byte[], byte[]> e : properties.entrySet())
+				setEdgeProperty(eid, e.getKey(), e.getValue());
+			return;
+		}
+		invalidate(raw.propertiesKey(raw.edgPropertiesTable, eid));
+		Put p = new Put(eid);
+		Map<byte[], byte[]> old = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		Map<byte[], Long> ts = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		for(Map.Entry<byte[], byte[]> e : properties.entrySet()) {
+			if(raw.idxTables.containsKey(e.getKey())) {
+				long[] t = new long[1];
+				old.put(e.getKey(), indexedEdgeProperty(eid, e.getKey(), t));
+				ts.put(e.getKey(), t[0]);
+				p.add(EDGP_CF, e.getKey(), t[0], e.getValue());
+			} else
+				p.add(EDGP_CF, e.getKey(), e.getValue());
+		}
+		put(raw.edgPropertiesTable, p);
+		for(Map.Entry<byte[], Long> e : ts.entrySet())
+			reindexEdgeProperty(eid, e.getKey(), old.get(e.getKey()), properties.get(e.getKey()), e.getValue());
+	}
+	
+	protected void reindexEdgeProperty(byte[] eid, byte[] pkey, byte[] old, byte[] pval, long ts) throws IOException {
+		byte[] idxTable = raw.idxTables.get(pkey);
+		if(idxTable == null)
+			return;
+		byte[] ikey = raw.indexKey(pkey, pval);
+		if(old != null) {
+			byte[] oldKey = raw.indexKey(pkey, old);
+			if(!Arrays.equals(oldKey, ikey)) {
+				Delete d = new Delete(Bytes.add(oldKey, eid));
+				d.deleteColumns(IDX_EDG_CF, oldKey, ts);
+				delete(idxTable, d);
+			}
+		}
+		pendingEdgeIndexed.put(Bytes.add(eid, pkey), pval);
+		Put p = new Put(Bytes.add(ikey, eid));
+		p.add(IDX_EDG_CF, ikey, ts, eid);
+		put(idxTable, p);
+	}
+	
+	public void removeEdgeProperty(byte[] eid, byte[] pkey) throws IOException {
+		byte[] pval = null;
+		long[] ts = {HConstants.LATEST_TIMESTAMP};
+		if(raw.idxTables.containsKey(pkey))
+			pval = indexedEdgeProperty(eid, pkey, ts);
+		removeEdgeProperty(eid, pkey, pval, ts[0]);
+	}
+	
+	public void removeEdgeProperty(byte[] eid, byte[] pkey, byte[] pval) throws IOException {
+		long[] ts = {HConstants.LATEST_TIMESTAMP};
+		if(raw.idxTables.containsKey(pkey))
+			indexedEdgeProperty(eid, pkey, ts);
+		removeEdgeProperty(eid, pkey, pval, ts[0]);
+	}
+	
+	/**
+	 * Removes property {@code pkey} of value {@code pval}, and its index
+	 * entry, at {@code ts}.
+	 */
+	protected void removeEdgeProperty(byte[] eid, byte[] pkey, byte[] pval, long ts) throws IOException {
+		byte[] idxTable = raw.idxTables.get(pkey);
+		invalidate(raw.propertiesKey(raw.edgPropertiesTable, eid));
+		Delete d = new Delete(raw.propertyRow(raw.edgPropertiesTable, eid, pkey));
+		d.deleteColumns(EDGP_CF, raw.propertyQualifier(raw.edgPropertiesTable, eid, pkey), ts);
+		delete(raw.edgPropertiesTable, d);
+		
+		if(idxTable != null) {
+			pendingEdgeIndexed.put(Bytes.add(eid, pkey), REMOVED);
+			if(pval != null) {
+				byte[] ikey = raw.indexKey(pkey, pval);
+				d = new Delete(Bytes.add(ikey, eid));
+				d.deleteColumns(IDX_EDG_CF, ikey, ts);
+				delete(idxTable, d);
+			}
+		}
+	}
+	
+	public void removeEdgeProperties(byte[] eid) throws IOException {
+		for(byte[][] p : raw.getEdgeProperties(eid, false))
+			removeEdgeProperty(eid, p[0], p[1]);
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + Bytes.toString(raw.getPrefix()) + "]";
+	}
+}
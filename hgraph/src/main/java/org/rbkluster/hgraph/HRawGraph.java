@@ -2,73 +2,330 @@ package org.rbkluster.hgraph;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Coprocessor;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
 import org.apache.hadoop.hbase.client.HTablePool;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.AggregationClient;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
+import org.apache.hadoop.hbase.client.coprocessor.LongColumnInterpreter;
+import org.apache.hadoop.hbase.coprocessor.AggregateImplementation;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.PageFilter;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
+import org.apache.hadoop.hbase.filter.RegexStringComparator;
+import org.apache.hadoop.hbase.filter.RowFilter;
+import org.apache.hadoop.hbase.filter.ValueFilter;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
 import static org.rbkluster.hgraph.GConstants.*;
 
 public class HRawGraph {
 	private static final Logger log = LoggerFactory.getLogger(HRawGraph.class);
 	
 	public static final int DEFAULT_ID_LENGTH = 24;
+	public static final String SCAN_THREADS = "hgraph.scan.threads";
+	public static final String POOL_SIZE = "hgraph.pool.size";
+	public static final int DEFAULT_POOL_SIZE = 64;
+	/**
+	 * Ids reserved per block by the {@link GIdAllocator}; 0, the default,
+	 * keeps {@link #DEFAULT_ID_LENGTH} byte random ids.
+	 */
+	public static final String ID_BLOCK_SIZE = "hgraph.id.block.size";
+	public static final String ID_MIXED = "hgraph.id.mixed";
+	/**
+	 * Whether {@link #createTables()} lays out the property tables of a new
+	 * graph with one row per element and one column per property key,
+	 * rather than one row per property.  Kept in the meta table; later
+	 * values of the setting do not change the layout of a graph.
+	 */
+	public static final String WIDE_PROPERTIES = "hgraph.properties.wide";
+	/**
+	 * Whether {@link #createTables()} keeps the properties of the vertices of
+	 * a new graph in the vertex table, one row per vertex, so that a vertex
+	 * and its adjacency rows share a row key prefix in one table.  Kept in
+	 * the meta table like {@link #WIDE_PROPERTIES}.
+	 */
+	public static final String COLOCATED_VERTICES = "hgraph.vertices.colocated";
+	/**
+	 * Bytes of heap for the {@link GReadCache} of adjacency lists and
+	 * properties; 0, the default, disables it.
+	 */
+	public static final String CACHE_SIZE = "hgraph.cache.size";
+	/**
+	 * Milliseconds after which a cache entry is read again, bounding how
+	 * long writes of other clients go unseen; 0, the default, keeps entries
+	 * until evicted or invalidated by writes of this graph.
+	 */
+	public static final String CACHE_TTL = "hgraph.cache.ttl";
+	/**
+	 * Bytes of direct memory for the {@link GAdjacencyStore} of adjacency
+	 * lists, which then takes their place in the {@link #CACHE_SIZE heap
+	 * cache}; 0, the default, disables it.
+	 */
+	public static final String ADJACENCY_STORE_SIZE = "hgraph.cache.adjacency.size";
+	/**
+	 * Milliseconds after which the degree counter settings of the meta
+	 * table are read again, bounding how long a graph goes on skipping or
+	 * trusting counters that another graph added or is recounting.
+	 */
+	public static final String META_REFRESH = "hgraph.meta.refresh";
+	public static final long DEFAULT_META_REFRESH = 10000;
+	
+	/**
+	 * Adjacency rows {@code vid+eid}, from before the meta table; not read.
+	 */
+	public static final int LEGACY_ADJACENCY_FORMAT = 1;
+	/**
+	 * Adjacency rows {@code vid+labelId+eid}.
+	 */
+	public static final int LABELED_ADJACENCY_FORMAT = 2;
+	
+	protected static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
 	
+	public static interface IndexEncoder {
+		public byte[] toIndexKey(byte[] pkey, byte[] pval);
+	}
+	
+	protected static interface NeighborhoodCall<R> {
+		public R call(HNeighborhoodProtocol endpoint, byte[][] vids) throws IOException;
+	}
+	
+	protected HRawGraph base;
 	protected byte[] prefix;
 	protected byte[] vtxTable;
-	protected byte[] vtxPropertiesTable;
+	protected volatile byte[] vtxPropertiesTable;
 	protected byte[] edgTable;
 	protected byte[] edgPropertiesTable;
-	protected Map<byte[], byte[]> idxTables = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	protected byte[] metaTable;
+	protected volatile Map<byte[], byte[]> idxTables = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
 	
 	protected Configuration conf;
+	protected HConnection connection;
+	protected ExecutorService tableExecutor;
 	protected HTablePool _pool;
 	
-	protected SecureRandom random = new SecureRandom();
+	protected Map<byte[], byte[]> labelIds = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+	protected Map<byte[], byte[]> labels = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+	
+	protected ThreadLocal<SecureRandom> random = new ThreadLocal<SecureRandom>() {
+		@Override
+		protected SecureRandom initialValue() {
+			return new SecureRandom();
+		}
+	};
+	
+	protected volatile IndexEncoder indexEncoder;
+	
+	protected volatile GIdAllocator idAllocator;
+	
+	protected AtomicLong clock = new AtomicLong();
+	
+	protected volatile boolean transactional;
+	protected ThreadLocal<HRawTransaction> transactions = new ThreadLocal<>();
+	
+	protected volatile boolean degreeCounters;
+	protected volatile boolean degreeFamily;
+	protected volatile long degreesLoaded;
+	protected long metaRefresh;
+	protected volatile boolean elementCounters;
+	protected volatile boolean wideProperties;
+	protected volatile boolean colocatedVertices;
+	
+	protected volatile GReadCache readCache;
+	protected volatile GAdjacencyStore adjacencyStore;
+	
+	protected ExecutorService scanExecutor;
+	protected boolean ownScanExecutor;
+	protected ExecutorService asyncExecutor;
 	
 	public HRawGraph(byte[] prefix, Configuration conf) throws IOException {
 		this.prefix = tableEscape(prefix);
 		this.conf = conf;
-
+		
 		log.info("{} creating graph", this);
 		
-		_pool = new HTablePool(conf, 1);
+		connection = HConnectionManager.createConnection(conf);
+		tableExecutor = new ThreadPoolExecutor(1, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), daemonThreads("table"));
+		((ThreadPoolExecutor) tableExecutor).allowCoreThreadTimeOut(true);
+		asyncExecutor = Executors.newCachedThreadPool(daemonThreads("async"));
+		_pool = new HTablePool(conf, conf.getInt(POOL_SIZE, DEFAULT_POOL_SIZE), new HTableInterfaceFactory() {
+			@Override
+			public HTableInterface createHTableInterface(Configuration config, byte[] tableName) {
+				try {
+					return new HTable(tableName, connection, tableExecutor);
+				} catch(IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			
+			@Override
+			public void releaseHTableInterface(HTableInterface table) throws IOException {
+				table.close();
+			}
+		});
 		vtxTable = Bytes.add(this.prefix, VTX_TABLE);
 		vtxPropertiesTable = Bytes.add(this.prefix, VTXP_TABLE);
 		edgTable = Bytes.add(this.prefix, EDG_TABLE);
 		edgPropertiesTable = Bytes.add(this.prefix, EDGP_TABLE);
+		metaTable = Bytes.add(this.prefix, META_TABLE);
+		metaRefresh = conf.getLong(META_REFRESH, DEFAULT_META_REFRESH);
 		
-		loadIndexTables();
+		int idBlockSize = conf.getInt(ID_BLOCK_SIZE, 0);
+		if(idBlockSize > 0)
+			idAllocator = new GIdAllocator(this, idBlockSize, conf.getBoolean(ID_MIXED, true));
+		
+		long cacheSize = conf.getLong(CACHE_SIZE, 0);
+		if(cacheSize > 0)
+			readCache = new GReadCache(cacheSize, conf.getLong(CACHE_TTL, 0), TimeUnit.MILLISECONDS);
+		long storeSize = conf.getLong(ADJACENCY_STORE_SIZE, 0);
+		if(storeSize > 0)
+			adjacencyStore = new GAdjacencyStore(storeSize);
+		
+		try {
+			loadIndexTables();
+			loadMeta();
+		} catch(IOException e) {
+			shutdown();
+			throw e;
+		}
 	}
 	
+	/**
+	 * View of {@code base}, sharing its connection, table handles, table and
+	 * async executors, id allocator, label dictionary, index tables and, as
+	 * they are now, its read caches.
+	 */
+	protected HRawGraph(HRawGraph base) throws IOException {
+		this.base = base;
+		prefix = base.prefix;
+		conf = base.conf;
+		connection = base.connection;
+		tableExecutor = base.tableExecutor;
+		asyncExecutor = base.asyncExecutor;
+		_pool = base._pool;
+		vtxTable = base.vtxTable;
+		vtxPropertiesTable = base.vtxPropertiesTable;
+		edgTable = base.edgTable;
+		edgPropertiesTable = base.edgPropertiesTable;
+		metaTable = base.metaTable;
+		metaRefresh = base.metaRefresh;
+		idxTables = base.idxTables;
+		labelIds = base.labelIds;
+		labels = base.labels;
+		clock = base.clock;
+		idAllocator = base.idAllocator;
+		indexEncoder = base.indexEncoder;
+		readCache = base.readCache;
+		adjacencyStore = base.adjacencyStore;
+		loadMeta();
+	}
+	
+	/**
+	 * A view of this graph with settings of its own, such as
+	 * {@link #setTransactional(boolean) transactional} mode and the index
+	 * encoder, on the same connection.  Shutting the view down leaves this
+	 * graph open.
+	 */
+	public HRawGraph view() throws IOException {
+		return new HRawGraph(this);
+	}
+	
+	/**
+	 * Checks out a table handle.  Handles are never shared between threads
+	 * while checked out; they all use the one {@link HConnection} of this
+	 * graph, so making a new one is cheap.  Up to {@link #POOL_SIZE} idle
+	 * handles per table are kept for reuse.
+	 */
 	protected HTableInterface table(byte[] tableName) {
 		HTableInterface table = _pool.getTable(tableName);
 		table.setAutoFlush(true);
 		return table;
 	}
 	
+	/**
+	 * Opens a scanner on {@code tableName}.  The scanner only needs the shared
+	 * connection, so the table handle goes straight back to the pool.
+	 */
+	protected ResultScanner scanner(byte[] tableName, Scan scan) throws IOException {
+		HTableInterface table = table(tableName);
+		try {
+			return table.getScanner(scan);
+		} finally {
+			repool(table);
+		}
+	}
+	
+	protected ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, HRawGraph.this + " " + name + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+	
 	public static byte[] tableEscape(byte[] k) {
 		StringBuilder sb = new StringBuilder();
 		for(byte b : k) {
@@ -106,27 +363,330 @@ public class HRawGraph {
 		_pool.putTable(table);
 	}
 	
+	protected byte[] newId() throws IOException {
+		GIdAllocator a = idAllocator;
+		if(a != null)
+			return a.newId();
+		byte[] id = new byte[DEFAULT_ID_LENGTH];
+		random.get().nextBytes(id);
+		return id;
+	}
+	
+	/**
+	 * Reserves {@code count} ids from the id counter of this graph.  Returns
+	 * the end of the reserved range {@code [end - count, end)}.
+	 */
+	public long reserveIds(long count) throws IOException {
+		HTableInterface table = table(metaTable);
+		try {
+			return table.incrementColumnValue(META_ID_SEQ_ROW, META_CF, META_ID_Q, count);
+		} finally {
+			repool(table);
+		}
+	}
+	
+	public GIdAllocator getIdAllocator() {
+		return idAllocator;
+	}
+	
+	/**
+	 * Sets the allocator for generated ids, or null for random ids.
+	 */
+	public void setIdAllocator(GIdAllocator idAllocator) {
+		this.idAllocator = idAllocator;
+	}
+	
+	public void setIndexEncoder(IndexEncoder indexEncoder) {
+		this.indexEncoder = indexEncoder;
+	}
+	
+	public byte[] indexKey(byte[] pkey, byte[] pval) {
+		IndexEncoder e = indexEncoder;
+		return e == null ? pval : e.toIndexKey(pkey, pval);
+	}
+	
+	/**
+	 * Executor for parallel scans, by default a daemon thread pool of
+	 * {@link #SCAN_THREADS} threads created on first use.
+	 */
+	public synchronized ExecutorService getScanExecutor() {
+		if(scanExecutor == null) {
+			int threads = conf.getInt(SCAN_THREADS, Runtime.getRuntime().availableProcessors());
+			scanExecutor = Executors.newFixedThreadPool(threads, daemonThreads("scan"));
+			ownScanExecutor = true;
+		}
+		return scanExecutor;
+	}
+	
+	public synchronized void setScanExecutor(ExecutorService scanExecutor) {
+		if(ownScanExecutor)
+			this.scanExecutor.shutdown();
+		this.scanExecutor = scanExecutor;
+		ownScanExecutor = false;
+	}
+	
+	public GReadCache getReadCache() {
+		return readCache;
+	}
+	
+	/**
+	 * Sets the cache for reads made outside transactions, or null for none.
+	 * Adjacency lists read without a limit and all properties of an element
+	 * are cached; a single property read loads all properties of its
+	 * element.  Writes made through this graph invalidate what they touch.
+	 */
+	public void setReadCache(GReadCache readCache) {
+		this.readCache = readCache;
+	}
+	
+	/**
+	 * The read cache if there is one and the calling thread has no
+	 * transaction open, otherwise null.
+	 */
+	protected GReadCache readCache() {
+		return transactions.get() == null ? readCache : null;
+	}
+	
+	protected byte[] adjacencyKey(byte[] vid, byte[] rowPrefix, byte[] family) {
+		return GReadCache.key(Bytes.equals(family, VTX_OUT_CF) ? GReadCache.EDGES_OUT : GReadCache.EDGES_IN, vid, rowPrefix);
+	}
+	
+	protected byte[] propertiesKey(byte[] tableName, byte[] id) {
+		return GReadCache.key(Bytes.equals(tableName, edgPropertiesTable) ? GReadCache.EDGE_PROPERTIES : GReadCache.VERTEX_PROPERTIES, id, id);
+	}
+	
+	public GAdjacencyStore getAdjacencyStore() {
+		return adjacencyStore;
+	}
+	
+	/**
+	 * Sets the off-heap store for adjacency lists read outside transactions,
+	 * or null to keep them in the read cache, if any.  Like the read cache
+	 * it only holds whole lists and is invalidated by writes of this graph;
+	 * writes of other clients go unseen until the list is evicted.
+	 */
+	public void setAdjacencyStore(GAdjacencyStore adjacencyStore) {
+		this.adjacencyStore = adjacencyStore;
+	}
+	
+	protected boolean hasReadCaches() {
+		return readCache != null || adjacencyStore != null;
+	}
+	
+	protected void invalidate(byte[] key) {
+		GReadCache c = readCache;
+		if(c != null)
+			c.invalidate(key);
+		GAdjacencyStore s = adjacencyStore;
+		if(s != null)
+			s.remove(key);
+	}
+	
+	/**
+	 * Empties the read cache and the adjacency store, as needed after writes
+	 * that bypass this graph.
+	 */
+	public void clearReadCaches() {
+		GReadCache c = readCache;
+		if(c != null)
+			c.invalidateAll();
+		GAdjacencyStore s = adjacencyStore;
+		if(s != null)
+			s.clear();
+	}
+	
+	public HRawBatch batch() {
+		return new HRawBatch(this);
+	}
+	
+	public HRawBatch batch(int maxRows, long maxBytes) {
+		return new HRawBatch(this, maxRows, maxBytes);
+	}
+	
+	/**
+	 * A frontier-at-a-time traversal, by default one hop along out edges of
+	 * any label.
+	 */
+	public HTraversal traversal() {
+		return new HTraversal(this);
+	}
+	
+	public boolean isTransactional() {
+		return transactional;
+	}
+	
+	/**
+	 * In transactional mode the single-operation write methods of this graph
+	 * buffer their mutations in a transaction of the calling thread, started
+	 * on the first write, until {@link #commit()} or {@link #rollback()}.
+	 * Reads on that thread see its buffered writes, except for index scans
+	 * and {@link #getAllVerticesPartitions() partitioned} scans.  Batches
+	 * from {@link #batch()} always write through.  The mode holds for every
+	 * caller of this instance, so a graph shared with callers that expect
+	 * writes to go through should be switched through a {@link #view()}.
+	 */
+	public void setTransactional(boolean transactional) {
+		this.transactional = transactional;
+	}
+	
+	/**
+	 * The open transaction of the calling thread, or null.
+	 */
+	public HRawTransaction getTransaction() {
+		return transactions.get();
+	}
+	
+	/**
+	 * Batch for a single write operation: the transaction of the calling
+	 * thread in transactional mode, otherwise a new batch.
+	 */
+	protected HRawBatch mutations() {
+		if(!transactional)
+			return batch();
+		HRawTransaction tx = transactions.get();
+		if(tx == null)
+			transactions.set(tx = new HRawTransaction(this));
+		return tx;
+	}
+	
+	public void commit() throws IOException {
+		HRawTransaction tx = transactions.get();
+		if(tx == null)
+			return;
+		transactions.remove();
+		tx.commit();
+	}
+	
+	public void rollback() {
+		HRawTransaction tx = transactions.get();
+		if(tx == null)
+			return;
+		transactions.remove();
+		tx.rollback();
+	}
+	
+	/**
+	 * Returns the {@link GConstants#LABEL_ID_LENGTH} byte dictionary id of an
+	 * edge label, allocating one if the label is new.  A null label maps to
+	 * {@link GConstants#NO_LABEL}.
+	 */
+	public byte[] labelId(byte[] label) throws IOException {
+		if(label == null)
+			return NO_LABEL;
+		byte[] lid = getLabelId(label);
+		if(lid != null)
+			return lid;
+		HTableInterface table = table(metaTable);
+		try {
+			byte[] row = Bytes.add(META_LABEL_ROW, label);
+			long seq = table.incrementColumnValue(META_LABEL_SEQ_ROW, META_CF, META_ID_Q, 1);
+			if(seq > Integer.MAX_VALUE)
+				throw new IllegalStateException(this + " ran out of label ids");
+			lid = Bytes.toBytes((int) seq);
+			Put p = new Put(row);
+			p.add(META_CF, META_ID_Q, lid);
+			if(!table.checkAndPut(row, META_CF, META_ID_Q, null, p)) {
+				Get g = new Get(row);
+				g.addColumn(META_CF, META_ID_Q);
+				lid = table.get(g).getValue(META_CF, META_ID_Q);
+			}
+		} finally {
+			repool(table);
+		}
+		labelIds.put(label, lid);
+		labels.put(lid, label);
+		return lid;
+	}
+	
+	/**
+	 * Returns the dictionary id of an edge label, or null if no edge was ever
+	 * added with that label.
+	 */
+	public byte[] getLabelId(byte[] label) throws IOException {
+		if(label == null)
+			return NO_LABEL;
+		byte[] lid = labelIds.get(label);
+		if(lid != null)
+			return lid;
+		HTableInterface table = table(metaTable);
+		try {
+			Get g = new Get(Bytes.add(META_LABEL_ROW, label));
+			g.addColumn(META_CF, META_ID_Q);
+			lid = table.get(g).getValue(META_CF, META_ID_Q);
+		} finally {
+			repool(table);
+		}
+		if(lid != null) {
+			labelIds.put(label, lid);
+			labels.put(lid, label);
+		}
+		return lid;
+	}
+	
+	/**
+	 * Returns the edge label with dictionary id {@code lid}, or null for
+	 * {@link GConstants#NO_LABEL} and unknown ids.  An id not seen before
+	 * reloads the whole dictionary, which is small.
+	 */
+	public byte[] getLabel(byte[] lid) throws IOException {
+		if(Bytes.equals(lid, NO_LABEL))
+			return null;
+		byte[] label = labels.get(lid);
+		if(label != null)
+			return label;
+		Scan scan = new Scan(META_LABEL_ROW, GBytes.endKey(META_LABEL_ROW));
+		scan.addColumn(META_CF, META_ID_Q);
+		scan.setCaching(1024);
+		ResultScanner scanner = scanner(metaTable, scan);
+		try {
+			for(Result r = scanner.next(); r != null; r = scanner.next()) {
+				byte[] l = Bytes.tail(r.getRow(), r.getRow().length - META_LABEL_ROW.length);
+				byte[] id = r.getValue(META_CF, META_ID_Q);
+				labelIds.put(l, id);
+				labels.put(id, l);
+			}
+		} finally {
+			scanner.close();
+		}
+		return labels.get(lid);
+	}
+	
 	public void createTables() throws IOException {
 		log.info("{} creating tables", this);
 		HBaseAdmin admin = new HBaseAdmin(conf);
+		boolean newVertices;
+		boolean newMeta;
 		try {
+			newMeta = !admin.tableExists(metaTable);
+			if(newMeta && admin.tableExists(vtxTable))
+				throw unreadableAdjacency(LEGACY_ADJACENCY_FORMAT);
+			boolean colocated = newMeta ? conf.getBoolean(COLOCATED_VERTICES, false) : colocatedVertices;
+			
 			HTableDescriptor d = new HTableDescriptor(vtxTable);
 			d.addFamily(new HColumnDescriptor(VTX_CF));
 			d.addFamily(new HColumnDescriptor(VTX_OUT_CF));
 			d.addFamily(new HColumnDescriptor(VTX_IN_CF));
-			if(!admin.tableExists(d.getName())) {
+			d.addFamily(new HColumnDescriptor(DEG_CF));
+			if(colocated)
+				d.addFamily(new HColumnDescriptor(VTXP_CF));
+			newVertices = !admin.tableExists(d.getName());
+			if(newVertices) {
 				log.debug("{} creating table {}", this, d.getNameAsString());
 				admin.createTable(d);
-			} else
+			} else {
 				log.debug("{} table {} already exists", this, d.getNameAsString());
+				addDegreeFamily(admin);
+			}
 			
-			d = new HTableDescriptor(vtxPropertiesTable);
-			d.addFamily(new HColumnDescriptor(VTXP_CF));
-			if(!admin.tableExists(d.getName())) {
-				log.debug("{} creating table {}", this, d.getNameAsString());
-				admin.createTable(d);
-			} else
-				log.debug("{} table {} already exists", this, d.getNameAsString());
+			if(!colocated) {
+				d = new HTableDescriptor(Bytes.add(prefix, VTXP_TABLE));
+				d.addFamily(new HColumnDescriptor(VTXP_CF));
+				if(!admin.tableExists(d.getName())) {
+					log.debug("{} creating table {}", this, d.getNameAsString());
+					admin.createTable(d);
+				} else
+					log.debug("{} table {} already exists", this, d.getNameAsString());
+			}
 			
 			d = new HTableDescriptor(edgTable);
 			d.addFamily(new HColumnDescriptor(EDG_CF));
@@ -143,28 +703,692 @@ public class HRawGraph {
 				admin.createTable(d);
 			} else
 				log.debug("{} table {} already exists", this, d.getNameAsString());
+			
+			d = new HTableDescriptor(metaTable);
+			d.addFamily(new HColumnDescriptor(META_CF));
+			if(newMeta) {
+				log.debug("{} creating table {}", this, d.getNameAsString());
+				admin.createTable(d);
+			} else
+				log.debug("{} table {} already exists", this, d.getNameAsString());
+		} finally {
+			admin.close();
+		}
+		if(newVertices) {
+			setCountersValid(META_DEGREES_ROW);
+			HTableInterface table = table(metaTable);
+			try {
+				Put p = new Put(META_LAYOUT_ROW);
+				p.add(META_CF, META_ADJACENCY_FORMAT_Q, Bytes.toBytes(LABELED_ADJACENCY_FORMAT));
+				table.put(p);
+			} finally {
+				repool(table);
+			}
+		}
+		if(newMeta) {
+			setCountersValid(META_ELEMENTS_ROW);
+			if(conf.getBoolean(WIDE_PROPERTIES, false))
+				setMeta(META_LAYOUT_ROW, META_WIDE_PROPERTIES_Q);
+			if(conf.getBoolean(COLOCATED_VERTICES, false))
+				setMeta(META_LAYOUT_ROW, META_COLOCATED_VERTICES_Q);
+		}
+		loadMeta();
+		log.debug("{} tables created", this);
+	}
+	
+	/**
+	 * Adds the degree counter family to a vertex table created without it,
+	 * returning whether it did.  The table is briefly disabled, and its
+	 * counters are not valid until {@link #recountDegrees()}.
+	 */
+	protected boolean addDegreeFamily(HBaseAdmin admin) throws IOException {
+		if(admin.getTableDescriptor(vtxTable).hasFamily(DEG_CF))
+			return false;
+		log.info("{} adding degree counters to {}", this, Bytes.toString(vtxTable));
+		admin.disableTable(vtxTable);
+		admin.addColumn(vtxTable, new HColumnDescriptor(DEG_CF));
+		admin.enableTable(vtxTable);
+		degreeFamily = true;
+		return true;
+	}
+	
+	protected void setCountersValid(byte[] row) throws IOException {
+		setMeta(row, META_VALID_Q);
+	}
+	
+	protected void setCountersInvalid(byte[] row) throws IOException {
+		HTableInterface table = table(metaTable);
+		try {
+			Delete d = new Delete(row);
+			d.deleteColumns(META_CF, META_VALID_Q);
+			table.delete(d);
+		} finally {
+			repool(table);
+		}
+	}
+	
+	protected void setMeta(byte[] row, byte[] qualifier) throws IOException {
+		HTableInterface table = table(metaTable);
+		try {
+			Put p = new Put(row);
+			p.add(META_CF, qualifier, TRUE);
+			table.put(p);
+		} finally {
+			repool(table);
+		}
+	}
+	
+	protected boolean getMeta(HTableInterface table, byte[] row, byte[] qualifier) throws IOException {
+		Get g = new Get(row);
+		g.addColumn(META_CF, qualifier);
+		return table.get(g).getValue(META_CF, qualifier) != null;
+	}
+	
+	protected IOException unreadableAdjacency(int format) {
+		return new IOException(this + " has adjacency rows of format " + format + "; drop its tables and load it again");
+	}
+	
+	/**
+	 * Reads the settings of the graph kept in its meta table: which counters
+	 * are valid and how properties are laid out, which decides the table of
+	 * vertex properties.  Degree counters are kept
+	 * if the vertex table has their family and valid
+	 * if the vertex table was created with them, element counts if the graph
+	 * was created with them, either if it has been recounted since.  Fails
+	 * for a graph whose adjacency rows have another format; a vertex table
+	 * without a meta table has the {@link #LEGACY_ADJACENCY_FORMAT legacy}
+	 * one, and graphs written before the format was recorded the
+	 * {@link #LABELED_ADJACENCY_FORMAT labeled} one.
+	 */
+	public void loadMeta() throws IOException {
+		HBaseAdmin admin = new HBaseAdmin(conf);
+		try {
+			if(!admin.tableExists(metaTable)) {
+				if(admin.tableExists(vtxTable))
+					throw unreadableAdjacency(LEGACY_ADJACENCY_FORMAT);
+				degreeCounters = false;
+				degreeFamily = false;
+				degreesLoaded = System.currentTimeMillis();
+				elementCounters = false;
+				wideProperties = false;
+				colocatedVertices = false;
+				vtxPropertiesTable = Bytes.add(prefix, VTXP_TABLE);
+				return;
+			}
+			degreeFamily = admin.tableExists(vtxTable) && admin.getTableDescriptor(vtxTable).hasFamily(DEG_CF);
+		} finally {
+			admin.close();
+		}
+		HTableInterface table = table(metaTable);
+		try {
+			Get g = new Get(META_LAYOUT_ROW);
+			g.addColumn(META_CF, META_ADJACENCY_FORMAT_Q);
+			byte[] format = table.get(g).getValue(META_CF, META_ADJACENCY_FORMAT_Q);
+			if(format != null && Bytes.toInt(format) != LABELED_ADJACENCY_FORMAT)
+				throw unreadableAdjacency(Bytes.toInt(format));
+			degreeCounters = getMeta(table, META_DEGREES_ROW, META_VALID_Q);
+			degreesLoaded = System.currentTimeMillis();
+			elementCounters = getMeta(table, META_ELEMENTS_ROW, META_VALID_Q);
+			wideProperties = getMeta(table, META_LAYOUT_ROW, META_WIDE_PROPERTIES_Q);
+			colocatedVertices = getMeta(table, META_LAYOUT_ROW, META_COLOCATED_VERTICES_Q);
+			vtxPropertiesTable = colocatedVertices ? vtxTable : Bytes.add(prefix, VTXP_TABLE);
+		} finally {
+			repool(table);
+		}
+	}
+	
+	/**
+	 * Whether the property tables have one row per element, see
+	 * {@link #WIDE_PROPERTIES}.
+	 */
+	public boolean isWideProperties() {
+		return wideProperties;
+	}
+	
+	/**
+	 * Whether the co-located layout keeps vertex properties in the vertex
+	 * table, see {@link #COLOCATED_VERTICES}.
+	 */
+	public boolean isColocatedVertices() {
+		return colocatedVertices;
+	}
+	
+	/**
+	 * Whether properties in {@code tableName} have one row per element,
+	 * which they do in the wide layout and when co-located with vertices.
+	 */
+	protected boolean isWide(byte[] tableName) {
+		return wideProperties || colocatedVertices && Bytes.equals(tableName, vtxTable);
+	}
+	
+	/**
+	 * Row of the cell of property {@code pkey} of element {@code id} in
+	 * {@code tableName}: {@code id+pkey}, or {@code id} if
+	 * {@link #isWide(byte[]) wide}.
+	 */
+	protected byte[] propertyRow(byte[] tableName, byte[] id, byte[] pkey) {
+		return isWide(tableName) ? id : Bytes.add(id, pkey);
+	}
+	
+	/**
+	 * Qualifier of the cell of property {@code pkey} of element {@code id} in
+	 * {@code tableName}: {@code id}, or {@code pkey} if wide.
+	 */
+	protected byte[] propertyQualifier(byte[] tableName, byte[] id, byte[] pkey) {
+		return isWide(tableName) ? pkey : id;
+	}
+	
+	/**
+	 * All {@code {pkey, pval}} of element {@code id}: a {@link Get} of its
+	 * row if wide, otherwise a scan of the rows prefixed by it.
+	 */
+	protected List<byte[][]> readProperties(byte[] tableName, byte[] family, byte[] id) throws IOException {
+		List<byte[][]> ret = new ArrayList<>();
+		HTableInterface table = table(tableName);
+		try {
+			if(isWide(tableName)) {
+				Get g = new Get(id);
+				g.addFamily(family);
+				g.setMaxVersions(1);
+				Result r = table.get(g);
+				if(r.getFamilyMap(family) != null) {
+					for(Map.Entry<byte[], byte[]> e : r.getFamilyMap(family).entrySet())
+						ret.add(new byte[][] {e.getKey(), e.getValue()});
+				}
+				return ret;
+			}
+			Scan scan = new Scan(id);
+			scan.setStopRow(GBytes.endKey(id));
+			scan.addColumn(family, id);
+			scan.setBatch(8192);
+			scan.setCaching(8192);
+			ResultScanner scanner = table.getScanner(scan);
+			try {
+				for(Result r : scanner) {
+					byte[] pkey = Bytes.tail(r.getRow(), r.getRow().length - id.length);
+					ret.add(new byte[][] {pkey, r.getValue(family, id)});
+				}
+			} finally {
+				scanner.close();
+			}
+		} finally {
+			repool(table);
+		}
+		return ret;
+	}
+	
+	/**
+	 * {@link #readProperties(byte[], byte[], byte[])} through {@code cache}
+	 * unless it is null.
+	 */
+	protected List<byte[][]> cachedProperties(byte[] tableName, byte[] family, byte[] id, GReadCache cache) throws IOException {
+		if(cache == null)
+			return readProperties(tableName, family, id);
+		byte[] key = propertiesKey(tableName, id);
+		List<byte[][]> ret = cache.get(key);
+		if(ret == null) {
+			long generation = cache.generation();
+			ret = cache.put(key, readProperties(tableName, family, id), generation);
+		}
+		return ret;
+	}
+	
+	protected static byte[] property(List<byte[][]> properties, byte[] pkey) {
+		for(byte[][] p : properties) {
+			if(Bytes.equals(p[0], pkey))
+				return p[1];
+		}
+		return null;
+	}
+	
+	/**
+	 * Current cell of property {@code pkey} of element {@code id}, with its
+	 * value and timestamp, or null if there is none.
+	 */
+	protected KeyValue propertyCell(byte[] tableName, byte[] family, byte[] id, byte[] pkey) throws IOException {
+		byte[] q = propertyQualifier(tableName, id, pkey);
+		Get g = new Get(propertyRow(tableName, id, pkey));
+		g.addColumn(family, q);
+		g.setMaxVersions(1);
+		HTableInterface table = table(tableName);
+		try {
+			return table.get(g).getColumnLatest(family, q);
+		} finally {
+			repool(table);
+		}
+	}
+	
+	/**
+	 * {@code pkey} values of {@code ids}, in order, with one multi-get.
+	 */
+	protected byte[][] readProperties(byte[] tableName, byte[] family, List<byte[]> ids, byte[] pkey) throws IOException {
+		List<Get> gets = new ArrayList<>(ids.size());
+		for(byte[] id : ids) {
+			Get g = new Get(propertyRow(tableName, id, pkey));
+			g.addColumn(family, propertyQualifier(tableName, id, pkey));
+			g.setMaxVersions(1);
+			gets.add(g);
+		}
+		byte[][] pvals = new byte[ids.size()][];
+		HTableInterface table = table(tableName);
+		try {
+			Result[] results = table.get(gets);
+			for(int i = 0; i < pvals.length; i++)
+				pvals[i] = results[i].getValue(family, propertyQualifier(tableName, ids.get(i), pkey));
+		} finally {
+			repool(table);
+		}
+		return pvals;
+	}
+	
+	/**
+	 * Whether the degree counters of the vertex table are valid, so that
+	 * {@link #getDegreeOut(byte[], byte[])} reads them.
+	 */
+	public boolean hasDegreeCounters() throws IOException {
+		refreshDegreeCounters();
+		return degreeCounters;
+	}
+	
+	/**
+	 * Whether batches maintain the degree counters of the vertex table,
+	 * which they do once it has the counter family, valid or not, so that
+	 * no edge written during a {@link #recountDegrees() recount} by another
+	 * graph goes uncounted.
+	 */
+	public boolean maintainsDegreeCounters() throws IOException {
+		refreshDegreeCounters();
+		return degreeFamily;
+	}
+	
+	/**
+	 * Reads the degree counter settings again if they were read more than
+	 * {@link #META_REFRESH} ago.
+	 */
+	protected void refreshDegreeCounters() throws IOException {
+		long now = System.currentTimeMillis();
+		if(now - degreesLoaded < metaRefresh)
+			return;
+		if(!degreeFamily) {
+			HBaseAdmin admin = new HBaseAdmin(conf);
+			try {
+				degreeFamily = admin.tableExists(vtxTable) && admin.getTableDescriptor(vtxTable).hasFamily(DEG_CF);
+			} finally {
+				admin.close();
+			}
+		}
+		if(degreeFamily) {
+			HTableInterface table = table(metaTable);
+			try {
+				degreeCounters = getMeta(table, META_DEGREES_ROW, META_VALID_Q);
+			} finally {
+				repool(table);
+			}
+		} else
+			degreeCounters = false;
+		degreesLoaded = now;
+	}
+	
+	/**
+	 * Rebuilds the degree counters from the adjacency rows, adding the
+	 * counter family first if needed, one task per region of the vertex
+	 * table.  All counters are zeroed before any is counted up, and they are
+	 * not valid until all are counted.  A family just added is left to be
+	 * noticed by other graphs for {@link #META_REFRESH} before counting;
+	 * edges written meanwhile may be counted wrong.
+	 */
+	public void recountDegrees() throws IOException {
+		log.info("{} recounting degrees", this);
+		boolean added;
+		HBaseAdmin admin = new HBaseAdmin(conf);
+		try {
+			added = addDegreeFamily(admin);
+		} finally {
+			admin.close();
+		}
+		setCountersInvalid(META_DEGREES_ROW);
+		degreeCounters = false;
+		if(added) {
+			try {
+				Thread.sleep(metaRefresh);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(this + " interrupted");
+			}
+		}
+		
+		Pair<byte[][], byte[][]> keys;
+		HTable table = new HTable(vtxTable, connection, tableExecutor);
+		try {
+			keys = table.getStartEndKeys();
+		} finally {
+			table.close();
+		}
+		List<Callable<Void>> resets = new ArrayList<>();
+		List<Callable<Void>> counts = new ArrayList<>();
+		for(int i = 0; i < keys.getFirst().length; i++) {
+			resets.add(resetDegreesTask(keys.getFirst()[i], keys.getSecond()[i]));
+			counts.add(countDegreesTask(keys.getFirst()[i], keys.getSecond()[i]));
+		}
+		invokeAll(resets);
+		invokeAll(counts);
+		setCountersValid(META_DEGREES_ROW);
+		degreeCounters = true;
+		degreesLoaded = System.currentTimeMillis();
+		log.debug("{} recounted degrees in {} regions", this, counts.size());
+	}
+	
+	protected Callable<Void> resetDegreesTask(final byte[] startRow, final byte[] stopRow) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				Scan scan = new Scan(startRow, stopRow);
+				scan.addFamily(DEG_CF);
+				scan.setMaxVersions(1);
+				scan.setCaching(8192);
+				scan.setFilter(new KeyOnlyFilter());
+				HRawBatch batch = batch();
+				ResultScanner scanner = scanner(vtxTable, scan);
+				try {
+					for(Result r = scanner.next(); r != null; r = scanner.next()) {
+						Put p = new Put(r.getRow());
+						for(KeyValue kv : r.raw())
+							p.add(DEG_CF, kv.getQualifier(), Bytes.toBytes(0L));
+						batch.put(vtxTable, p);
+					}
+				} finally {
+					scanner.close();
+					batch.close();
+				}
+				return null;
+			}
+		};
+	}
+	
+	/**
+	 * Counts the adjacency cells in a range of the vertex table up into the
+	 * counters of the vertices owning them, which need not be in the range.
+	 */
+	protected Callable<Void> countDegreesTask(final byte[] startRow, final byte[] stopRow) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				Scan scan = new Scan(startRow, stopRow);
+				scan.addFamily(VTX_OUT_CF);
+				scan.addFamily(VTX_IN_CF);
+				scan.setMaxVersions(1);
+				scan.setCaching(8192);
+				scan.setFilter(new KeyOnlyFilter());
+				HRawBatch batch = batch();
+				ResultScanner scanner = scanner(vtxTable, scan);
+				try {
+					for(Result r = scanner.next(); r != null; r = scanner.next()) {
+						byte[] row = r.getRow();
+						for(KeyValue kv : r.raw()) {
+							byte[] vid = kv.getQualifier();
+							if(row.length < vid.length + LABEL_ID_LENGTH || !Bytes.startsWith(row, vid))
+								continue;
+							byte[] lid = Arrays.copyOfRange(row, vid.length, vid.length + LABEL_ID_LENGTH);
+							if(Bytes.equals(kv.getFamily(), VTX_OUT_CF))
+								batch.countEdge(vid, null, lid, 1);
+							else
+								batch.countEdge(null, vid, lid, 1);
+						}
+						if(batch.pendingCounts.size() >= HRawBatch.DEFAULT_MAX_ROWS)
+							batch.flush();
+					}
+				} finally {
+					scanner.close();
+					batch.close();
+				}
+				return null;
+			}
+		};
+	}
+	
+	/**
+	 * Number of out edges of {@code vid}, of any label if {@code label} is
+	 * null, read from its degree counter.  Counted like
+	 * {@link #countEdgesOut(byte[], byte[])} if the graph has no valid
+	 * counters or the calling thread has a transaction open.
+	 */
+	public long getDegreeOut(byte[] vid, byte[] label) throws IOException {
+		return getDegreesOut(Collections.singletonList(vid), label)[0];
+	}
+	
+	public long getDegreeIn(byte[] vid, byte[] label) throws IOException {
+		return getDegreesIn(Collections.singletonList(vid), label)[0];
+	}
+	
+	/**
+	 * {@link #getDegreeOut(byte[], byte[])} of each of {@code vids}, in
+	 * order, with one multi-get.
+	 */
+	public long[] getDegreesOut(List<byte[]> vids, byte[] label) throws IOException {
+		return degrees(vids, label, true);
+	}
+	
+	public long[] getDegreesIn(List<byte[]> vids, byte[] label) throws IOException {
+		return degrees(vids, label, false);
+	}
+	
+	protected long[] degrees(List<byte[]> vids, byte[] label, boolean out) throws IOException {
+		long[] degrees = new long[vids.size()];
+		if(!hasDegreeCounters() || transactions.get() != null) {
+			for(int i = 0; i < degrees.length; i++)
+				degrees[i] = out ? countEdgesOut(vids.get(i), label) : countEdgesIn(vids.get(i), label);
+			return degrees;
+		}
+		byte[] q;
+		if(label == null)
+			q = out ? DEG_OUT_Q : DEG_IN_Q;
+		else {
+			byte[] lid = getLabelId(label);
+			if(lid == null)
+				return degrees;
+			q = Bytes.add(out ? DEG_LABEL_OUT_Q : DEG_LABEL_IN_Q, lid);
+		}
+		List<Get> gets = new ArrayList<>(vids.size());
+		for(byte[] vid : vids) {
+			Get g = new Get(vid);
+			g.addColumn(DEG_CF, q);
+			g.setMaxVersions(1);
+			gets.add(g);
+		}
+		HTableInterface table = table(vtxTable);
+		try {
+			Result[] results = table.get(gets);
+			for(int i = 0; i < degrees.length; i++) {
+				byte[] n = results[i].getValue(DEG_CF, q);
+				degrees[i] = n == null ? 0 : Bytes.toLong(n);
+			}
+		} finally {
+			repool(table);
+		}
+		return degrees;
+	}
+	
+	/**
+	 * Adds the {@link HNeighborhoodEndpoint} coprocessor to the vertex table,
+	 * loaded from {@code jar} or, if it is null, from the class path of the
+	 * region servers.  The table is briefly disabled.
+	 */
+	public void installNeighborhoodEndpoint(String jar) throws IOException {
+		installCoprocessor(vtxTable, HNeighborhoodEndpoint.class.getName(), jar);
+	}
+	
+	/**
+	 * Adds HBase's {@link AggregateImplementation} to the vertex and edge
+	 * tables, which lets {@link #recountElements()} count rows on the region
+	 * servers.  The tables are briefly disabled.
+	 */
+	public void installCountEndpoint() throws IOException {
+		installCoprocessor(vtxTable, AggregateImplementation.class.getName(), null);
+		installCoprocessor(edgTable, AggregateImplementation.class.getName(), null);
+	}
+	
+	protected void installCoprocessor(byte[] tableName, String className, String jar) throws IOException {
+		HBaseAdmin admin = new HBaseAdmin(conf);
+		try {
+			HTableDescriptor d = admin.getTableDescriptor(tableName);
+			if(d.hasCoprocessor(className))
+				return;
+			log.info("{} installing {} on {}", new Object[] {this, className, Bytes.toString(tableName)});
+			d.addCoprocessor(className, jar == null ? null : new Path(jar), Coprocessor.PRIORITY_USER, null);
+			admin.disableTable(tableName);
+			admin.modifyTable(tableName, d);
+			admin.enableTable(tableName);
+		} finally {
+			admin.close();
+		}
+	}
+	
+	/**
+	 * Whether batches maintain the vertex and edge counts of the graph and
+	 * {@link #getVertexCount()} reads them.
+	 */
+	public boolean hasElementCounters() {
+		return elementCounters;
+	}
+	
+	/**
+	 * Row of a random one of the {@link GConstants#COUNT_SHARDS} shards of
+	 * the element counts, which spread the increments of concurrent writers.
+	 */
+	protected byte[] countShard() {
+		return Bytes.add(META_COUNT_ROW, new byte[] {(byte) random.get().nextInt(COUNT_SHARDS)});
+	}
+	
+	/**
+	 * Number of vertices, summed over the shards of the vertex count with one
+	 * multi-get, plus those added by the transaction of the calling thread.
+	 * Counted with a parallel scan if the graph has no valid counts.
+	 */
+	public long getVertexCount() throws IOException {
+		if(!elementCounters)
+			return countRows(getAllVerticesPartitions());
+		HRawTransaction tx = transactions.get();
+		return sumShards(META_VERTICES_Q) + (tx == null ? 0 : tx.pendingVertices);
+	}
+	
+	public long getEdgeCount() throws IOException {
+		if(!elementCounters)
+			return countRows(getAllEdgesPartitions());
+		HRawTransaction tx = transactions.get();
+		return sumShards(META_EDGES_Q) + (tx == null ? 0 : tx.pendingEdges);
+	}
+	
+	protected long sumShards(byte[] qualifier) throws IOException {
+		List<Get> gets = new ArrayList<>(COUNT_SHARDS);
+		for(int i = 0; i < COUNT_SHARDS; i++) {
+			Get g = new Get(Bytes.add(META_COUNT_ROW, new byte[] {(byte) i}));
+			g.addColumn(META_CF, qualifier);
+			gets.add(g);
+		}
+		long count = 0;
+		HTableInterface table = table(metaTable);
+		try {
+			for(Result r : table.get(gets)) {
+				byte[] n = r.getValue(META_CF, qualifier);
+				if(n != null)
+					count += Bytes.toLong(n);
+			}
+		} finally {
+			repool(table);
+		}
+		return count;
+	}
+	
+	protected long countRows(List<Iterable<byte[]>> partitions) throws IOException {
+		List<Callable<Long>> tasks = new ArrayList<>();
+		for(final Iterable<byte[]> partition : partitions) {
+			tasks.add(new Callable<Long>() {
+				@Override
+				public Long call() {
+					return (long) Iterables.size(partition);
+				}
+			});
+		}
+		long count = 0;
+		for(long n : invokeAll(tasks))
+			count += n;
+		return count;
+	}
+	
+	/**
+	 * Recounts the vertices and edges exactly and makes the counts valid.
+	 * Rows are counted on the region servers, all regions at once, if the
+	 * {@link #installCountEndpoint() count endpoint} is installed on both
+	 * tables, otherwise with a parallel scan.  Elements written meanwhile
+	 * may be counted wrong.
+	 */
+	public void recountElements() throws IOException {
+		log.info("{} recounting elements", this);
+		long vertices;
+		long edges;
+		if(hasCoprocessor(vtxTable, AggregateImplementation.class) && hasCoprocessor(edgTable, AggregateImplementation.class)) {
+			vertices = aggregateCount(vtxTable, VTX_CF, VTX_IS_Q);
+			edges = aggregateCount(edgTable, EDG_CF, EDG_IS_Q);
+		} else {
+			vertices = countRows(getAllVerticesPartitions());
+			edges = countRows(getAllEdgesPartitions());
+		}
+		List<Put> puts = new ArrayList<>(COUNT_SHARDS);
+		for(int i = 0; i < COUNT_SHARDS; i++) {
+			Put p = new Put(Bytes.add(META_COUNT_ROW, new byte[] {(byte) i}));
+			p.add(META_CF, META_VERTICES_Q, Bytes.toBytes(i == 0 ? vertices : 0L));
+			p.add(META_CF, META_EDGES_Q, Bytes.toBytes(i == 0 ? edges : 0L));
+			puts.add(p);
+		}
+		HTableInterface table = table(metaTable);
+		try {
+			table.put(puts);
+		} finally {
+			repool(table);
+		}
+		setCountersValid(META_ELEMENTS_ROW);
+		elementCounters = true;
+		log.debug("{} counted {} vertices and {} edges", new Object[] {this, vertices, edges});
+	}
+	
+	protected boolean hasCoprocessor(byte[] tableName, Class<?> cls) throws IOException {
+		HBaseAdmin admin = new HBaseAdmin(conf);
+		try {
+			return admin.getTableDescriptor(tableName).hasCoprocessor(cls.getName());
 		} finally {
 			admin.close();
 		}
-		log.debug("{} tables created", this);
+	}
+	
+	protected long aggregateCount(byte[] tableName, byte[] family, byte[] qualifier) throws IOException {
+		Scan scan = new Scan();
+		scan.addColumn(family, qualifier);
+		try {
+			return new AggregationClient(conf).rowCount(tableName, new LongColumnInterpreter(), scan);
+		} catch(IOException e) {
+			throw e;
+		} catch(Throwable t) {
+			throw new IOException(t);
+		}
 	}
 	
 	public void loadIndexTables() throws IOException {
 		log.debug("{} loading index tables", this);
-		idxTables.clear();
+		Map<byte[], byte[]> tables = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
 		HBaseAdmin admin = new HBaseAdmin(conf);
 		try {
 			for(HTableDescriptor d : admin.listTables()) {
 				byte[] p = Bytes.add(prefix, IDX_TABLE);
 				if(Bytes.startsWith(d.getName(), p)) {
 					byte[] k = Bytes.tail(d.getName(), d.getName().length - p.length);
-					idxTables.put(tableUnescape(k), d.getName());
+					tables.put(tableUnescape(k), d.getName());
 					log.trace("{} loaded index table {}", this, d.getNameAsString());
 				}
 			}
 		} finally {
 			admin.close();
 		}
+		idxTables = tables;
 	}
 	
 	public void dropTables() throws IOException {
@@ -178,11 +1402,12 @@ public class HRawGraph {
 				admin.deleteTable(vtxTable);
 			}
 			
-			if(admin.tableExists(vtxPropertiesTable)) {
-				if(!admin.isTableDisabled(vtxPropertiesTable))
-					admin.disableTable(vtxPropertiesTable);
-				log.debug("{} dropping table {}", this, Bytes.toString(vtxPropertiesTable));
-				admin.deleteTable(vtxPropertiesTable);
+			byte[] vtxp = Bytes.add(prefix, VTXP_TABLE);
+			if(admin.tableExists(vtxp)) {
+				if(!admin.isTableDisabled(vtxp))
+					admin.disableTable(vtxp);
+				log.debug("{} dropping table {}", this, Bytes.toString(vtxp));
+				admin.deleteTable(vtxp);
 			}
 			
 			if(admin.tableExists(edgTable)) {
@@ -199,6 +1424,13 @@ public class HRawGraph {
 				admin.deleteTable(edgPropertiesTable);
 			}
 			
+			if(admin.tableExists(metaTable)) {
+				if(!admin.isTableDisabled(metaTable))
+					admin.disableTable(metaTable);
+				log.debug("{} dropping table {}", this, Bytes.toString(metaTable));
+				admin.deleteTable(metaTable);
+			}
+			
 			for(HTableDescriptor d : admin.listTables()) {
 				if(Bytes.startsWith(d.getName(), Bytes.add(prefix, IDX_TABLE))) {
 					if(!admin.isTableDisabled(d.getName()))
@@ -210,31 +1442,73 @@ public class HRawGraph {
 		} finally {
 			admin.close();
 		}
+		degreeCounters = false;
+		degreeFamily = false;
+		elementCounters = false;
+		wideProperties = false;
+		colocatedVertices = false;
+		vtxPropertiesTable = Bytes.add(prefix, VTXP_TABLE);
+		clearReadCaches();
 		log.debug("{} tables dropped", this);
 	}
 	
+	/**
+	 * Closes the connection and executors of this graph, or for a
+	 * {@link #view()} only its own scan executor.
+	 */
 	public void shutdown() throws IOException {
 		log.info("{} shutdown", this);
-		_pool.close();
+		synchronized(this) {
+			if(ownScanExecutor)
+				scanExecutor.shutdown();
+			scanExecutor = null;
+			ownScanExecutor = false;
+		}
+		if(base != null)
+			return;
+		try {
+			_pool.close();
+		} finally {
+			asyncExecutor.shutdownNow();
+			tableExecutor.shutdown();
+			connection.close();
+		}
 	}
 	
 	public byte[] addVertex(byte[] vid) throws IOException {
-		if(vid == null) {
-			vid = new byte[DEFAULT_ID_LENGTH];
-			random.nextBytes(vid);
-		}
-		HTableInterface table = table(vtxTable);
+		HRawBatch batch = mutations();
 		try {
-			Put p = new Put(vid);
-			p.add(VTX_CF, VTX_IS_Q, TRUE);
-			table.put(p);
+			return batch.addVertex(vid);
 		} finally {
-			repool(table);
+			batch.close();
 		}
-		return vid;
+	}
+	
+	/**
+	 * Removes a vertex like {@link #removeVertex(byte[])} in the background.
+	 * The returned future counts removed edges and can be cancelled.
+	 */
+	public GProgressFuture<Void> removeVertexAsync(final byte[] vid) {
+		GProgressFuture<Void> f = new GProgressFuture<Void>() {
+			@Override
+			protected Void compute() throws IOException {
+				HRawBatch batch = batch();
+				try {
+					batch.removeVertex(vid, this);
+				} finally {
+					batch.close();
+				}
+				return null;
+			}
+		};
+		asyncExecutor.execute(f);
+		return f;
 	}
 	
 	public boolean vertexExists(byte[] vid) throws IOException {
+		HRawTransaction tx = transactions.get();
+		if(tx != null && tx.vertexState(vid) != null)
+			return tx.vertexState(vid);
 		HTableInterface table = table(vtxTable);
 		try {
 			Get g = new Get(vid);
@@ -247,104 +1521,61 @@ public class HRawGraph {
 	}
 	
 	public Iterable<byte[]> getAllVertices() {
-		return new Iterable<byte[]>() {
-			@Override
-			public Iterator<byte[]> iterator() {
-				Scan scan = new Scan();
-				scan.addFamily(VTX_CF);
-				scan.setBatch(8192);
-				scan.setCaching(8192);
-				scan.setMaxVersions(1);
-				final HTableInterface table = table(vtxTable);
-				ResultScanner scanner;
-				try {
-					scanner = table.getScanner(scan);
-				} catch(IOException e) {
-					throw new RuntimeException(e);
-				}
-				final Iterator<Result> sci = scanner.iterator();
-				
-				return new Iterator<byte[]>() {
-					boolean closed;
-					
-					@Override
-					public void remove() {
-						throw new UnsupportedOperationException();
-					}
-					
-					@Override
-					public byte[] next() {
-						if(!hasNext())
-							throw new NoSuchElementException();
-						try {
-							return sci.next().getRow();
-						} finally {
-							hasNext();
-						}
-					}
-					
-					@Override
-					public boolean hasNext() {
-						if(!sci.hasNext() && !closed) {
-							closed = true;
-							try {
-								repool(table);
-							} catch (IOException e) {
-								throw new RuntimeException(e);
-							}
-						}
-						return sci.hasNext();
-					}
-				};
-			}
-		};
+		Iterable<byte[]> vids = rows(vtxTable, VTX_CF, HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+		HRawTransaction tx = transactions.get();
+		if(tx == null)
+			return vids;
+		List<byte[]> added = new ArrayList<>();
+		for(Map.Entry<byte[], Boolean> e : tx.getVertices().entrySet()) {
+			if(e.getValue())
+				added.add(e.getKey());
+		}
+		return overlayRows(vids, tx.getVertices().keySet(), added);
+	}
+	
+	/**
+	 * {@link #getAllVertices()} split at the region boundaries of the vertex
+	 * table, one scan per region.
+	 */
+	public List<Iterable<byte[]>> getAllVerticesPartitions() throws IOException {
+		return partitions(vtxTable, VTX_CF);
+	}
+	
+	/**
+	 * All vertex ids, read by scanning every region of the vertex table in
+	 * parallel on {@link #getScanExecutor()}.  Ids arrive in no particular
+	 * order.
+	 */
+	public GParallelIterable<byte[]> getAllVerticesParallel() throws IOException {
+		return new GParallelIterable<byte[]>(getAllVerticesPartitions(), getScanExecutor());
 	}
 	
 	public void removeVertex(byte[] vid) throws IOException {
-		for(byte[][] e : getEdgesOut(vid))
-			removeEdge(e[1], e[0], e[2]);
-		for(byte[][] e : getEdgesIn(vid))
-			removeEdge(e[1], e[0], e[2]);
-		removeVertexProperties(vid);
-		HTableInterface table = table(vtxTable);
+		HRawBatch batch = mutations();
 		try {
-			Delete d = new Delete(vid);
-			table.delete(d);
+			batch.removeVertex(vid);
 		} finally {
-			repool(table);
+			batch.close();
 		}
 	}
 	
 	public byte[] addEdge(byte[] eid, byte[] vout, byte[] vin) throws IOException {
-		if(eid == null) {
-			eid = new byte[DEFAULT_ID_LENGTH];
-			random.nextBytes(eid);
-		}
-		HTableInterface table = table(edgTable);
-		try {
-			Put p = new Put(eid);
-			p.add(EDG_CF, EDG_IS_Q, TRUE);
-			p.add(EDG_CF, EDG_OUT_Q, vout);
-			p.add(EDG_CF, EDG_IN_Q, vin);
-			table.put(p);
-		} finally {
-			repool(table);
-		}
-		table = table(vtxTable);
+		return addEdge(eid, vout, vin, null);
+	}
+	
+	public byte[] addEdge(byte[] eid, byte[] vout, byte[] vin, byte[] label) throws IOException {
+		HRawBatch batch = mutations();
 		try {
-			Put p = new Put(Bytes.add(vout, eid));
-			p.add(VTX_OUT_CF, vout, vin);
-			table.put(p);
-			p = new Put(Bytes.add(vin, eid));
-			p.add(VTX_IN_CF, vin, vout);
-			table.put(p);
+			return batch.addEdge(eid, vout, vin, label);
 		} finally {
-			repool(table);
+			batch.close();
 		}
-		return eid;
 	}
 	
 	public boolean edgeExists(byte[] eid) throws IOException {
+		HRawTransaction tx = transactions.get();
+		if(tx != null && tx.touchesEdge(eid))
+			return tx.getEdge(eid) != null;
 		HTableInterface table = table(edgTable);
 		try {
 			Get g = new Get(eid);
@@ -357,18 +1588,67 @@ public class HRawGraph {
 	}
 	
 	public Iterable<byte[]> getAllEdges() {
+		Iterable<byte[]> eids = rows(edgTable, EDG_CF, HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+		HRawTransaction tx = transactions.get();
+		if(tx == null)
+			return eids;
+		List<byte[]> added = new ArrayList<>();
+		for(Map.Entry<byte[], byte[][]> e : tx.getEdges().entrySet()) {
+			if(e.getValue() != null)
+				added.add(e.getKey());
+		}
+		return overlayRows(eids, tx.getEdges().keySet(), added);
+	}
+	
+	/**
+	 * {@code committed} rows not touched by a transaction, followed by the
+	 * rows it added.
+	 */
+	protected static Iterable<byte[]> overlayRows(Iterable<byte[]> committed, Set<byte[]> touched, List<byte[]> added) {
+		final Set<byte[]> skip = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+		skip.addAll(touched);
+		return Iterables.concat(Iterables.filter(committed, new Predicate<byte[]>() {
+			@Override
+			public boolean apply(byte[] input) {
+				return !skip.contains(input);
+			}
+		}), added);
+	}
+	
+	public List<Iterable<byte[]>> getAllEdgesPartitions() throws IOException {
+		return partitions(edgTable, EDG_CF);
+	}
+	
+	public GParallelIterable<byte[]> getAllEdgesParallel() throws IOException {
+		return new GParallelIterable<byte[]>(getAllEdgesPartitions(), getScanExecutor());
+	}
+	
+	protected List<Iterable<byte[]>> partitions(byte[] tableName, byte[] family) throws IOException {
+		Pair<byte[][], byte[][]> keys;
+		HTable table = new HTable(tableName, connection, tableExecutor);
+		try {
+			keys = table.getStartEndKeys();
+		} finally {
+			table.close();
+		}
+		List<Iterable<byte[]>> partitions = new ArrayList<>();
+		for(int i = 0; i < keys.getFirst().length; i++)
+			partitions.add(rows(tableName, family, keys.getFirst()[i], keys.getSecond()[i]));
+		return partitions;
+	}
+	
+	protected Iterable<byte[]> rows(final byte[] tableName, final byte[] family, final byte[] startRow, final byte[] stopRow) {
 		return new Iterable<byte[]>() {
 			@Override
 			public Iterator<byte[]> iterator() {
-				Scan scan = new Scan();
-				scan.addFamily(EDG_CF);
+				Scan scan = new Scan(startRow, stopRow);
+				scan.addFamily(family);
 				scan.setBatch(8192);
 				scan.setCaching(8192);
 				scan.setMaxVersions(1);
-				final HTableInterface table = table(edgTable);
-				ResultScanner scanner;
+				final ResultScanner scanner;
 				try {
-					scanner = table.getScanner(scan);
+					scanner = scanner(tableName, scan);
 				} catch(IOException e) {
 					throw new RuntimeException(e);
 				}
@@ -397,11 +1677,7 @@ public class HRawGraph {
 					public boolean hasNext() {
 						if(!sci.hasNext() && !closed) {
 							closed = true;
-							try {
-								repool(table);
-							} catch (IOException e) {
-								throw new RuntimeException(e);
-							}
+							scanner.close();
 						}
 						return sci.hasNext();
 					}
@@ -411,44 +1687,27 @@ public class HRawGraph {
 	}
 	
 	public void removeEdge(byte[] eid) throws IOException {
-		HTableInterface table = table(edgTable);
-		byte[] vout, vin;
+		HRawBatch batch = mutations();
 		try {
-			Get g = new Get(eid);
-			g.addFamily(EDG_CF);
-			g.setMaxVersions(1);
-			Result r = table.get(g);
-			vout = r.getValue(EDG_CF, EDG_OUT_Q);
-			vin = r.getValue(EDG_CF, EDG_IN_Q);
+			batch.removeEdge(eid);
 		} finally {
-			repool(table);
+			batch.close();
 		}
-		removeEdge(eid, vout, vin);
 	}
 	
 	public void removeEdge(byte[] eid, byte[] vout, byte[] vin) throws IOException {
-		removeEdgeProperties(eid);
-		HTableInterface table = table(edgTable);
-		try {
-			Delete d = new Delete(eid);
-			table.delete(d);
-		} finally {
-			repool(table);
-		}
-		table = table(vtxTable);
+		HRawBatch batch = mutations();
 		try {
-			Delete d = new Delete(Bytes.add(vout, eid));
-			d.deleteColumn(VTX_OUT_CF, vout);
-			table.delete(d);
-			d = new Delete(Bytes.add(vin, eid));
-			d.deleteColumn(VTX_IN_CF, vin);
-			table.delete(d);
+			batch.removeEdge(eid, vout, vin);
 		} finally {
-			repool(table);
+			batch.close();
 		}
 	}
 	
 	public byte[] getOutVertex(byte[] eid) throws IOException {
+		HRawTransaction tx = transactions.get();
+		if(tx != null && tx.touchesEdge(eid))
+			return tx.getEdge(eid) == null ? null : tx.getEdge(eid)[0];
 		HTableInterface table = table(edgTable);
 		try {
 			Get g = new Get(eid);
@@ -461,7 +1720,26 @@ public class HRawGraph {
 		}
 	}
 	
+	public byte[] getEdgeLabelId(byte[] eid) throws IOException {
+		HRawTransaction tx = transactions.get();
+		if(tx != null && tx.touchesEdge(eid))
+			return tx.getEdge(eid) == null ? NO_LABEL : tx.getEdge(eid)[3];
+		HTableInterface table = table(edgTable);
+		try {
+			Get g = new Get(eid);
+			g.addColumn(EDG_CF, EDG_LABEL_Q);
+			g.setMaxVersions(1);
+			byte[] lid = table.get(g).getValue(EDG_CF, EDG_LABEL_Q);
+			return lid == null ? NO_LABEL : lid;
+		} finally {
+			repool(table);
+		}
+	}
+	
 	public byte[] getInVertex(byte[] eid) throws IOException {
+		HRawTransaction tx = transactions.get();
+		if(tx != null && tx.touchesEdge(eid))
+			return tx.getEdge(eid) == null ? null : tx.getEdge(eid)[2];
 		HTableInterface table = table(edgTable);
 		try {
 			Get g = new Get(eid);
@@ -474,88 +1752,397 @@ public class HRawGraph {
 		}
 	}
 	
-	public Iterable<byte[][]> getEdgesOut(final byte[] vid) throws IOException {
-		return new Iterable<byte[][]>() {
-			@Override
-			public Iterator<byte[][]> iterator() {
-				Scan scan = new Scan(vid);
-				scan.setStopRow(GBytes.endKey(vid));
-				scan.addFamily(VTX_OUT_CF);
-				scan.setBatch(8192);
-				scan.setCaching(8192);
-				scan.setMaxVersions(1);
-				ResultScanner scanner;
-				final HTableInterface table = table(vtxTable);
-				try {
-					scanner = table.getScanner(scan);
-				} catch(IOException e) {
-					throw new RuntimeException(e);
-				}
-				final Iterator<Result> sci = scanner.iterator();
-				
-				return new Iterator<byte[][]>() {
-					boolean closed;
-					byte[][] next;
-					
-					@Override
-					public void remove() {
-						throw new UnsupportedOperationException();
-					}
-					
-					@Override
-					public byte[][] next() {
-						if(!hasNext())
-							throw new NoSuchElementException();
-						byte[][] n = next;
-						next = null;
-						try {
-							return n;
-						} finally {
-							hasNext();
-						}
+	/**
+	 * Out edges of {@code vid} as {@code {vout, eid, vin, labelId}}.
+	 */
+	public Iterable<byte[][]> getEdgesOut(byte[] vid) throws IOException {
+		return cachedAdjacent(vid, vid, VTX_OUT_CF, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Out edges of {@code vid} with the given label, read with a single
+	 * prefix scan of the adjacency rows.
+	 */
+	public Iterable<byte[][]> getEdgesOut(byte[] vid, byte[] label) throws IOException {
+		byte[] lid = getLabelId(label);
+		if(lid == null)
+			return Collections.emptyList();
+		return cachedAdjacent(vid, Bytes.add(vid, lid), VTX_OUT_CF, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * In edges of {@code vid} as {@code {vout, eid, vin, labelId}}.
+	 */
+	public Iterable<byte[][]> getEdgesIn(byte[] vid) throws IOException {
+		return cachedAdjacent(vid, vid, VTX_IN_CF, Integer.MAX_VALUE);
+	}
+	
+	public Iterable<byte[][]> getEdgesIn(byte[] vid, byte[] label) throws IOException {
+		byte[] lid = getLabelId(label);
+		if(lid == null)
+			return Collections.emptyList();
+		return cachedAdjacent(vid, Bytes.add(vid, lid), VTX_IN_CF, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Up to {@code limit} out edges of {@code vid}, of any label if
+	 * {@code label} is null.  The limit is applied at the region server.
+	 */
+	public Iterable<byte[][]> getEdgesOut(byte[] vid, byte[] label, int limit) throws IOException {
+		byte[] prefix = adjacencyPrefix(vid, label);
+		if(prefix == null)
+			return Collections.emptyList();
+		return cachedAdjacent(vid, prefix, VTX_OUT_CF, limit);
+	}
+	
+	public Iterable<byte[][]> getEdgesIn(byte[] vid, byte[] label, int limit) throws IOException {
+		byte[] prefix = adjacencyPrefix(vid, label);
+		if(prefix == null)
+			return Collections.emptyList();
+		return cachedAdjacent(vid, prefix, VTX_IN_CF, limit);
+	}
+	
+	/**
+	 * Number of out edges of {@code vid}, of any label if {@code label} is
+	 * null, counted from row keys only.
+	 */
+	public long countEdgesOut(byte[] vid, byte[] label) throws IOException {
+		byte[] prefix = adjacencyPrefix(vid, label);
+		if(prefix == null)
+			return 0;
+		return countAdjacent(vid, prefix, VTX_OUT_CF);
+	}
+	
+	public long countEdgesIn(byte[] vid, byte[] label) throws IOException {
+		byte[] prefix = adjacencyPrefix(vid, label);
+		if(prefix == null)
+			return 0;
+		return countAdjacent(vid, prefix, VTX_IN_CF);
+	}
+	
+	/**
+	 * {@code vid} with its properties and up to {@code limit} edges in each
+	 * direction.  With {@link #COLOCATED_VERTICES co-located vertices} this
+	 * is a single scan of the rows prefixed by {@code vid}, which only spans
+	 * two regions if a split falls among them; otherwise, or with a
+	 * transaction open, it is a read of each part.
+	 */
+	public HRawVertex getVertexNeighborhood(byte[] vid, int limit) throws IOException {
+		HRawVertex v = new HRawVertex(vid);
+		if(!colocatedVertices || transactions.get() != null) {
+			v.exists = vertexExists(vid);
+			Iterables.addAll(v.properties, getVertexProperties(vid));
+			Iterables.addAll(v.edgesOut, adjacent(vid, vid, VTX_OUT_CF, limit));
+			Iterables.addAll(v.edgesIn, adjacent(vid, vid, VTX_IN_CF, limit));
+			return v;
+		}
+		
+		Scan scan = new Scan(vid, GBytes.endKey(vid));
+		scan.addColumn(VTX_CF, VTX_IS_Q);
+		scan.addFamily(VTXP_CF);
+		scan.addFamily(VTX_OUT_CF);
+		scan.addFamily(VTX_IN_CF);
+		scan.setMaxVersions(1);
+		scan.setCaching(Math.min(limit, 8192) + 1);
+		ResultScanner scanner = scanner(vtxTable, scan);
+		try {
+			for(Result r = scanner.next(); r != null; r = scanner.next()) {
+				byte[] row = r.getRow();
+				if(Bytes.equals(row, vid)) {
+					v.exists = r.getValue(VTX_CF, VTX_IS_Q) != null;
+					if(r.getFamilyMap(VTXP_CF) != null) {
+						for(Map.Entry<byte[], byte[]> e : r.getFamilyMap(VTXP_CF).entrySet())
+							v.properties.add(new byte[][] {e.getKey(), e.getValue()});
 					}
-					
-					@Override
-					public boolean hasNext() {
-						while(next == null) {
-							if(!sci.hasNext())
-								break;
-							Result r = sci.next();
-							if(r.getValue(VTX_OUT_CF, vid) == null)
-								continue;
-							byte[] eid = Bytes.tail(r.getRow(), r.getRow().length - vid.length);
-							byte[] vin = r.getValue(VTX_OUT_CF, vid);
-							next = new byte[][] {vid, eid, vin};
-						}
-						if(next == null && !closed) {
-							closed = true;
-							try {
-								repool(table);
-							} catch(IOException e) {
-								throw new RuntimeException(e);
+					continue;
+				}
+				if(row.length < vid.length + LABEL_ID_LENGTH)
+					continue;
+				byte[] lid = Arrays.copyOfRange(row, vid.length, vid.length + LABEL_ID_LENGTH);
+				byte[] eid = Bytes.tail(row, row.length - vid.length - LABEL_ID_LENGTH);
+				byte[] other = r.getValue(VTX_OUT_CF, vid);
+				if(other != null && v.edgesOut.size() < limit)
+					v.edgesOut.add(new byte[][] {vid, eid, other, lid});
+				other = r.getValue(VTX_IN_CF, vid);
+				if(other != null && v.edgesIn.size() < limit)
+					v.edgesIn.add(new byte[][] {other, eid, vid, lid});
+				if(v.edgesOut.size() >= limit && v.edgesIn.size() >= limit)
+					break;
+			}
+		} finally {
+			scanner.close();
+		}
+		return v;
+	}
+	
+	/**
+	 * Distinct vertices at the other end of up to {@code limit} edges of each
+	 * of {@code vids}, with one of {@code labels} unless there are none,
+	 * computed on the region servers by the
+	 * {@link #installNeighborhoodEndpoint(String) installed}
+	 * {@link HNeighborhoodEndpoint}.  A vertex whose adjacency rows straddle
+	 * a region boundary may follow {@code limit} edges in each region.
+	 * Uncommitted writes of a transaction are not seen.
+	 */
+	public List<byte[]> getNeighbors(List<byte[]> vids, final boolean out, final boolean in, final int limit, byte[]... labels) throws IOException {
+		final byte[][] lids = toLabelIds(labels);
+		if(lids != null && lids.length == 0)
+			return Collections.emptyList();
+		GByteSet seen = new GByteSet();
+		List<byte[]> neighbors = new ArrayList<>();
+		for(byte[][] others : neighborhood(vids, new NeighborhoodCall<byte[][]>() {
+			@Override
+			public byte[][] call(HNeighborhoodProtocol endpoint, byte[][] vids) throws IOException {
+				return endpoint.getNeighbors(vids, out, in, lids, limit);
+			}
+		})) {
+			for(byte[] other : others) {
+				if(seen.add(other))
+					neighbors.add(other);
+			}
+		}
+		return neighbors;
+	}
+	
+	/**
+	 * Number of edges of each of {@code vids}, in order, counted on the
+	 * region servers like {@link #getNeighbors(List, boolean, boolean, int, byte[]...)}.
+	 */
+	public long[] getDegrees(List<byte[]> vids, final boolean out, final boolean in, byte[]... labels) throws IOException {
+		final byte[][] lids = toLabelIds(labels);
+		long[] degrees = new long[vids.size()];
+		if(lids != null && lids.length == 0)
+			return degrees;
+		Map<byte[], Long> counts = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		for(Map<byte[], Long> c : neighborhood(vids, new NeighborhoodCall<Map<byte[], Long>>() {
+			@Override
+			public Map<byte[], Long> call(HNeighborhoodProtocol endpoint, byte[][] vids) throws IOException {
+				long[] degrees = endpoint.getDegrees(vids, out, in, lids);
+				Map<byte[], Long> counts = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+				for(int i = 0; i < vids.length; i++)
+					counts.put(vids[i], degrees[i]);
+				return counts;
+			}
+		})) {
+			for(Map.Entry<byte[], Long> e : c.entrySet()) {
+				Long n = counts.get(e.getKey());
+				counts.put(e.getKey(), n == null ? e.getValue() : n + e.getValue());
+			}
+		}
+		for(int i = 0; i < degrees.length; i++) {
+			Long n = counts.get(vids.get(i));
+			degrees[i] = n == null ? 0 : n;
+		}
+		return degrees;
+	}
+	
+	/**
+	 * Dictionary ids of those of {@code labels} that some edge has, or null
+	 * if there are no labels.
+	 */
+	protected byte[][] toLabelIds(byte[]... labels) throws IOException {
+		if(labels == null || labels.length == 0)
+			return null;
+		List<byte[]> lids = new ArrayList<>();
+		for(byte[] label : labels) {
+			byte[] lid = getLabelId(label);
+			if(lid != null)
+				lids.add(lid);
+		}
+		return lids.toArray(new byte[lids.size()][]);
+	}
+	
+	/**
+	 * Runs {@code call} on the neighborhood endpoint of every region holding
+	 * adjacency rows of {@code vids}.  Each run of sorted vertices starting
+	 * in the same region is sent as one call, the runs concurrently on
+	 * {@link #getScanExecutor()}.
+	 */
+	protected <R> List<R> neighborhood(List<byte[]> vids, final NeighborhoodCall<R> call) throws IOException {
+		List<Callable<Collection<R>>> tasks = new ArrayList<>();
+		for(List<byte[]> group : regionGroups(vtxTable, vids, Integer.MAX_VALUE)) {
+			final byte[][] ids = group.toArray(new byte[group.size()][]);
+			tasks.add(new Callable<Collection<R>>() {
+				@Override
+				public Collection<R> call() throws IOException {
+					HTableInterface table = table(vtxTable);
+					try {
+						return table.coprocessorExec(HNeighborhoodProtocol.class, ids[0], GBytes.endKey(ids[ids.length - 1]), new Batch.Call<HNeighborhoodProtocol, R>() {
+							@Override
+							public R call(HNeighborhoodProtocol endpoint) throws IOException {
+								return call.call(endpoint, ids);
 							}
-						}
-						return next != null;
+						}).values();
+					} catch(IOException e) {
+						throw e;
+					} catch(Throwable t) {
+						throw new IOException(t);
+					} finally {
+						repool(table);
 					}
-				};
+				}
+			});
+		}
+		List<R> results = new ArrayList<>();
+		for(Collection<R> r : invokeAll(tasks))
+			results.addAll(r);
+		return results;
+	}
+	
+	/**
+	 * {@code ids} sorted and cut into runs that start in the same region of
+	 * {@code tableName}, at most {@code maxGroup} long.  Region locations
+	 * come from the connection cache.
+	 */
+	protected List<List<byte[]>> regionGroups(byte[] tableName, Collection<byte[]> ids, int maxGroup) throws IOException {
+		List<byte[]> sorted = new ArrayList<>(ids);
+		Collections.sort(sorted, Bytes.BYTES_COMPARATOR);
+		List<List<byte[]>> groups = new ArrayList<>();
+		List<byte[]> group = new ArrayList<>();
+		byte[] regionEnd = null;
+		for(byte[] id : sorted) {
+			boolean newRegion = regionEnd == null
+					|| regionEnd.length > 0 && Bytes.compareTo(id, regionEnd) >= 0;
+			if(newRegion) {
+				HRegionLocation loc = connection.locateRegion(tableName, id);
+				regionEnd = loc.getRegionInfo().getEndKey();
+			}
+			if(!group.isEmpty() && (newRegion || group.size() == maxGroup)) {
+				groups.add(group);
+				group = new ArrayList<>();
+			}
+			group.add(id);
+		}
+		if(!group.isEmpty())
+			groups.add(group);
+		return groups;
+	}
+	
+	protected byte[] adjacencyPrefix(byte[] vid, byte[] label) throws IOException {
+		if(label == null)
+			return vid;
+		byte[] lid = getLabelId(label);
+		return lid == null ? null : Bytes.add(vid, lid);
+	}
+	
+	protected Scan adjacencyScan(byte[] vid, byte[] rowPrefix, byte[] family, int limit) {
+		Scan scan = new Scan(rowPrefix);
+		scan.setStopRow(GBytes.endKey(rowPrefix));
+		scan.addColumn(family, vid);
+		scan.setMaxVersions(1);
+		FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+		filters.addFilter(new QualifierFilter(CompareOp.EQUAL, new BinaryComparator(vid)));
+		if(limit < Integer.MAX_VALUE) {
+			filters.addFilter(new PageFilter(limit));
+			scan.setCaching(Math.max(1, Math.min(limit, 8192)));
+		} else
+			scan.setCaching(8192);
+		scan.setFilter(filters);
+		return scan;
+	}
+	
+	protected long countAdjacent(byte[] vid, byte[] rowPrefix, byte[] family) throws IOException {
+		if(transactions.get() != null)
+			return Iterables.size(adjacent(vid, rowPrefix, family));
+		Scan scan = adjacencyScan(vid, rowPrefix, family, Integer.MAX_VALUE);
+		((FilterList) scan.getFilter()).addFilter(new KeyOnlyFilter());
+		HTableInterface table = table(vtxTable);
+		try {
+			ResultScanner scanner = table.getScanner(scan);
+			try {
+				long count = 0;
+				for(Result r = scanner.next(); r != null; r = scanner.next())
+					count++;
+				return count;
+			} finally {
+				scanner.close();
+			}
+		} finally {
+			repool(table);
+		}
+	}
+	
+	protected Iterable<byte[][]> adjacent(byte[] vid, byte[] rowPrefix, byte[] family) {
+		return adjacent(vid, rowPrefix, family, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * {@link #adjacent(byte[], byte[], byte[], int)} through the
+	 * {@link #getAdjacencyStore() adjacency store}, or else the
+	 * {@link #readCache() read cache}.  Only whole adjacency lists are
+	 * cached; a limited read is answered from one but does not load it.
+	 */
+	protected Iterable<byte[][]> cachedAdjacent(byte[] vid, byte[] rowPrefix, byte[] family, int limit) {
+		GAdjacencyStore s = transactions.get() == null ? adjacencyStore : null;
+		if(s != null)
+			return storedAdjacent(s, vid, rowPrefix, family, limit);
+		GReadCache c = readCache();
+		if(c == null)
+			return adjacent(vid, rowPrefix, family, limit);
+		byte[] key = adjacencyKey(vid, rowPrefix, family);
+		List<byte[][]> edges = c.get(key);
+		if(edges == null) {
+			if(limit < Integer.MAX_VALUE)
+				return adjacent(vid, rowPrefix, family, limit);
+			long generation = c.generation();
+			edges = c.put(key, Lists.newArrayList(adjacent(vid, rowPrefix, family)), generation);
+		}
+		return limit < Integer.MAX_VALUE ? Iterables.limit(edges, limit) : edges;
+	}
+	
+	/**
+	 * Adjacency read through {@code store}, which keeps each edge as
+	 * {@code {labelId, eid, other}}.
+	 */
+	protected Iterable<byte[][]> storedAdjacent(GAdjacencyStore store, final byte[] vid, byte[] rowPrefix, byte[] family, int limit) {
+		final boolean out = Bytes.equals(family, VTX_OUT_CF);
+		byte[] key = adjacencyKey(vid, rowPrefix, family);
+		Iterable<byte[][]> stored = store.get(key);
+		if(stored == null) {
+			if(limit < Integer.MAX_VALUE)
+				return adjacent(vid, rowPrefix, family, limit);
+			long generation = store.generation();
+			List<byte[][]> edges = Lists.newArrayList(adjacent(vid, rowPrefix, family));
+			List<byte[][]> packed = new ArrayList<>(edges.size());
+			for(byte[][] e : edges)
+				packed.add(new byte[][] {e[3], e[1], out ? e[2] : e[0]});
+			store.put(key, 3, packed, generation);
+			return edges;
+		}
+		Iterable<byte[][]> edges = Iterables.transform(stored, new Function<byte[][], byte[][]>() {
+			@Override
+			public byte[][] apply(byte[][] input) {
+				return out ? new byte[][] {vid, input[1], input[2], input[0]} : new byte[][] {input[2], input[1], vid, input[0]};
 			}
-		};
+		});
+		return limit < Integer.MAX_VALUE ? Iterables.limit(edges, limit) : edges;
 	}
-
-	public Iterable<byte[][]> getEdgesIn(final byte[] vid) throws IOException {
+	
+	protected Iterable<byte[][]> adjacent(byte[] vid, byte[] rowPrefix, byte[] family, int limit) {
+		HRawTransaction tx = transactions.get();
+		if(tx == null)
+			return scanAdjacent(vid, rowPrefix, family, limit);
+		final Set<byte[]> touched = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+		touched.addAll(tx.getEdges().keySet());
+		byte[] lid = rowPrefix.length > vid.length ? Bytes.tail(rowPrefix, LABEL_ID_LENGTH) : null;
+		Iterable<byte[][]> committed = Iterables.filter(scanAdjacent(vid, rowPrefix, family, Integer.MAX_VALUE), new Predicate<byte[][]>() {
+			@Override
+			public boolean apply(byte[][] input) {
+				return !touched.contains(input[1]);
+			}
+		});
+		Iterable<byte[][]> edges = Iterables.concat(committed, tx.getEdges(vid, lid, Bytes.equals(family, VTX_OUT_CF)));
+		return limit < Integer.MAX_VALUE ? Iterables.limit(edges, limit) : edges;
+	}
+	
+	protected Iterable<byte[][]> scanAdjacent(final byte[] vid, final byte[] rowPrefix, final byte[] family, final int limit) {
 		return new Iterable<byte[][]>() {
 			@Override
 			public Iterator<byte[][]> iterator() {
-				Scan scan = new Scan(vid);
-				scan.setStopRow(GBytes.endKey(vid));
-				scan.addFamily(VTX_IN_CF);
-				scan.setBatch(8192);
-				scan.setCaching(8192);
-				scan.setMaxVersions(1);
-				ResultScanner scanner;
-				final HTableInterface table = table(vtxTable);
+				Scan scan = adjacencyScan(vid, rowPrefix, family, limit);
+				final ResultScanner scanner;
 				try {
-					scanner = table.getScanner(scan);
+					scanner = scanner(vtxTable, scan);
 				} catch(IOException e) {
 					throw new RuntimeException(e);
 				}
@@ -564,6 +2151,7 @@ public class HRawGraph {
 				return new Iterator<byte[][]>() {
 					boolean closed;
 					byte[][] next;
+					int count;
 					
 					@Override
 					public void remove() {
@@ -576,6 +2164,7 @@ public class HRawGraph {
 							throw new NoSuchElementException();
 						byte[][] n = next;
 						next = null;
+						count++;
 						try {
 							return n;
 						} finally {
@@ -585,23 +2174,24 @@ public class HRawGraph {
 					
 					@Override
 					public boolean hasNext() {
-						while(next == null) {
+						while(next == null && count < limit) {
 							if(!sci.hasNext())
 								break;
 							Result r = sci.next();
-							if(r.getValue(VTX_IN_CF, vid) == null)
+							byte[] other = r.getValue(family, vid);
+							if(other == null)
 								continue;
-							byte[] eid = Bytes.tail(r.getRow(), r.getRow().length - vid.length);
-							byte[] vout = r.getValue(VTX_IN_CF, vid);
-							next = new byte[][] {vout, eid, vid};
+							byte[] row = r.getRow();
+							byte[] lid = Arrays.copyOfRange(row, vid.length, vid.length + LABEL_ID_LENGTH);
+							byte[] eid = Bytes.tail(row, row.length - vid.length - LABEL_ID_LENGTH);
+							if(Bytes.equals(family, VTX_OUT_CF))
+								next = new byte[][] {vid, eid, other, lid};
+							else
+								next = new byte[][] {other, eid, vid, lid};
 						}
 						if(next == null && !closed) {
 							closed = true;
-							try {
-								repool(table);
-							} catch(IOException e) {
-								throw new RuntimeException(e);
-							}
+							scanner.close();
 						}
 						return next != null;
 					}
@@ -610,254 +2200,418 @@ public class HRawGraph {
 		};
 	}
 	
+	/**
+	 * Values of {@code pkey} for each of {@code vids}, in order, fetched with
+	 * one multi-get.  Missing values are null.
+	 */
+	public byte[][] getVertexProperties(List<byte[]> vids, byte[] pkey) throws IOException {
+		byte[][] pvals = readProperties(vtxPropertiesTable, VTXP_CF, vids, pkey);
+		HRawTransaction tx = transactions.get();
+		if(tx != null) {
+			for(int i = 0; i < pvals.length; i++)
+				pvals[i] = overlayProperty(tx.getVertexProperties(vids.get(i)), pkey, pvals[i]);
+		}
+		return pvals;
+	}
+	
 	public void setVertexProperty(byte[] vid, byte[] pkey, byte[] pval) throws IOException {
-		removeVertexProperty(vid, pkey);
-		
-		HTableInterface table = table(vtxPropertiesTable);
+		HRawBatch batch = mutations();
 		try {
-			Put p = new Put(Bytes.add(vid, pkey));
-			p.add(VTXP_CF, vid, pval);
-			table.put(p);
+			batch.setVertexProperty(vid, pkey, pval);
 		} finally {
-			repool(table);
+			batch.close();
 		}
-		
-		if(idxTables.containsKey(pkey)) {
-			table = table(idxTables.get(pkey));
-			try {
-				Put p = new Put(Bytes.add(pval, vid));
-				p.add(IDX_VTX_CF, pval, vid);
-				table.put(p);
-			} finally {
-				repool(table);
+	}
+	
+	/**
+	 * Sets a vertex property, or removes it if {@code pval} is null, without
+	 * a batch.  See {@link #upsertProperty(byte[], byte[], byte[], byte[], byte[], byte[])}.
+	 */
+	public void upsertVertexProperty(byte[] vid, byte[] pkey, byte[] pval) throws IOException {
+		if(transactional) {
+			if(pval == null)
+				removeVertexProperty(vid, pkey);
+			else
+				setVertexProperty(vid, pkey, pval);
+			return;
+		}
+		upsertProperty(vtxPropertiesTable, VTXP_CF, IDX_VTX_CF, vid, pkey, pval);
+	}
+	
+	public void upsertEdgeProperty(byte[] eid, byte[] pkey, byte[] pval) throws IOException {
+		if(transactional) {
+			if(pval == null)
+				removeEdgeProperty(eid, pkey);
+			else
+				setEdgeProperty(eid, pkey, pval);
+			return;
+		}
+		upsertProperty(edgPropertiesTable, EDGP_CF, IDX_EDG_CF, eid, pkey, pval);
+	}
+	
+	/**
+	 * An unindexed key is written with a single Put or Delete.  For an indexed
+	 * key the current cell is read and replaced with checkAndPut or
+	 * checkAndDelete, retrying if another writer got there first.  The new
+	 * cell gets a timestamp above the one it replaces, and the index Put for
+	 * the new value and Delete for the old one carry the same timestamp, so
+	 * index updates of racing writers cannot leave a stale entry behind
+	 * whatever order they arrive in.
+	 */
+	protected void upsertProperty(byte[] tableName, byte[] family, byte[] idxFamily, byte[] id, byte[] pkey, byte[] pval) throws IOException {
+		byte[] row = propertyRow(tableName, id, pkey);
+		byte[] q = propertyQualifier(tableName, id, pkey);
+		byte[] idxTable = idxTables.get(pkey);
+		invalidate(propertiesKey(tableName, id));
+		HTableInterface table = table(tableName);
+		try {
+			if(idxTable == null) {
+				if(pval != null) {
+					Put p = new Put(row);
+					p.add(family, q, pval);
+					table.put(p);
+				} else {
+					Delete d = new Delete(row);
+					d.deleteColumns(family, q);
+					table.delete(d);
+				}
+				return;
+			}
+			for(;;) {
+				Get g = new Get(row);
+				g.addColumn(family, q);
+				g.setMaxVersions(1);
+				KeyValue kv = table.get(g).getColumnLatest(family, q);
+				byte[] old = kv == null ? null : kv.getValue();
+				long ts = timestamp(kv == null ? 0 : kv.getTimestamp() + 1);
+				boolean swapped;
+				if(pval != null) {
+					Put p = new Put(row);
+					p.add(family, q, ts, pval);
+					swapped = table.checkAndPut(row, family, q, old, p);
+				} else if(old == null)
+					return;
+				else {
+					Delete d = new Delete(row);
+					d.deleteColumns(family, q, ts);
+					swapped = table.checkAndDelete(row, family, q, old, d);
+				}
+				if(swapped) {
+					reindex(idxTable, idxFamily, id, pkey, old, pval, ts);
+					return;
+				}
+				log.trace("{} retrying upsert of {}", this, Bytes.toStringBinary(row));
 			}
+		} finally {
+			repool(table);
+			invalidate(propertiesKey(tableName, id));
 		}
 	}
 	
-	public byte[] getVertexProperty(byte[] vid, byte[] pkey) throws IOException {
-		HTableInterface table = table(vtxPropertiesTable);
+	/**
+	 * A timestamp of at least {@code min}, and above any returned before, so
+	 * that a property removed and set again by this client is not hidden by
+	 * its own delete marker.
+	 */
+	protected long timestamp(long min) {
+		return timestamp(min, 1);
+	}
+	
+	/**
+	 * The first of {@code count} consecutive timestamps reserved as by
+	 * {@link #timestamp(long)}.
+	 */
+	protected long timestamp(long min, int count) {
+		for(;;) {
+			long last = clock.get();
+			long ts = Math.max(Math.max(System.currentTimeMillis(), last + 1), min);
+			if(clock.compareAndSet(last, ts + count - 1))
+				return ts;
+		}
+	}
+	
+	protected void reindex(byte[] idxTable, byte[] idxFamily, byte[] id, byte[] pkey, byte[] old, byte[] pval, long ts) throws IOException {
+		List<Row> mutations = new ArrayList<>(2);
+		byte[] ikey = pval == null ? null : indexKey(pkey, pval);
+		if(old != null) {
+			byte[] oldKey = indexKey(pkey, old);
+			if(!Arrays.equals(oldKey, ikey)) {
+				Delete d = new Delete(Bytes.add(oldKey, id));
+				d.deleteColumns(idxFamily, oldKey, ts);
+				mutations.add(d);
+			}
+		}
+		if(ikey != null) {
+			Put p = new Put(Bytes.add(ikey, id));
+			p.add(idxFamily, ikey, ts, id);
+			mutations.add(p);
+		}
+		HTableInterface table = table(idxTable);
 		try {
-			Get g = new Get(Bytes.add(vid, pkey));
-			g.addColumn(VTXP_CF, vid);
-			Result r = table.get(g);
-			return r.getValue(VTXP_CF, vid);
+			table.batch(mutations);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
 		} finally {
 			repool(table);
 		}
 	}
 	
-	public void removeVertexProperty(byte[] vid, byte[] pkey) throws IOException {
-		byte[] pval = null;
-		if(idxTables.containsKey(pkey))
-			pval = getVertexProperty(vid, pkey);
-		
+	public boolean checkAndSetVertexProperty(byte[] vid, byte[] pkey, byte[] expected, byte[] pval) throws IOException {
+		long ts = HConstants.LATEST_TIMESTAMP;
+		if(idxTables.containsKey(pkey)) {
+			KeyValue kv = propertyCell(vtxPropertiesTable, VTXP_CF, vid, pkey);
+			ts = timestamp((kv == null ? 0 : kv.getTimestamp()) + 1);
+		}
 		HTableInterface table = table(vtxPropertiesTable);
 		try {
-			Delete d = new Delete(Bytes.add(vid, pkey));
-			d.deleteColumn(VTXP_CF, vid);
-			table.delete(d);
+			byte[] q = propertyQualifier(vtxPropertiesTable, vid, pkey);
+			Put p = new Put(propertyRow(vtxPropertiesTable, vid, pkey));
+			p.add(VTXP_CF, q, ts, pval);
+			if(!table.checkAndPut(p.getRow(), VTXP_CF, q, expected, p))
+				return false;
 		} finally {
 			repool(table);
 		}
+		invalidate(propertiesKey(vtxPropertiesTable, vid));
 		
-		if(idxTables.containsKey(pkey) && pval != null) {
-			table = table(idxTables.get(pkey));
-			try {
-				Delete d = new Delete(Bytes.add(pval, vid));
-				d.deleteColumn(IDX_VTX_CF, pval);
-				table.delete(d);
-			} finally {
-				repool(table);
-			}
+		HRawBatch batch = batch();
+		try {
+			batch.reindexVertexProperty(vid, pkey, expected, pval, ts);
+		} finally {
+			batch.close();
 		}
+		return true;
 	}
 	
-	public void removeVertexProperty(byte[] vid, byte[] pkey, byte[] pval) throws IOException {
-		HTableInterface table = table(vtxPropertiesTable);
+	public byte[] getVertexProperty(byte[] vid, byte[] pkey) throws IOException {
+		return getVertexProperty(vid, pkey, true);
+	}
+	
+	/**
+	 * Reads through the {@link #readCache() read cache} if {@code cached};
+	 * writes that depend on the current value do not.
+	 */
+	protected byte[] getVertexProperty(byte[] vid, byte[] pkey, boolean cached) throws IOException {
+		HRawTransaction tx = transactions.get();
+		if(tx != null && tx.getVertexProperties(vid) != null && tx.getVertexProperties(vid).containsKey(pkey))
+			return tx.getVertexProperties(vid).get(pkey);
+		GReadCache c = cached ? readCache() : null;
+		if(c != null)
+			return property(cachedProperties(vtxPropertiesTable, VTXP_CF, vid, c), pkey);
+		return readProperties(vtxPropertiesTable, VTXP_CF, Collections.singletonList(vid), pkey)[0];
+	}
+	
+	public void removeVertexProperty(byte[] vid, byte[] pkey) throws IOException {
+		HRawBatch batch = mutations();
 		try {
-			Delete d = new Delete(Bytes.add(vid, pkey));
-			d.deleteColumn(VTXP_CF, vid);
-			table.delete(d);
+			batch.removeVertexProperty(vid, pkey);
 		} finally {
-			repool(table);
+			batch.close();
 		}
-		
-		if(idxTables.containsKey(pkey)) {
-			table = table(idxTables.get(pkey));
-			try {
-				Delete d = new Delete(Bytes.add(pval, vid));
-				d.deleteColumn(IDX_VTX_CF, pval);
-				table.delete(d);
-			} finally {
-				repool(table);
-			}
+	}
+	
+	public void removeVertexProperty(byte[] vid, byte[] pkey, byte[] pval) throws IOException {
+		HRawBatch batch = mutations();
+		try {
+			batch.removeVertexProperty(vid, pkey, pval);
+		} finally {
+			batch.close();
 		}
 	}
 	
 	public void removeVertexProperties(byte[] vid) throws IOException {
-		for(byte[][] p : getVertexProperties(vid))
-			removeVertexProperty(vid, p[0], p[1]);
+		HRawBatch batch = mutations();
+		try {
+			batch.removeVertexProperties(vid);
+		} finally {
+			batch.close();
+		}
+	}
+	
+	public Iterable<byte[][]> getVertexProperties(byte[] vid) throws IOException {
+		return getVertexProperties(vid, true);
 	}
 	
-	public Iterable<byte[][]> getVertexProperties(final byte[] vid) throws IOException {
+	protected Iterable<byte[][]> getVertexProperties(final byte[] vid, boolean cached) throws IOException {
+		HRawTransaction tx = transactions.get();
+		final Map<byte[], byte[]> touched = tx == null ? null : tx.copyVertexProperties(vid);
+		final GReadCache c = cached ? readCache() : null;
 		return new Iterable<byte[][]>() {
 			@Override
 			public Iterator<byte[][]> iterator() {
-				List<byte[][]> ret = new ArrayList<>();
+				List<byte[][]> ret;
 				try {
-					HTableInterface table = table(vtxPropertiesTable);
-					try {
-//						Get g = new Get(vid);
-//						g.addFamily(VTXP_CF);
-//						Result r = table.get(g);
-//						if(r.getFamilyMap(VTXP_CF) != null)
-//							for(byte[] pkey : r.getFamilyMap(VTXP_CF).keySet())
-//								ret.add(new byte[][] {pkey, r.getValue(VTXP_CF, pkey)});
-						Scan scan = new Scan(vid);
-						scan.setStopRow(GBytes.endKey(vid));
-						scan.addColumn(VTXP_CF, vid);
-						scan.setBatch(8192);
-						scan.setCaching(8192);
-						for(Result r : table.getScanner(scan)) {
-							byte[] pkey = Bytes.tail(r.getRow(), r.getRow().length - vid.length);
-							byte[] pval = r.getValue(VTXP_CF, vid);
-							ret.add(new byte[][] {pkey, pval});
-						}
-					} finally {
-						repool(table);
-					}
+					ret = cachedProperties(vtxPropertiesTable, VTXP_CF, vid, c);
 				} catch(IOException e) {
 					throw new RuntimeException(e);
 				}
+				if(touched != null)
+					ret = overlayProperties(ret, touched);
 				return ret.iterator();
 			}
 		};
 	}
-
-	public void setEdgeProperty(byte[] eid, byte[] pkey, byte[] pval) throws IOException {
-		removeEdgeProperty(eid, pkey);
-		
-		HTableInterface table = table(edgPropertiesTable);
-		try {
-			Put p = new Put(Bytes.add(eid, pkey));
-			p.add(EDGP_CF, eid, pval);
-			table.put(p);
-		} finally {
-			repool(table);
+	
+	/**
+	 * Values of {@code pkey} for each of {@code eids}, in order, fetched with
+	 * one multi-get.  Missing values are null.
+	 */
+	public byte[][] getEdgeProperties(List<byte[]> eids, byte[] pkey) throws IOException {
+		byte[][] pvals = readProperties(edgPropertiesTable, EDGP_CF, eids, pkey);
+		HRawTransaction tx = transactions.get();
+		if(tx != null) {
+			for(int i = 0; i < pvals.length; i++)
+				pvals[i] = overlayProperty(tx.getEdgeProperties(eids.get(i)), pkey, pvals[i]);
 		}
-
-		if(idxTables.containsKey(pkey)) {
-			table = table(idxTables.get(pkey));
+		return pvals;
+	}
+	
+	protected static byte[] overlayProperty(Map<byte[], byte[]> touched, byte[] pkey, byte[] committed) {
+		if(touched == null || !touched.containsKey(pkey))
+			return committed;
+		return touched.get(pkey);
+	}
+	
+	/**
+	 * {@code committed} {@code {pkey, pval}} pairs with the properties set
+	 * and removed by a transaction applied.
+	 */
+	protected static List<byte[][]> overlayProperties(List<byte[][]> committed, Map<byte[], byte[]> touched) {
+		Map<byte[], byte[]> merged = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		for(byte[][] p : committed)
+			merged.put(p[0], p[1]);
+		merged.putAll(touched);
+		List<byte[][]> ret = new ArrayList<>();
+		for(Map.Entry<byte[], byte[]> e : merged.entrySet()) {
+			if(e.getValue() != null)
+				ret.add(new byte[][] {e.getKey(), e.getValue()});
+		}
+		return ret;
+	}
+	
+	/**
+	 * All properties of each of {@code eids}, in order, with one multi-get in
+	 * the wide layout, otherwise read concurrently on
+	 * {@link #getScanExecutor()}.
+	 */
+	public List<List<byte[][]>> getEdgeProperties(List<byte[]> eids) throws IOException {
+		if(transactions.get() != null) {
+			List<List<byte[][]>> properties = new ArrayList<>(eids.size());
+			for(byte[] eid : eids)
+				properties.add(Lists.newArrayList(getEdgeProperties(eid)));
+			return properties;
+		}
+		if(wideProperties) {
+			List<Get> gets = new ArrayList<>(eids.size());
+			for(byte[] eid : eids) {
+				Get g = new Get(eid);
+				g.addFamily(EDGP_CF);
+				g.setMaxVersions(1);
+				gets.add(g);
+			}
+			List<List<byte[][]>> properties = new ArrayList<>(eids.size());
+			HTableInterface table = table(edgPropertiesTable);
 			try {
-				Put p = new Put(Bytes.add(pval, eid));
-				p.add(IDX_EDG_CF, pval, eid);
-				table.put(p);
+				for(Result r : table.get(gets)) {
+					List<byte[][]> p = new ArrayList<>();
+					if(r.getFamilyMap(EDGP_CF) != null) {
+						for(Map.Entry<byte[], byte[]> e : r.getFamilyMap(EDGP_CF).entrySet())
+							p.add(new byte[][] {e.getKey(), e.getValue()});
+					}
+					properties.add(p);
+				}
 			} finally {
 				repool(table);
 			}
+			return properties;
+		}
+		List<Callable<List<byte[][]>>> tasks = new ArrayList<>(eids.size());
+		for(final byte[] eid : eids) {
+			tasks.add(new Callable<List<byte[][]>>() {
+				@Override
+				public List<byte[][]> call() throws IOException {
+					return Lists.newArrayList(getEdgeProperties(eid));
+				}
+			});
 		}
+		return invokeAll(tasks);
 	}
 	
-	public byte[] getEdgeProperty(byte[] eid, byte[] pkey) throws IOException {
-		HTableInterface table = table(edgPropertiesTable);
+	public void setEdgeProperty(byte[] eid, byte[] pkey, byte[] pval) throws IOException {
+		HRawBatch batch = mutations();
 		try {
-			Get g = new Get(Bytes.add(eid, pkey));
-			g.addColumn(EDGP_CF, eid);
-			Result r = table.get(g);
-			return r.getValue(EDGP_CF, pkey);
+			batch.setEdgeProperty(eid, pkey, pval);
 		} finally {
-			repool(table);
+			batch.close();
 		}
 	}
 	
+	public byte[] getEdgeProperty(byte[] eid, byte[] pkey) throws IOException {
+		return getEdgeProperty(eid, pkey, true);
+	}
+	
+	protected byte[] getEdgeProperty(byte[] eid, byte[] pkey, boolean cached) throws IOException {
+		HRawTransaction tx = transactions.get();
+		if(tx != null && tx.getEdgeProperties(eid) != null && tx.getEdgeProperties(eid).containsKey(pkey))
+			return tx.getEdgeProperties(eid).get(pkey);
+		GReadCache c = cached ? readCache() : null;
+		if(c != null)
+			return property(cachedProperties(edgPropertiesTable, EDGP_CF, eid, c), pkey);
+		return readProperties(edgPropertiesTable, EDGP_CF, Collections.singletonList(eid), pkey)[0];
+	}
+	
 	public void removeEdgeProperty(byte[] eid, byte[] pkey) throws IOException {
-		byte[] pval = null;
-		if(idxTables.containsKey(pkey))
-			pval = getEdgeProperty(eid, pkey);
-		
-		HTableInterface table = table(edgPropertiesTable);
+		HRawBatch batch = mutations();
 		try {
-			Delete d = new Delete(Bytes.add(eid, pkey));
-			d.deleteColumn(EDGP_CF, eid);
-			table.delete(d);
+			batch.removeEdgeProperty(eid, pkey);
 		} finally {
-			repool(table);
-		}
-
-		if(idxTables.containsKey(pkey) && pval != null) {
-			table = table(idxTables.get(pkey));
-			try {
-				Delete d = new Delete(Bytes.add(pval, eid));
-				d.deleteColumn(IDX_EDG_CF, pval);
-				table.delete(d);
-			} finally {
-				repool(table);
-			}
+			batch.close();
 		}
 	}
 	
 	public void removeEdgeProperty(byte[] eid, byte[] pkey, byte[] pval) throws IOException {
-		HTableInterface table = table(edgPropertiesTable);
+		HRawBatch batch = mutations();
 		try {
-			Delete d = new Delete(Bytes.add(eid, pkey));
-			d.deleteColumn(EDGP_CF, eid);
-			table.delete(d);
+			batch.removeEdgeProperty(eid, pkey, pval);
 		} finally {
-			repool(table);
-		}
-
-		if(idxTables.containsKey(pkey)) {
-			table = table(idxTables.get(pkey));
-			try {
-				Delete d = new Delete(Bytes.add(pval, eid));
-				d.deleteColumn(IDX_EDG_CF, pval);
-				table.delete(d);
-			} finally {
-				repool(table);
-			}
+			batch.close();
 		}
 	}
 	
 	public void removeEdgeProperties(byte[] eid) throws IOException {
-		for(byte[][] p : getEdgeProperties(eid))
-			removeEdgeProperty(eid, p[0], p[1]);
+		HRawBatch batch = mutations();
+		try {
+			batch.removeEdgeProperties(eid);
+		} finally {
+			batch.close();
+		}
+	}
+	
+	public Iterable<byte[][]> getEdgeProperties(byte[] eid) throws IOException {
+		return getEdgeProperties(eid, true);
 	}
 	
-	public Iterable<byte[][]> getEdgeProperties(final byte[] eid) throws IOException {
+	protected Iterable<byte[][]> getEdgeProperties(final byte[] eid, boolean cached) throws IOException {
+		HRawTransaction tx = transactions.get();
+		final Map<byte[], byte[]> touched = tx == null ? null : tx.copyEdgeProperties(eid);
+		final GReadCache c = cached ? readCache() : null;
 		return new Iterable<byte[][]>() {
 			@Override
 			public Iterator<byte[][]> iterator() {
-				List<byte[][]> ret = new ArrayList<>();
+				List<byte[][]> ret;
 				try {
-					HTableInterface table = table(edgPropertiesTable);
-					try {
-//						Get g = new Get(eid);
-//						g.addFamily(EDGP_CF);
-//						Result r = table.get(g);
-//						if(r.getFamilyMap(EDGP_CF) != null)
-//							for(byte[] pkey : r.getFamilyMap(EDGP_CF).keySet())
-//								ret.add(new byte[][] {pkey, r.getValue(EDGP_CF, pkey)});
-						Scan scan = new Scan(eid);
-						scan.setStopRow(GBytes.endKey(eid));
-						scan.addColumn(EDGP_CF, eid);
-						scan.setBatch(8192);
-						scan.setCaching(8192);
-						for(Result r : table.getScanner(scan)) {
-							byte[] pkey = Bytes.tail(r.getRow(), r.getRow().length - eid.length);
-							byte[] pval = r.getValue(EDGP_CF, eid);
-							ret.add(new byte[][] {pkey, pval});
-						}
-					} finally {
-						repool(table);
-					}
+					ret = cachedProperties(edgPropertiesTable, EDGP_CF, eid, c);
 				} catch(IOException e) {
 					throw new RuntimeException(e);
 				}
+				if(touched != null)
+					ret = overlayProperties(ret, touched);
 				return ret.iterator();
 			}
 		};
 	}
-
+	
 	public void createIndex(byte[] pkey) throws IOException {
 		byte[] tkey = tableEscape(pkey);
 		
@@ -891,22 +2645,177 @@ public class HRawGraph {
 		return Collections.unmodifiableSet(idxTables.keySet());
 	}
 	
-	public void reindexVertices(byte[] pkey) throws IOException {
+	public void reindexVertices(final byte[] pkey) throws IOException {
 		log.info("{} reindexing vertex property {}", this, Bytes.toStringBinary(pkey));
-		for(byte[] vid : getAllVertices()) {
-			byte[] pval = getVertexProperty(vid, pkey);
-			if(pval != null)
-				setVertexProperty(vid, pkey, pval);
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for(final Iterable<byte[]> partition : getAllVerticesPartitions()) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					HRawBatch batch = batch();
+					try {
+						for(byte[] vid : partition) {
+							byte[] pval = getVertexProperty(vid, pkey);
+							if(pval != null)
+								batch.setVertexProperty(vid, pkey, pval);
+						}
+					} finally {
+						batch.close();
+					}
+					return null;
+				}
+			});
 		}
+		invokeAll(tasks);
 	}
 	
-	public void reindexEdges(byte[] pkey) throws IOException {
+	public void reindexEdges(final byte[] pkey) throws IOException {
 		log.info("{} reindexing edge property {}", this, Bytes.toStringBinary(pkey));
-		for(byte[] vid : getAllEdges()) {
-			byte[] pval = getEdgeProperty(vid, pkey);
-			if(pval != null)
-				setEdgeProperty(vid, pkey, pval);
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for(final Iterable<byte[]> partition : getAllEdgesPartitions()) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					HRawBatch batch = batch();
+					try {
+						for(byte[] eid : partition) {
+							byte[] pval = getEdgeProperty(eid, pkey);
+							if(pval != null)
+								batch.setEdgeProperty(eid, pkey, pval);
+						}
+					} finally {
+						batch.close();
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+	}
+	
+	protected <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+		return invokeAll(getScanExecutor(), tasks);
+	}
+	
+	protected <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<>(tasks.size());
+		if(tasks.isEmpty())
+			return results;
+		try {
+			for(Future<T> f : executor.invokeAll(tasks)) {
+				try {
+					results.add(f.get());
+				} catch(ExecutionException e) {
+					if(e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
 		}
+		return results;
+	}
+	
+	/**
+	 * Ids of the vertices whose property {@code pkey} has the value
+	 * {@code pval}, found with one scan of the vertex property table that
+	 * the region servers filter by row key suffix and value.  For keys
+	 * without an index.  Uncommitted writes of a transaction are not seen.
+	 */
+	public Iterable<byte[]> getVerticesWithProperty(byte[] pkey, byte[] pval) {
+		return propertyOwners(vtxPropertiesTable, VTXP_CF, pkey, pval);
+	}
+	
+	public Iterable<byte[]> getEdgesWithProperty(byte[] pkey, byte[] pval) {
+		return propertyOwners(edgPropertiesTable, EDGP_CF, pkey, pval);
+	}
+	
+	/**
+	 * Scan of a property table for the cells of {@code pkey} with the value
+	 * {@code pval}, returning only row and qualifier.  If properties are
+	 * {@link #isWide(byte[]) wide} the key is the qualifier.  Otherwise rows are {@code id+pkey}, so the row
+	 * filter matches the key as a suffix of the row, reading the row as
+	 * ISO-8859-1 so that every byte is one character; rows of longer keys
+	 * ending in {@code pkey} are dropped here, where the qualifier shows
+	 * where the id ends.
+	 */
+	protected Iterable<byte[]> propertyOwners(final byte[] tableName, final byte[] family, final byte[] pkey, final byte[] pval) {
+		return new Iterable<byte[]>() {
+			@Override
+			public Iterator<byte[]> iterator() {
+				FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+				if(isWide(tableName))
+					filters.addFilter(new QualifierFilter(CompareOp.EQUAL, new BinaryComparator(pkey)));
+				else {
+					RegexStringComparator suffix = new RegexStringComparator("(?s)" + Pattern.quote(new String(pkey, LATIN_1)) + "\\z");
+					suffix.setCharset(LATIN_1);
+					filters.addFilter(new RowFilter(CompareOp.EQUAL, suffix));
+				}
+				filters.addFilter(new ValueFilter(CompareOp.EQUAL, new BinaryComparator(pval)));
+				filters.addFilter(new KeyOnlyFilter());
+				Scan scan = new Scan();
+				scan.addFamily(family);
+				scan.setCaching(8192);
+				scan.setMaxVersions(1);
+				scan.setFilter(filters);
+				final ResultScanner scanner;
+				try {
+					scanner = scanner(tableName, scan);
+				} catch(IOException e) {
+					throw new RuntimeException(e);
+				}
+				final Iterator<Result> sci = scanner.iterator();
+				
+				return new Iterator<byte[]>() {
+					boolean closed;
+					byte[] next;
+					
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+					
+					@Override
+					public byte[] next() {
+						if(!hasNext())
+							throw new NoSuchElementException();
+						byte[] n = next;
+						next = null;
+						try {
+							return n;
+						} finally {
+							hasNext();
+						}
+					}
+					
+					@Override
+					public boolean hasNext() {
+						while(next == null) {
+							if(!sci.hasNext())
+								break;
+							Result r = sci.next();
+							byte[] row = r.getRow();
+							if(isWide(tableName)) {
+								next = row;
+								continue;
+							}
+							for(KeyValue kv : r.raw()) {
+								byte[] id = kv.getQualifier();
+								if(id.length + pkey.length == row.length && Bytes.startsWith(row, id))
+									next = id;
+							}
+						}
+						if(next == null && !closed) {
+							closed = true;
+							scanner.close();
+						}
+						return next != null;
+					}
+				};
+			}
+		};
 	}
 	
 	public Iterable<byte[][]> getIndexedVertices(final byte[] pkey, final byte[] pval) {
@@ -919,10 +2828,9 @@ public class HRawGraph {
 				scan.setBatch(8192);
 				scan.setCaching(8192);
 				scan.setMaxVersions(1);
-				ResultScanner scanner;
-				final HTableInterface table = table(idxTables.get(pkey));
+				final ResultScanner scanner;
 				try {
-					scanner = table.getScanner(scan);
+					scanner = scanner(idxTables.get(pkey), scan);
 				} catch(IOException e) {
 					throw new RuntimeException(e);
 				}
@@ -963,11 +2871,7 @@ public class HRawGraph {
 						}
 						if(next == null && !closed) {
 							closed = true;
-							try {
-								repool(table);
-							} catch(IOException e) {
-								throw new RuntimeException(e);
-							}
+							scanner.close();
 						}
 						return next != null;
 					}
@@ -981,15 +2885,14 @@ public class HRawGraph {
 			@Override
 			public Iterator<byte[][]> iterator() {
 				Scan scan = new Scan(pvalStart);
-				scan.setStopRow(GBytes.endKey(pvalStop));
+				scan.setStopRow(pvalStop);
 				scan.addFamily(IDX_VTX_CF);
 				scan.setBatch(8192);
 				scan.setCaching(8192);
 				scan.setMaxVersions(1);
-				ResultScanner scanner;
-				final HTableInterface table = table(idxTables.get(pkey));
+				final ResultScanner scanner;
 				try {
-					scanner = table.getScanner(scan);
+					scanner = scanner(idxTables.get(pkey), scan);
 				} catch(IOException e) {
 					throw new RuntimeException(e);
 				}
@@ -1023,24 +2926,14 @@ public class HRawGraph {
 							if(!sci.hasNext())
 								break;
 							Result r = sci.next();
-							if(r.getFamilyMap(IDX_VTX_CF) == null)
+							if(r.getFamilyMap(IDX_VTX_CF) == null || r.getFamilyMap(IDX_VTX_CF).isEmpty())
 								continue;
-							for(byte[] pval : r.getFamilyMap(IDX_VTX_CF).keySet()) {
-								Comparator<byte[]> c = Bytes.BYTES_COMPARATOR;
-								if(c.compare(pvalStart, pval) <= 0 && c.compare(pval, pvalStop) < 0) {
-									byte[] vid = r.getValue(IDX_VTX_CF, pval);
-									next = new byte[][]	 {pkey, pval, vid};
-									break;
-								}
-							}
+							Map.Entry<byte[], byte[]> e = r.getFamilyMap(IDX_VTX_CF).firstEntry();
+							next = new byte[][] {pkey, e.getKey(), e.getValue()};
 						}
 						if(next == null && !closed) {
 							closed = true;
-							try {
-								repool(table);
-							} catch(IOException e) {
-								throw new RuntimeException(e);
-							}
+							scanner.close();
 						}
 						return next != null;
 					}
@@ -1048,7 +2941,7 @@ public class HRawGraph {
 			}
 		};
 	}
-
+	
 	public Iterable<byte[][]> getIndexedEdges(final byte[] pkey, final byte[] pval) {
 		return new Iterable<byte[][]>() {
 			@Override
@@ -1059,10 +2952,9 @@ public class HRawGraph {
 				scan.setBatch(8192);
 				scan.setCaching(8192);
 				scan.setMaxVersions(1);
-				ResultScanner scanner;
-				final HTableInterface table = table(idxTables.get(pkey));
+				final ResultScanner scanner;
 				try {
-					scanner = table.getScanner(scan);
+					scanner = scanner(idxTables.get(pkey), scan);
 				} catch(IOException e) {
 					throw new RuntimeException(e);
 				}
@@ -1103,11 +2995,7 @@ public class HRawGraph {
 						}
 						if(next == null && !closed) {
 							closed = true;
-							try {
-								repool(table);
-							} catch(IOException e) {
-								throw new RuntimeException(e);
-							}
+							scanner.close();
 						}
 						return next != null;
 					}
@@ -1115,21 +3003,20 @@ public class HRawGraph {
 			}
 		};
 	}
-
+	
 	public Iterable<byte[][]> getIndexedEdges(final byte[] pkey, final byte[] pvalStart, final byte[] pvalStop) {
 		return new Iterable<byte[][]>() {
 			@Override
 			public Iterator<byte[][]> iterator() {
 				Scan scan = new Scan(pvalStart);
-				scan.setStopRow(GBytes.endKey(pvalStop));
+				scan.setStopRow(pvalStop);
 				scan.addFamily(IDX_EDG_CF);
 				scan.setBatch(8192);
 				scan.setCaching(8192);
 				scan.setMaxVersions(1);
-				ResultScanner scanner;
-				final HTableInterface table = table(idxTables.get(pkey));
+				final ResultScanner scanner;
 				try {
-					scanner = table.getScanner(scan);
+					scanner = scanner(idxTables.get(pkey), scan);
 				} catch(IOException e) {
 					throw new RuntimeException(e);
 				}
@@ -1163,24 +3050,14 @@ public class HRawGraph {
 							if(!sci.hasNext())
 								break;
 							Result r = sci.next();
-							if(r.getFamilyMap(IDX_EDG_CF) == null)
+							if(r.getFamilyMap(IDX_EDG_CF) == null || r.getFamilyMap(IDX_EDG_CF).isEmpty())
 								continue;
-							for(byte[] pval : r.getFamilyMap(IDX_EDG_CF).keySet()) {
-								Comparator<byte[]> c = Bytes.BYTES_COMPARATOR;
-								if(c.compare(pvalStart, pval) <= 0 && c.compare(pval, pvalStop) < 0) {
-									byte[] eid = r.getValue(IDX_EDG_CF, pval);
-									next = new byte[][]	 {pkey, pval, eid};
-									break;
-								}
-							}
+							Map.Entry<byte[], byte[]> e = r.getFamilyMap(IDX_EDG_CF).firstEntry();
+							next = new byte[][] {pkey, e.getKey(), e.getValue()};
 						}
 						if(next == null && !closed) {
 							closed = true;
-							try {
-								repool(table);
-							} catch(IOException e) {
-								throw new RuntimeException(e);
-							}
+							scanner.close();
 						}
 						return next != null;
 					}
@@ -1188,7 +3065,7 @@ public class HRawGraph {
 			}
 		};
 	}
-
+	
 	public byte[] getPrefix() {
 		return prefix;
 	}
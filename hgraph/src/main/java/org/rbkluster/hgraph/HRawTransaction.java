@@ -0,0 +1,291 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Per-thread transaction of a transactional {@link HRawGraph}.  Mutations are
+ * buffered like in a {@link HRawBatch}, but never flushed before
+ * {@link #commit()}, and the elements and properties they touch are recorded
+ * so that reads on the same thread see them.  On commit every mutation gets
+ * an explicit timestamp, later mutations of a row getting later timestamps,
+ * so the whole buffer is applied in order even though each table receives it
+ * as one unordered batch.  Indexed writes still take their
+ * {@link #indexedTimestamp(long) timestamp} when queued, which moves the
+ * clock above the cell they replace, so the commit timestamps, taken later,
+ * stay above it too.
+ */
+public class HRawTransaction extends HRawBatch {
+	protected Map<byte[], Boolean> vertices = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	protected Map<byte[], byte[][]> edges = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	protected Map<byte[], Map<byte[], byte[]>> vertexProperties = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	protected Map<byte[], Map<byte[], byte[]>> edgeProperties = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+	
+	public HRawTransaction(HRawGraph raw) {
+		super(raw, Integer.MAX_VALUE, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Whether the vertex was added (true) or removed (false) in this
+	 * transaction, or null if neither.
+	 */
+	public Boolean vertexState(byte[] vid) {
+		return vertices.get(vid);
+	}
+	
+	public Map<byte[], Boolean> getVertices() {
+		return vertices;
+	}
+	
+	public boolean touchesEdge(byte[] eid) {
+		return edges.containsKey(eid);
+	}
+	
+	/**
+	 * An edge added in this transaction as {@code {vout, eid, vin, labelId}},
+	 * or null if it was removed or not touched.
+	 */
+	public byte[][] getEdge(byte[] eid) {
+		return edges.get(eid);
+	}
+	
+	public Map<byte[], byte[][]> getEdges() {
+		return edges;
+	}
+	
+	/**
+	 * Edges added in this transaction at {@code vid}, out edges if
+	 * {@code out} is set, in edges otherwise, and only with label
+	 * {@code labelId} unless it is null.
+	 */
+	public List<byte[][]> getEdges(byte[] vid, byte[] labelId, boolean out) {
+		List<byte[][]> ret = new ArrayList<>();
+		for(byte[][] e : edges.values()) {
+			if(e == null || !Arrays.equals(vid, out ? e[0] : e[2]))
+				continue;
+			if(labelId == null || Arrays.equals(labelId, e[3]))
+				ret.add(e);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Properties of a vertex set (non-null value) or removed (null value) in
+	 * this transaction, or null if none were touched.
+	 */
+	public Map<byte[], byte[]> getVertexProperties(byte[] vid) {
+		return vertexProperties.get(vid);
+	}
+	
+	public Map<byte[], byte[]> getEdgeProperties(byte[] eid) {
+		return edgeProperties.get(eid);
+	}
+	
+	/**
+	 * Copy of {@link #getVertexProperties(byte[])}, or null.
+	 */
+	public Map<byte[], byte[]> copyVertexProperties(byte[] vid) {
+		return copy(vertexProperties.get(vid));
+	}
+	
+	public Map<byte[], byte[]> copyEdgeProperties(byte[] eid) {
+		return copy(edgeProperties.get(eid));
+	}
+	
+	protected static Map<byte[], byte[]> copy(Map<byte[], byte[]> properties) {
+		if(properties == null)
+			return null;
+		Map<byte[], byte[]> copy = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		copy.putAll(properties);
+		return copy;
+	}
+	
+	protected static void record(Map<byte[], Map<byte[], byte[]>> properties, byte[] id, byte[] pkey, byte[] pval) {
+		Map<byte[], byte[]> p = properties.get(id);
+		if(p == null)
+			properties.put(id, p = new TreeMap<>(Bytes.BYTES_COMPARATOR));
+		p.put(pkey, pval);
+	}
+	
+	@Override
+	public byte[] addVertex(byte[] vid) throws IOException {
+		vid = super.addVertex(vid);
+		vertices.put(vid, true);
+		return vid;
+	}
+	
+	@Override
+	public void removeVertex(byte[] vid, GProgressFuture<?> progress) throws IOException {
+		super.removeVertex(vid, progress);
+		vertices.put(vid, false);
+	}
+	
+	@Override
+	public byte[] addEdge(byte[] eid, byte[] vout, byte[] vin, byte[] label) throws IOException {
+		eid = super.addEdge(eid, vout, vin, label);
+		edges.put(eid, new byte[][] {vout, eid, vin, raw.labelId(label)});
+		return eid;
+	}
+	
+	@Override
+	public void removeEdge(byte[] eid) throws IOException {
+		if(!edges.containsKey(eid)) {
+			super.removeEdge(eid);
+			return;
+		}
+		byte[][] e = edges.get(eid);
+		if(e != null)
+			removeEdge(eid, e[0], e[2], e[3]);
+	}
+	
+	@Override
+	protected void removeEdgeRows(byte[] eid, byte[] vout, byte[] vin, byte[] labelId) throws IOException {
+		super.removeEdgeRows(eid, vout, vin, labelId);
+		edges.put(eid, null);
+	}
+	
+	@Override
+	public void setVertexProperty(byte[] vid, byte[] pkey, byte[] pval) throws IOException {
+		super.setVertexProperty(vid, pkey, pval);
+		record(vertexProperties, vid, pkey, pval);
+	}
+	
+	@Override
+	public void setVertexProperties(byte[] vid, Map<byte[], byte[]> properties) throws IOException {
+		super.setVertexProperties(vid, properties);
+		for(Map.Entry<byte[], byte[]> e : properties.entrySet())
+			record(vertexProperties, vid, e.getKey(), e.getValue());
+	}
+	
+	@Override
+	protected void removeVertexProperty(byte[] vid, byte[] pkey, byte[] pval, long ts) throws IOException {
+		super.removeVertexProperty(vid, pkey, pval, ts);
+		record(vertexProperties, vid, pkey, null);
+	}
+	
+	@Override
+	public void setEdgeProperty(byte[] eid, byte[] pkey, byte[] pval) throws IOException {
+		super.setEdgeProperty(eid, pkey, pval);
+		record(edgeProperties, eid, pkey, pval);
+	}
+	
+	@Override
+	public void setEdgeProperties(byte[] eid, Map<byte[], byte[]> properties) throws IOException {
+		super.setEdgeProperties(eid, properties);
+		for(Map.Entry<byte[], byte[]> e : properties.entrySet())
+			record(edgeProperties, eid, e.getKey(), e.getValue());
+	}
+	
+	@Override
+	protected void removeEdgeProperty(byte[] eid, byte[] pkey, byte[] pval, long ts) throws IOException {
+		super.removeEdgeProperty(eid, pkey, pval, ts);
+		record(edgeProperties, eid, pkey, null);
+	}
+	
+	/**
+	 * Copy of {@code m} with all its cells at {@code ts}.
+	 */
+	protected static Mutation stamp(Mutation m, long ts) {
+		if(m instanceof Put) {
+			Put p = new Put(m.getRow(), ts);
+			for(List<KeyValue> kvs : m.getFamilyMap().values())
+				for(KeyValue kv : kvs)
+					p.add(kv.getFamily(), kv.getQualifier(), ts, kv.getValue());
+			return p;
+		}
+		Delete d = new Delete(m.getRow(), ts, null);
+		for(List<KeyValue> kvs : m.getFamilyMap().values()) {
+			for(KeyValue kv : kvs) {
+				if(kv.isDeleteFamily())
+					d.deleteFamily(kv.getFamily(), ts);
+				else if(kv.isDeleteColumnOrFamily())
+					d.deleteColumns(kv.getFamily(), kv.getQualifier(), ts);
+				else if(kv.getTimestamp() == HConstants.LATEST_TIMESTAMP)
+					d.deleteColumn(kv.getFamily(), kv.getQualifier());
+				else
+					d.deleteColumn(kv.getFamily(), kv.getQualifier(), kv.getTimestamp());
+			}
+		}
+		return d;
+	}
+	
+	/**
+	 * Queues without flushing; {@link #commit()} orders the mutations of a
+	 * row by timestamp instead.
+	 */
+	@Override
+	protected void order(byte[] tableName, Mutation m) {
+	}
+	
+	/**
+	 * Leaves the transaction open; its mutations are only sent by
+	 * {@link #commit()}.
+	 */
+	@Override
+	public void close() {
+	}
+	
+	/**
+	 * Sends all buffered mutations, one batch per table, at timestamps above
+	 * any the clock returned while they were queued.
+	 */
+	public void commit() throws IOException {
+		if(closed)
+			throw new IllegalStateException(this + " is closed");
+		int depth = 0;
+		Map<byte[], Integer> rowDepths = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		for(List<Row> rows : pending.values()) {
+			rowDepths.clear();
+			for(Row r : rows) {
+				Integer d = rowDepths.get(r.getRow());
+				rowDepths.put(r.getRow(), d = d == null ? 0 : d + 1);
+				depth = Math.max(depth, d);
+			}
+		}
+		long ts = raw.timestamp(0, depth + 1);
+		for(List<Row> rows : pending.values()) {
+			rowDepths.clear();
+			for(int i = 0; i < rows.size(); i++) {
+				Row r = rows.get(i);
+				Integer d = rowDepths.get(r.getRow());
+				rowDepths.put(r.getRow(), d = d == null ? 0 : d + 1);
+				rows.set(i, stamp((Mutation) r, ts + d));
+			}
+		}
+		try {
+			flush();
+		} finally {
+			closed = true;
+		}
+	}
+	
+	/**
+	 * Discards all buffered mutations.
+	 */
+	public void rollback() {
+		pending.clear();
+		pendingPuts.clear();
+		pendingVertexIndexed.clear();
+		pendingEdgeIndexed.clear();
+		pendingVertexStates.clear();
+		pendingCounts.clear();
+		pendingVertices = 0;
+		pendingEdges = 0;
+		pendingRows = 0;
+		pendingBytes = 0;
+		invalidated.clear();
+		closed = true;
+	}
+}
@@ -0,0 +1,48 @@
+package org.rbkluster.hgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A vertex read together with its properties and edges by
+ * {@link HRawGraph#getVertexNeighborhood(byte[], int)}.  Properties are
+ * {@code {pkey, pval}}, edges {@code {vout, eid, vin, labelId}}.
+ */
+public class HRawVertex {
+	protected byte[] vid;
+	protected boolean exists;
+	protected List<byte[][]> properties = new ArrayList<>();
+	protected List<byte[][]> edgesOut = new ArrayList<>();
+	protected List<byte[][]> edgesIn = new ArrayList<>();
+	
+	public HRawVertex(byte[] vid) {
+		this.vid = vid;
+	}
+	
+	public byte[] getId() {
+		return vid;
+	}
+	
+	public boolean exists() {
+		return exists;
+	}
+	
+	public List<byte[][]> getProperties() {
+		return properties;
+	}
+	
+	public List<byte[][]> getEdgesOut() {
+		return edgesOut;
+	}
+	
+	public List<byte[][]> getEdgesIn() {
+		return edgesIn;
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + Bytes.toStringBinary(vid) + "]";
+	}
+}
@@ -0,0 +1,70 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+
+import com.tinkerpop.blueprints.Features;
+import com.tinkerpop.blueprints.TransactionalGraph;
+
+/**
+ * {@link HGraph} whose mutations are buffered per thread until
+ * {@link #commit()}, which sends them as one ordered batch per table, or
+ * {@link #rollback()}, which discards them.  A thread reads its own
+ * uncommitted writes, except through key index lookups.  Transactions are
+ * kept in a transactional {@link HRawGraph#view() view} of the raw graph,
+ * so other users of the raw graph keep writing through.  See
+ * {@link HRawGraph#setTransactional(boolean)}.
+ */
+public class HTransactionalGraph extends HGraph implements TransactionalGraph {
+	protected HRawGraph base;
+	
+	public HTransactionalGraph(HRawGraph raw) throws IOException {
+		super(raw.view());
+		base = raw;
+		this.raw.setTransactional(true);
+	}
+	
+	@Override
+	public Features getFeatures() {
+		Features f = super.getFeatures();
+		f.supportsTransactions = true;
+		return f;
+	}
+	
+	@Deprecated
+	@Override
+	public void stopTransaction(Conclusion conclusion) {
+		if(conclusion == Conclusion.SUCCESS)
+			commit();
+		else
+			rollback();
+	}
+	
+	@Override
+	public void commit() {
+		try {
+			raw.commit();
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Override
+	public void rollback() {
+		raw.rollback();
+	}
+	
+	/**
+	 * Commits the transaction of the calling thread, then shuts down the
+	 * view and the raw graph.
+	 */
+	@Override
+	public void shutdown() {
+		commit();
+		super.shutdown();
+		try {
+			base.shutdown();
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FuzzyRowFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import com.tinkerpop.blueprints.Direction;
+
+import static org.rbkluster.hgraph.GConstants.*;
+
+/**
+ * Breadth first expansion over the adjacency rows of a {@link HRawGraph}, a
+ * whole frontier per hop.  Each hop sorts the frontier, groups it by region
+ * of the vertex table and reads every {@link #CHUNK} vertices of a group
+ * with a single scan, whose {@link FuzzyRowFilter} seeks from one adjacency
+ * prefix to the next on the region server.  The chunks are read concurrently
+ * on {@link HRawGraph#getScanExecutor()}.  Visited vertices are kept in a
+ * {@link GByteSet} and expanded at most once.
+ * <p>
+ * A thread with an open {@link HRawTransaction} expands vertex by vertex so
+ * that it sees its own writes.
+ */
+public class HTraversal {
+	public static final int CHUNK = 256;
+	
+	protected HRawGraph raw;
+	protected Direction direction = Direction.OUT;
+	protected byte[][] labels;
+	protected int depth = 1;
+	protected int limit = Integer.MAX_VALUE;
+	protected int maxVertices = Integer.MAX_VALUE;
+	protected boolean endpoint;
+	
+	public HTraversal(HRawGraph raw) {
+		this.raw = raw;
+	}
+	
+	public HTraversal direction(Direction direction) {
+		this.direction = direction;
+		return this;
+	}
+	
+	/**
+	 * Only follows edges with one of {@code labels}; no labels, the default,
+	 * follows all edges.
+	 */
+	public HTraversal labels(byte[]... labels) {
+		this.labels = labels.length == 0 ? null : labels;
+		return this;
+	}
+	
+	public HTraversal depth(int depth) {
+		this.depth = depth;
+		return this;
+	}
+	
+	/**
+	 * Follows at most {@code limit} edges of each vertex per hop.
+	 */
+	public HTraversal limit(int limit) {
+		this.limit = limit;
+		return this;
+	}
+	
+	/**
+	 * Stops once {@code maxVertices} vertices, counting the start vertices,
+	 * have been reached.
+	 */
+	public HTraversal maxVertices(int maxVertices) {
+		this.maxVertices = maxVertices;
+		return this;
+	}
+	
+	/**
+	 * Expands through the {@link HNeighborhoodEndpoint} of the graph, which
+	 * only sends back neighbor ids, unless the thread has a transaction open.
+	 */
+	public HTraversal endpoint(boolean endpoint) {
+		this.endpoint = endpoint;
+		return this;
+	}
+	
+	/**
+	 * The vertices first reached at each hop, the distinct start vertices
+	 * being hop 0.  Stops early at an empty hop.
+	 */
+	public List<List<byte[]>> layers(Iterable<byte[]> start) throws IOException {
+		GByteSet visited = new GByteSet();
+		List<byte[]> frontier = new ArrayList<>();
+		for(byte[] vid : start) {
+			if(visited.size() < maxVertices && visited.add(vid))
+				frontier.add(vid);
+		}
+		List<List<byte[]>> layers = new ArrayList<>();
+		layers.add(frontier);
+		for(int d = 0; d < depth && !frontier.isEmpty() && visited.size() < maxVertices; d++) {
+			List<byte[]> next = new ArrayList<>();
+			for(byte[] vid : neighbors(frontier)) {
+				if(visited.size() < maxVertices && visited.add(vid))
+					next.add(vid);
+			}
+			if(next.isEmpty())
+				break;
+			layers.add(next);
+			frontier = next;
+		}
+		return layers;
+	}
+	
+	/**
+	 * The vertices reachable from {@code start} in 1 to {@link #depth(int)}
+	 * hops, nearest first.
+	 */
+	public List<byte[]> reach(Iterable<byte[]> start) throws IOException {
+		List<List<byte[]>> layers = layers(start);
+		List<byte[]> reached = new ArrayList<>();
+		for(List<byte[]> layer : layers.subList(1, layers.size()))
+			reached.addAll(layer);
+		return reached;
+	}
+	
+	/**
+	 * Vertices adjacent to {@code frontier}, possibly including some of the
+	 * frontier itself.
+	 */
+	protected List<byte[]> neighbors(List<byte[]> frontier) throws IOException {
+		if(endpoint && raw.getTransaction() == null)
+			return raw.getNeighbors(frontier, direction != Direction.IN, direction != Direction.OUT, limit, labels == null ? new byte[0][] : labels);
+		List<byte[]> neighbors = new ArrayList<>();
+		for(byte[][] e : expand(frontier)) {
+			neighbors.add(e[0]);
+			neighbors.add(e[2]);
+		}
+		return neighbors;
+	}
+	
+	/**
+	 * The edges of every vertex of {@code frontier} as
+	 * {@code {vout, eid, vin, labelId}}, in no particular order.
+	 */
+	public List<byte[][]> expand(List<byte[]> frontier) throws IOException {
+		byte[][] lids = raw.toLabelIds(labels);
+		if(lids != null && lids.length == 0)
+			return Collections.emptyList();
+		if(raw.getTransaction() != null)
+			return expandEach(frontier, lids);
+		
+		List<Callable<List<byte[][]>>> tasks = new ArrayList<>();
+		for(List<byte[]> chunk : raw.regionGroups(raw.vtxTable, frontier, CHUNK))
+			tasks.add(scanTask(chunk, lids));
+		
+		List<byte[][]> edges = new ArrayList<>();
+		for(List<byte[][]> e : raw.invokeAll(tasks))
+			edges.addAll(e);
+		return edges;
+	}
+	
+	protected byte[][] families() {
+		switch(direction) {
+		case OUT:
+			return new byte[][] {VTX_OUT_CF};
+		case IN:
+			return new byte[][] {VTX_IN_CF};
+		default:
+			return new byte[][] {VTX_OUT_CF, VTX_IN_CF};
+		}
+	}
+	
+	protected Callable<List<byte[][]>> scanTask(final List<byte[]> chunk, final byte[][] lids) {
+		return new Callable<List<byte[][]>>() {
+			@Override
+			public List<byte[][]> call() throws Exception {
+				return scan(chunk, lids);
+			}
+		};
+	}
+	
+	/**
+	 * Reads the adjacency rows of all of {@code vids} with one scan.  Rows of
+	 * a vertex whose id has another one of {@code vids} as prefix also match
+	 * the filter; their qualifier tells them apart.
+	 */
+	protected List<byte[][]> scan(List<byte[]> vids, byte[][] lids) throws IOException {
+		List<Pair<byte[], byte[]>> prefixes = new ArrayList<>();
+		byte[] first = null;
+		byte[] last = null;
+		Map<byte[], int[]> counts = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+		for(byte[] vid : vids) {
+			counts.put(vid, new int[1]);
+			for(byte[] prefix : lids == null ? new byte[][] {vid} : prefixes(vid, lids)) {
+				prefixes.add(new Pair<>(prefix, new byte[prefix.length]));
+				if(first == null || Bytes.compareTo(prefix, first) < 0)
+					first = prefix;
+				if(last == null || Bytes.compareTo(prefix, last) > 0)
+					last = prefix;
+			}
+		}
+		
+		Scan scan = new Scan(first, GBytes.endKey(last));
+		for(byte[] family : families())
+			scan.addFamily(family);
+		scan.setMaxVersions(1);
+		scan.setCaching(8192);
+		scan.setFilter(new FuzzyRowFilter(prefixes));
+		
+		List<byte[][]> edges = new ArrayList<>();
+		ResultScanner scanner = raw.scanner(raw.vtxTable, scan);
+		try {
+			for(Result r = scanner.next(); r != null; r = scanner.next()) {
+				byte[] row = r.getRow();
+				for(KeyValue kv : r.raw()) {
+					byte[] vid = kv.getQualifier();
+					int[] count = counts.get(vid);
+					if(count == null || count[0] >= limit)
+						continue;
+					if(row.length < vid.length + LABEL_ID_LENGTH || !Bytes.startsWith(row, vid))
+						continue;
+					byte[] lid = Arrays.copyOfRange(row, vid.length, vid.length + LABEL_ID_LENGTH);
+					if(lids != null && !contains(lids, lid))
+						continue;
+					byte[] eid = Bytes.tail(row, row.length - vid.length - LABEL_ID_LENGTH);
+					if(Bytes.equals(kv.getFamily(), VTX_OUT_CF))
+						edges.add(new byte[][] {vid, eid, kv.getValue(), lid});
+					else
+						edges.add(new byte[][] {kv.getValue(), eid, vid, lid});
+					count[0]++;
+				}
+			}
+		} finally {
+			scanner.close();
+		}
+		return edges;
+	}
+	
+	protected static byte[][] prefixes(byte[] vid, byte[][] lids) {
+		byte[][] prefixes = new byte[lids.length][];
+		for(int i = 0; i < lids.length; i++)
+			prefixes[i] = Bytes.add(vid, lids[i]);
+		return prefixes;
+	}
+	
+	protected static boolean contains(byte[][] lids, byte[] lid) {
+		for(byte[] l : lids) {
+			if(Arrays.equals(l, lid))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * {@link #expand(List)} one adjacency read per vertex and label, as seen
+	 * by the calling thread.
+	 */
+	protected List<byte[][]> expandEach(List<byte[]> frontier, byte[][] lids) {
+		List<byte[][]> edges = new ArrayList<>();
+		for(byte[] vid : frontier) {
+			int count = 0;
+			for(byte[] family : families()) {
+				if(count >= limit)
+					break;
+				for(byte[] prefix : lids == null ? new byte[][] {vid} : prefixes(vid, lids)) {
+					for(byte[][] e : raw.adjacent(vid, prefix, family, limit - count)) {
+						edges.add(e);
+						if(++count >= limit)
+							break;
+					}
+					if(count >= limit)
+						break;
+				}
+			}
+		}
+		return edges;
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + raw + " " + direction + " depth " + depth + "]";
+	}
+}
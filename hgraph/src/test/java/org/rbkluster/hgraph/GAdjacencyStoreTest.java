@@ -0,0 +1,162 @@
+package org.rbkluster.hgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class GAdjacencyStoreTest {
+	protected static List<byte[][]> tuples(Random r, int count) {
+		List<byte[][]> tuples = new ArrayList<>();
+		for(int i = 0; i < count; i++) {
+			byte[] eid = new byte[r.nextInt(30)];
+			r.nextBytes(eid);
+			tuples.add(new byte[][] {Bytes.toBytes(i), eid, i % 7 == 0 ? null : Bytes.toBytes((long) i)});
+		}
+		return tuples;
+	}
+	
+	protected static void assertTuples(List<byte[][]> expected, Iterable<byte[][]> actual) {
+		List<byte[][]> a = Lists.newArrayList(actual);
+		Assert.assertEquals(expected.size(), a.size());
+		for(int i = 0; i < a.size(); i++)
+			Assert.assertTrue(Arrays.deepEquals(expected.get(i), a.get(i)));
+	}
+	
+	@Test
+	public void testPutGetRemove() {
+		GAdjacencyStore store = new GAdjacencyStore(1024 * 1024, 4096);
+		Random r = new Random(42);
+		List<List<byte[][]>> lists = new ArrayList<>();
+		for(int i = 0; i < 100; i++) {
+			lists.add(tuples(r, i));
+			Assert.assertTrue(store.put(Bytes.toBytes(i), 3, lists.get(i)));
+		}
+		Assert.assertEquals(100, store.size());
+		for(int i = 0; i < 100; i++)
+			assertTuples(lists.get(i), store.get(Bytes.toBytes(i)));
+		Assert.assertNull(store.get(Bytes.toBytes(100)));
+		Assert.assertEquals(100, store.getHitCount());
+		Assert.assertEquals(1, store.getMissCount());
+		
+		for(int i = 0; i < 100; i += 2)
+			Assert.assertTrue(store.remove(Bytes.toBytes(i)));
+		Assert.assertFalse(store.remove(Bytes.toBytes(0)));
+		Assert.assertEquals(50, store.size());
+		for(int i = 1; i < 100; i += 2)
+			assertTuples(lists.get(i), store.get(Bytes.toBytes(i)));
+		
+		List<byte[][]> replaced = tuples(r, 3);
+		store.put(Bytes.toBytes(1), 3, replaced);
+		assertTuples(replaced, store.get(Bytes.toBytes(1)));
+		Assert.assertEquals(50, store.size());
+		
+		store.clear();
+		Assert.assertEquals(0, store.size());
+		Assert.assertNull(store.get(Bytes.toBytes(1)));
+	}
+	
+	@Test
+	public void testEviction() {
+		GAdjacencyStore store = new GAdjacencyStore(64 * 1024, 4096);
+		Random r = new Random(42);
+		List<List<byte[][]>> lists = new ArrayList<>();
+		for(int i = 0; i < 1000; i++) {
+			lists.add(tuples(r, 20));
+			store.put(Bytes.toBytes(i), 3, lists.get(i));
+			Assert.assertTrue(store.getAllocatedBytes() <= store.getMaxBytes());
+		}
+		Assert.assertTrue(store.getEvictionCount() > 0);
+		Assert.assertEquals(1000 - store.getEvictionCount(), store.size());
+		assertTuples(lists.get(999), store.get(Bytes.toBytes(999)));
+		Assert.assertNull(store.get(Bytes.toBytes(0)));
+		for(int i = 0; i < 1000; i++) {
+			Iterable<byte[][]> t = store.get(Bytes.toBytes(i));
+			if(t != null)
+				assertTuples(lists.get(i), t);
+		}
+		
+		List<byte[][]> large = tuples(r, 1000);
+		Assert.assertTrue(store.put(Bytes.toBytes(-1), 3, large));
+		assertTuples(large, store.get(Bytes.toBytes(-1)));
+		Assert.assertTrue(store.getAllocatedBytes() <= store.getMaxBytes());
+		Assert.assertFalse(store.put(Bytes.toBytes(-2), 3, tuples(r, 10000)));
+	}
+	
+	@Test
+	public void testSecondChance() {
+		GAdjacencyStore store = new GAdjacencyStore(64 * 1024, 4096);
+		Random r = new Random(42);
+		List<byte[][]> hot = tuples(r, 20);
+		store.put(Bytes.toBytes(-1), 3, hot);
+		for(int i = 0; i < 1000; i++) {
+			store.put(Bytes.toBytes(i), 3, tuples(r, 20));
+			Assert.assertNotNull(store.get(Bytes.toBytes(-1)));
+		}
+		Assert.assertTrue(store.getEvictionCount() > 0);
+		assertTuples(hot, store.get(Bytes.toBytes(-1)));
+		Assert.assertTrue(store.getAllocatedBytes() <= store.getMaxBytes());
+	}
+	
+	@Test
+	public void testGeneration() {
+		GAdjacencyStore store = new GAdjacencyStore(1024 * 1024, 4096);
+		List<byte[][]> tuples = tuples(new Random(42), 10);
+		long generation = store.generation();
+		store.remove(Bytes.toBytes(1));
+		Assert.assertFalse(store.put(Bytes.toBytes(1), 3, tuples, generation));
+		Assert.assertNull(store.get(Bytes.toBytes(1)));
+		Assert.assertTrue(store.put(Bytes.toBytes(1), 3, tuples, store.generation()));
+		assertTuples(tuples, store.get(Bytes.toBytes(1)));
+	}
+	
+	@Test
+	public void testConcurrentEviction() throws Exception {
+		final GAdjacencyStore store = new GAdjacencyStore(64 * 1024, 4096);
+		Random r = new Random(42);
+		final List<List<byte[][]>> lists = new ArrayList<>();
+		for(int i = 0; i < 1000; i++)
+			lists.add(tuples(r, 20));
+		final AtomicBoolean done = new AtomicBoolean();
+		ExecutorService exec = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> readers = new ArrayList<>();
+			for(int k = 0; k < 3; k++) {
+				final Random rt = new Random(k);
+				readers.add(exec.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						while(!done.get()) {
+							int i = rt.nextInt(lists.size());
+							List<byte[][]> t = store.get(Bytes.toBytes(i));
+							if(t != null)
+								assertTuples(lists.get(i), t);
+						}
+						return null;
+					}
+				}));
+			}
+			for(int n = 0; n < 100000; n++) {
+				int i = r.nextInt(lists.size());
+				store.put(Bytes.toBytes(i), 3, lists.get(i));
+			}
+			done.set(true);
+			for(Future<Void> f : readers)
+				f.get();
+		} finally {
+			exec.shutdown();
+		}
+		Assert.assertTrue(store.getEvictionCount() > 0);
+	}
+}
@@ -0,0 +1,40 @@
+package org.rbkluster.hgraph;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GByteSetTest {
+	@Test
+	public void testAddContains() {
+		GByteSet set = new GByteSet();
+		Set<byte[]> expected = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+		Random r = new Random(42);
+		for(int i = 0; i < 10000; i++) {
+			byte[] b = new byte[r.nextInt(12)];
+			r.nextBytes(b);
+			Assert.assertEquals(expected.add(b), set.add(b));
+		}
+		Assert.assertEquals(expected.size(), set.size());
+		for(byte[] b : expected)
+			Assert.assertTrue(set.contains(b));
+		Assert.assertFalse(set.contains(new byte[12]));
+	}
+	
+	@Test
+	public void testEmptyAndPrefixes() {
+		GByteSet set = new GByteSet(1);
+		Assert.assertTrue(set.isEmpty());
+		Assert.assertTrue(set.add(new byte[0]));
+		Assert.assertTrue(set.add(Bytes.toBytes("a")));
+		Assert.assertTrue(set.add(Bytes.toBytes("ab")));
+		Assert.assertFalse(set.add(Bytes.toBytes("a")));
+		Assert.assertTrue(set.contains(new byte[0]));
+		Assert.assertFalse(set.contains(Bytes.toBytes("b")));
+		Assert.assertEquals(3, set.size());
+	}
+}
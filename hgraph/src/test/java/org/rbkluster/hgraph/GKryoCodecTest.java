@@ -0,0 +1,85 @@
+package org.rbkluster.hgraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GKryoCodecTest {
+	private static class MemoryRegistrations implements GKryoCodec.Registrations {
+		private List<String> stored = new ArrayList<>();
+		
+		@Override
+		public synchronized List<String> load() throws IOException {
+			return new ArrayList<>(stored);
+		}
+		
+		@Override
+		public synchronized boolean store(List<String> expected, List<String> updated) throws IOException {
+			if(!stored.equals(expected))
+				return false;
+			stored = new ArrayList<>(updated);
+			return true;
+		}
+	}
+	
+	@Test
+	public void testRegistrations() throws Exception {
+		MemoryRegistrations r = new MemoryRegistrations();
+		GKryoCodec c1 = new GKryoCodec(r);
+		GKryoCodec c2 = new GKryoCodec(r);
+		
+		Map<String, Object> m = new HashMap<>();
+		m.put("foo", new ArrayList<Object>(Arrays.asList(1, 2L, "bar")));
+		
+		byte[] named = GBytes.toKryoBytes(m);
+		byte[] registered = c1.encode(m);
+		Assert.assertTrue(registered.length < named.length);
+		Assert.assertTrue(r.load().contains(HashMap.class.getName()));
+		
+		Assert.assertEquals(m, c2.decode(registered));
+		Assert.assertEquals(m, c2.decode(named));
+		Assert.assertArrayEquals(registered, c2.encode(m));
+	}
+	
+	@Test
+	public void testConcurrentUse() throws Exception {
+		final GKryoCodec codec = new GKryoCodec(new MemoryRegistrations());
+		ExecutorService exec = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for(int t = 0; t < 8; t++) {
+				final int seed = t;
+				futures.add(exec.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						for(int i = 0; i < 1000; i++) {
+							List<Object> v = new ArrayList<>();
+							v.add(seed);
+							v.add("value" + i);
+							v.add(new int[] {i, seed});
+							@SuppressWarnings("unchecked")
+							List<Object> d = (List<Object>) codec.decode(codec.encode(v));
+							if(!v.get(1).equals(d.get(1)) || !Arrays.equals((int[]) v.get(2), (int[]) d.get(2)))
+								return false;
+						}
+						return true;
+					}
+				}));
+			}
+			for(Future<Boolean> f : futures)
+				Assert.assertTrue(f.get());
+		} finally {
+			exec.shutdown();
+		}
+	}
+}
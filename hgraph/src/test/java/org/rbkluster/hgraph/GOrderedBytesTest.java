@@ -0,0 +1,46 @@
+package org.rbkluster.hgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GOrderedBytesTest {
+	private static void assertOrdered(List<?> values) {
+		List<byte[]> encoded = new ArrayList<>();
+		for(Object v : values) {
+			byte[] b = GOrderedBytes.toBytes(v);
+			Assert.assertEquals(v, GOrderedBytes.fromBytes(b));
+			encoded.add(b);
+		}
+		List<byte[]> sorted = new ArrayList<>(encoded);
+		Collections.sort(sorted, Bytes.BYTES_COMPARATOR);
+		for(int i = 0; i < encoded.size(); i++)
+			Assert.assertArrayEquals("order differs at " + values.get(i), encoded.get(i), sorted.get(i));
+	}
+	
+	@Test
+	public void testNumbers() {
+		assertOrdered(Arrays.asList(Integer.MIN_VALUE, -300, -1, 0, 1, 255, 256, Integer.MAX_VALUE));
+		assertOrdered(Arrays.asList(Long.MIN_VALUE, -1L, 0L, 1L, Long.MAX_VALUE));
+		assertOrdered(Arrays.asList((short) -2, (short) 0, (short) 7));
+		assertOrdered(Arrays.asList((byte) -2, (byte) 0, (byte) 7));
+		assertOrdered(Arrays.asList(Double.NEGATIVE_INFINITY, -12.5, -0.001, 0.0, 0.001, 12.5, Double.POSITIVE_INFINITY));
+		assertOrdered(Arrays.asList(-1.5f, 0f, 2.25f));
+	}
+	
+	@Test
+	public void testStrings() {
+		assertOrdered(Arrays.asList("", "\u0000", "\u0000a", "a", "a\u0000", "ab", "b", "é"));
+	}
+	
+	@Test
+	public void testMixed() {
+		assertOrdered(Arrays.asList(false, true, (byte) 1, (short) 1, 1, 1L, 1f, 1.0, new Date(1000), "1"));
+	}
+}
@@ -0,0 +1,101 @@
+package org.rbkluster.hgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GParallelIterableTest {
+	private ExecutorService executor;
+	
+	@Before
+	public void before() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+	
+	@After
+	public void after() {
+		executor.shutdownNow();
+	}
+	
+	private static List<Integer> range(int start, int stop) {
+		List<Integer> r = new ArrayList<>();
+		for(int i = start; i < stop; i++)
+			r.add(i);
+		return r;
+	}
+	
+	@Test
+	public void testMerge() {
+		List<List<Integer>> partitions = new ArrayList<>();
+		for(int i = 0; i < 10; i++)
+			partitions.add(range(i * 1000, (i + 1) * 1000));
+		partitions.add(Collections.<Integer> emptyList());
+		
+		Set<Integer> seen = new TreeSet<>();
+		for(Integer i : new GParallelIterable<Integer>(partitions, executor, 16))
+			Assert.assertTrue("duplicate " + i, seen.add(i));
+		Assert.assertEquals(new TreeSet<>(range(0, 10000)), seen);
+	}
+	
+	@Test
+	public void testFailure() {
+		Iterable<Integer> broken = new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				throw new IllegalStateException("broken partition");
+			}
+		};
+		List<Iterable<Integer>> partitions = Arrays.asList(range(0, 100), broken);
+		try {
+			for(@SuppressWarnings("unused") Integer i : new GParallelIterable<Integer>(partitions, executor))
+				;
+			Assert.fail("partition failure not propagated");
+		} catch(IllegalStateException e) {
+			Assert.assertEquals("broken partition", e.getMessage());
+		}
+	}
+	
+	@Test(timeout = 10000)
+	public void testError() {
+		Iterable<Integer> broken = new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				throw new LinkageError("broken partition");
+			}
+		};
+		List<Iterable<Integer>> partitions = Arrays.asList(range(0, 100), broken);
+		try {
+			for(@SuppressWarnings("unused") Integer i : new GParallelIterable<Integer>(partitions, executor))
+				;
+			Assert.fail("partition error not propagated");
+		} catch(LinkageError e) {
+			Assert.assertEquals("broken partition", e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testClose() throws Exception {
+		List<List<Integer>> partitions = new ArrayList<>();
+		for(int i = 0; i < 4; i++)
+			partitions.add(range(0, 100000));
+		GParallelIterable<Integer>.ParallelIterator pi = new GParallelIterable<Integer>(partitions, executor, 4).iterator();
+		Assert.assertTrue(pi.hasNext());
+		pi.close();
+		Assert.assertFalse(pi.hasNext());
+		
+		executor.shutdown();
+		Assert.assertTrue("producers still blocked", executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+}
@@ -1,10 +1,25 @@
 package org.rbkluster.hgraph;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.collect.Iterables;
+import com.tinkerpop.blueprints.Compare;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.VertexQuery;
 
 public class HGraphTest extends AbstractHGraphTest {
 	@Test
@@ -13,9 +28,9 @@ public class HGraphTest extends AbstractHGraphTest {
 		raw.createTables();
 		try {
 			HGraph g = new HGraph(raw);
-
+			
 			Vertex v = g.addVertex(null);
-
+			
 			v.setProperty("foo", "bar");
 			v.setProperty("qux", 12.34);
 			Assert.assertEquals("bar", v.getProperty("foo"));
@@ -27,4 +42,365 @@ public class HGraphTest extends AbstractHGraphTest {
 			raw.dropTables();
 		}
 	}
+	
+	@Test
+	public void testUpgradePropertyFormat() throws Exception {
+		HRawGraph raw = new HRawGraph(Bytes.toBytes("upgradetest"), conf);
+		raw.createTables();
+		try {
+			HGraph g = new HGraph(raw);
+			Assert.assertTrue(g.isTypedProperties());
+			
+			g.propertyFormat = HGraph.LEGACY_PROPERTY_FORMAT;
+			raw.setIndexEncoder(null);
+			g.createKeyIndex("foo", Vertex.class);
+			Vertex v = g.addVertex(null);
+			v.setProperty("foo", "bar");
+			v.setProperty("qux", 12.34);
+			byte[] vid = ((HGraphId) v.getId()).getId();
+			Assert.assertEquals(4, Iterables.size(raw.getVertexProperties(vid)));
+			
+			HGraph failing = new HGraph(raw) {
+				{
+					propertyFormat = HGraph.LEGACY_PROPERTY_FORMAT;
+				}
+				
+				@Override
+				protected void upgradeProperties(HRawBatch batch, byte[] id, Iterable<byte[][]> properties, boolean vertex) throws IOException {
+					throw new IOException("upgrade failed");
+				}
+			};
+			raw.setIndexEncoder(null);
+			try {
+				failing.upgradePropertyFormat();
+				Assert.fail("upgrade did not fail");
+			} catch(RuntimeException e) {
+				Assert.assertTrue(raw.getIndexKeys().isEmpty());
+			}
+			
+			g.upgradePropertyFormat();
+			Assert.assertTrue(raw.getIndexKeys().contains(Bytes.toBytes("foo")));
+			Assert.assertTrue(g.isTypedProperties());
+			Assert.assertTrue(g.isOrderedIndexes());
+			Assert.assertEquals(2, Iterables.size(raw.getVertexProperties(vid)));
+			Assert.assertEquals("bar", v.getProperty("foo"));
+			Assert.assertEquals(12.34, v.<Double> getProperty("qux"), 0);
+			Assert.assertEquals(v, g.getVertices("foo", "bar").iterator().next());
+			Assert.assertEquals(1, Iterables.size(g.getVertices("foo", "bar")));
+			
+			Assert.assertTrue(new HGraph(raw).isOrderedIndexes());
+		} finally {
+			raw.dropTables();
+		}
+	}
+	
+	@Test
+	public void testPropertyCodecs() throws Exception {
+		HRawGraph raw = new HRawGraph(Bytes.toBytes("codectest"), conf);
+		raw.createTables();
+		try {
+			HGraph g = new HGraph(raw);
+			g.setPropertyCodec("name", new GCodec() {
+				@Override
+				public byte[] encode(Object value) {
+					return Bytes.toBytes((String) value);
+				}
+				
+				@Override
+				public Object decode(byte[] bytes) {
+					return Bytes.toString(bytes);
+				}
+			});
+			
+			Vertex v = g.addVertex(null);
+			byte[] vid = ((HGraphId) v.getId()).getId();
+			v.setProperty("name", "marko");
+			v.setProperty("tags", new ArrayList<>(Arrays.asList("a", "b")));
+			Assert.assertArrayEquals(Bytes.toBytes("marko"), raw.getVertexProperty(vid, Bytes.toBytes("name")));
+			Assert.assertEquals("marko", v.getProperty("name"));
+			
+			HGraph g2 = new HGraph(raw);
+			Assert.assertTrue(g2.codec.getRegisteredClasses().contains(ArrayList.class.getName()));
+			Assert.assertEquals(Arrays.asList("a", "b"), g2.getVertex(v.getId()).getProperty("tags"));
+		} finally {
+			raw.dropTables();
+		}
+	}
+	
+	@Test
+	public void testIntervalQueries() throws Exception {
+		HRawGraph raw = new HRawGraph(Bytes.toBytes("intervaltest"), conf);
+		raw.createTables();
+		try {
+			HGraph g = new HGraph(raw);
+			g.createKeyIndex("age", Vertex.class);
+			for(int age = -5; age < 5; age++)
+				g.addVertex(null).setProperty("age", age);
+			g.addVertex(null).setProperty("age", "3");
+			g.addVertex(null).setProperty("score", 2);
+			
+			Set<Integer> ages = new TreeSet<>();
+			for(Vertex v : g.getVertices("age", -2, 3))
+				ages.add(v.<Integer> getProperty("age"));
+			Assert.assertEquals(new TreeSet<>(Arrays.asList(-2, -1, 0, 1, 2)), ages);
+			
+			Assert.assertEquals(1, Iterables.size(g.getVertices("score", 0, 3)));
+			Assert.assertEquals(1, Iterables.size(g.getVertices("age", "0", "9")));
+		} finally {
+			raw.dropTables();
+		}
+	}
+	
+	@Test
+	public void testLabeledAdjacency() throws Exception {
+		HRawGraph raw = new HRawGraph(Bytes.toBytes("labeltest"), conf);
+		raw.createTables();
+		try {
+			HGraph g = new HGraph(raw);
+			Vertex a = g.addVertex(null);
+			Vertex b = g.addVertex(null);
+			Vertex c = g.addVertex(null);
+			a.addEdge("knows", b);
+			a.addEdge("likes", c);
+			g.addEdge(null, c, a, "knows");
+			
+			Assert.assertEquals(b, Iterables.getOnlyElement(a.getVertices(Direction.OUT, "knows")));
+			Assert.assertEquals(2, Iterables.size(a.getVertices(Direction.OUT)));
+			Assert.assertEquals(2, Iterables.size(a.getEdges(Direction.BOTH, "knows")));
+			Assert.assertEquals(c, Iterables.getOnlyElement(a.getVertices(Direction.IN, "knows", "likes")));
+			Assert.assertEquals("likes", Iterables.getOnlyElement(c.getEdges(Direction.IN, "likes")).getLabel());
+		} finally {
+			raw.dropTables();
+		}
+	}
+	
+	@Test
+	public void testVertexQuery() throws Exception {
+		HRawGraph raw = new HRawGraph(Bytes.toBytes("querytest"), conf);
+		raw.createTables();
+		try {
+			HGraph g = new HGraph(raw);
+			Vertex a = g.addVertex(null);
+			for(int i = 0; i < 10; i++) {
+				Vertex b = g.addVertex(null);
+				a.addEdge(i % 2 == 0 ? "knows" : "likes", b).setProperty("weight", i);
+			}
+			g.addVertex(null).addEdge("knows", a);
+			
+			Assert.assertEquals(11, a.query().count());
+			Assert.assertEquals(5, a.query().direction(Direction.OUT).labels("knows").count());
+			Assert.assertEquals(6, a.query().labels("knows").count());
+			Assert.assertEquals(3, a.query().limit(3).count());
+			Assert.assertEquals(3, Iterables.size(a.query().direction(Direction.OUT).limit(3).vertices()));
+			Assert.assertEquals(0, a.query().labels("hates").count());
+			
+			VertexQuery q = a.query().direction(Direction.OUT).labels("knows").has("weight", Compare.GREATER_THAN, 3);
+			Assert.assertEquals(3, q.count());
+			for(Edge e : q.edges())
+				Assert.assertTrue(e.<Integer> getProperty("weight") > 3);
+			Assert.assertEquals(2, Iterables.size(a.query().direction(Direction.OUT).interval("weight", 2, 6).limit(2).edges()));
+			Assert.assertEquals(1, ((List<?>) a.query().direction(Direction.IN).vertexIds()).size());
+			Edge first = a.query().direction(Direction.OUT).edges().iterator().next();
+			Assert.assertEquals(first, Iterables.getOnlyElement(a.query().direction(Direction.OUT).has("id", first.getId()).edges()));
+		} finally {
+			raw.dropTables();
+		}
+	}
+	
+	@Test
+	public void testGraphQuery() throws Exception {
+		HRawGraph raw = new HRawGraph(Bytes.toBytes("graphquerytest"), conf);
+		raw.createTables();
+		try {
+			HGraph g = new HGraph(raw);
+			g.createKeyIndex("age", Vertex.class);
+			for(int i = 0; i < 20; i++) {
+				Vertex v = g.addVertex(null);
+				v.setProperty("age", i);
+				v.setProperty("name", "v" + i);
+			}
+			
+			Assert.assertNotNull(((HGraphQuery) g.query().has("age", 5)).plan(true));
+			Assert.assertNotNull(((HGraphQuery) g.query().has("age", Compare.GREATER_THAN, 5)).plan(true));
+			Assert.assertNull(((HGraphQuery) g.query().has("name", "v5")).plan(true));
+			
+			Assert.assertEquals("v5", Iterables.getOnlyElement(g.query().has("age", 5).vertices()).getProperty("name"));
+			Assert.assertEquals(5, Iterables.size(g.query().has("age", Compare.GREATER_THAN_EQUAL, 15).vertices()));
+			Assert.assertEquals(4, Iterables.size(g.query().has("age", Compare.GREATER_THAN, 15).vertices()));
+			Assert.assertEquals(4, Iterables.size(g.query().has("age", Compare.LESS_THAN_EQUAL, 3).vertices()));
+			Assert.assertEquals(4, Iterables.size(g.query().interval("age", 3, 7).vertices()));
+			Assert.assertEquals(1, Iterables.size(g.query().interval("age", 3, 7).has("name", "v4").vertices()));
+			Assert.assertEquals(2, Iterables.size(g.query().has("age", Compare.GREATER_THAN, 1).limit(2).vertices()));
+			Assert.assertEquals(7, (int) Iterables.getOnlyElement(g.query().has("name", "v7").vertices()).<Integer> getProperty("age"));
+			Vertex v7 = Iterables.getOnlyElement(g.query().has("name", "v7").vertices());
+			Assert.assertEquals(v7, Iterables.getOnlyElement(g.query().has("id", v7.getId()).vertices()));
+			Assert.assertEquals(v7, Iterables.getOnlyElement(g.query().has("age", 7).has("id", v7.getId()).vertices()));
+			Assert.assertEquals(0, Iterables.size(g.query().has("age", 6).has("id", v7.getId()).vertices()));
+		} finally {
+			raw.dropTables();
+		}
+	}
+	
+	@Test
+	public void testTransactions() throws Exception {
+		HRawGraph raw = new HRawGraph(Bytes.toBytes("txtest"), conf);
+		raw.createTables();
+		try {
+			HTransactionalGraph g = new HTransactionalGraph(raw);
+			Assert.assertTrue(g.getFeatures().supportsTransactions);
+			
+			Vertex a = g.addVertex(null);
+			Vertex b = g.addVertex(null);
+			a.setProperty("name", "a");
+			Edge e = a.addEdge("knows", b);
+			e.setProperty("weight", 3);
+			
+			Assert.assertNotNull(g.getRaw().getTransaction());
+			Assert.assertNull(raw.getTransaction());
+			byte[] through = raw.addVertex(null);
+			Assert.assertNull("write through the shared graph buffered", raw.getTransaction());
+			Assert.assertTrue(raw.vertexExists(through));
+			Assert.assertEquals("a", g.getVertex(a.getId()).getProperty("name"));
+			Assert.assertEquals(b, Iterables.getOnlyElement(a.getVertices(Direction.OUT, "knows")));
+			Assert.assertEquals(3, (int) g.getEdge(e.getId()).<Integer> getProperty("weight"));
+			
+			g.rollback();
+			Assert.assertNull(g.getRaw().getTransaction());
+			Assert.assertNull(g.getVertex(a.getId()));
+			Assert.assertNull(g.getEdge(e.getId()));
+			
+			a = g.addVertex(null);
+			b = g.addVertex(null);
+			a.setProperty("name", "a");
+			e = a.addEdge("knows", b);
+			g.commit();
+			Assert.assertNull(g.getRaw().getTransaction());
+			Assert.assertEquals("a", new HGraph(raw).getVertex(a.getId()).getProperty("name"));
+			Assert.assertEquals(1, Iterables.size(a.getEdges(Direction.OUT, "knows")));
+			
+			a.setProperty("name", "c");
+			a.removeProperty("name");
+			a.setProperty("name", "d");
+			g.removeEdge(e);
+			Assert.assertEquals(0, Iterables.size(a.getEdges(Direction.OUT, "knows")));
+			g.commit();
+			Assert.assertEquals("d", new HGraph(raw).getVertex(a.getId()).getProperty("name"));
+			Assert.assertNull(g.getEdge(e.getId()));
+		} finally {
+			raw.dropTables();
+		}
+	}
+	
+	@Test
+	public void testBulkLoad() throws Exception {
+		HRawGraph raw = new HRawGraph(Bytes.toBytes("bulktest"), conf);
+		raw.createTables();
+		try {
+			HGraph g = new HGraph(raw);
+			g.createKeyIndex("name", Vertex.class);
+			
+			File dir = new File("target/hbase/bulktest");
+			dir.mkdirs();
+			File edges = new File(dir, "edges.txt");
+			FileUtils.writeLines(edges, Arrays.asList(
+					"a\tb\tknows\tsince\t2010",
+					"a\tc\tknows",
+					"b\tc\tlikes"));
+			File vertices = new File(dir, "vertices.txt");
+			FileUtils.writeLines(vertices, Arrays.asList(
+					"a\tname\talice",
+					"b\tname\tbob",
+					"d"));
+			
+			new HBulkLoader(raw).load(new Path(edges.getAbsolutePath()), new Path(vertices.getAbsolutePath()), new Path(new File(dir, "work").getAbsolutePath()));
+			
+			Vertex a = g.getVertex(Bytes.toBytes("a"));
+			Assert.assertEquals("alice", a.getProperty("name"));
+			Assert.assertNotNull(g.getVertex(Bytes.toBytes("d")));
+			Assert.assertEquals(4, Iterables.size(g.getVertices()));
+			Assert.assertEquals(3, Iterables.size(g.getEdges()));
+			Assert.assertEquals(2, Iterables.size(a.getEdges(Direction.OUT, "knows")));
+			Assert.assertEquals(0, Iterables.size(a.getEdges(Direction.OUT, "likes")));
+			Edge e = Iterables.getOnlyElement(g.getVertex(Bytes.toBytes("c")).getEdges(Direction.IN, "likes"));
+			Assert.assertEquals("likes", e.getLabel());
+			Assert.assertEquals("2010", Iterables.getOnlyElement(g.query().has("since").edges()).getProperty("since"));
+			Assert.assertEquals(a, Iterables.getOnlyElement(g.getVertices("name", "alice")));
+			
+			FileUtils.writeLines(vertices, Arrays.asList("a\tname\talicia", "e\tname\teve", "e\tname\teva\tage\t30"));
+			new HBulkLoader(raw).load(null, new Path(vertices.getAbsolutePath()), new Path(new File(dir, "work2").getAbsolutePath()));
+			Assert.assertEquals("alicia", g.getVertex(Bytes.toBytes("a")).getProperty("name"));
+			Assert.assertEquals(0, Iterables.size(g.getVertices("name", "alice")));
+			Assert.assertEquals(a, Iterables.getOnlyElement(g.getVertices("name", "alicia")));
+			Vertex v = g.getVertex(Bytes.toBytes("e"));
+			Assert.assertEquals("30", v.getProperty("age"));
+			Assert.assertEquals(v, Iterables.getOnlyElement(g.getVertices("name", v.getProperty("name"))));
+			Assert.assertEquals(1, Iterables.size(g.getVertices("name", "eve")) + Iterables.size(g.getVertices("name", "eva")));
+		} finally {
+			raw.dropTables();
+		}
+	}
+	
+	@Test
+	public void testUnindexedLookup() throws Exception {
+		HRawGraph raw = new HRawGraph(Bytes.toBytes("lookuptest"), conf);
+		raw.createTables();
+		try {
+			HGraph g = new HGraph(raw);
+			Vertex a = g.addVertex(null);
+			for(int i = 0; i < 10; i++) {
+				Vertex b = g.addVertex(null);
+				b.setProperty("name", "v" + i % 3);
+				b.setProperty("surname", "v0");
+				a.addEdge("knows", b).setProperty("weight", i % 2);
+			}
+			
+			Assert.assertEquals(4, Iterables.size(g.getVertices("name", "v0")));
+			Assert.assertEquals(3, Iterables.size(g.getVertices("name", "v1")));
+			for(Vertex v : g.getVertices("name", "v2"))
+				Assert.assertEquals("v2", v.getProperty("name"));
+			Assert.assertEquals(0, Iterables.size(g.getVertices("name", 0)));
+			Assert.assertEquals(10, Iterables.size(g.getVertices("surname", "v0")));
+			Assert.assertEquals(5, Iterables.size(g.getEdges("weight", 1)));
+			Assert.assertEquals(0, Iterables.size(g.getEdges("weight", 2)));
+		} finally {
+			raw.dropTables();
+		}
+	}
+	
+	@Test
+	public void testHydratedElements() throws Exception {
+		HRawGraph raw = new HRawGraph(Bytes.toBytes("hydratetest"), conf);
+		raw.createTables();
+		try {
+			HGraph g = new HGraph(raw);
+			Vertex a = g.addVertex(null);
+			Vertex b = g.addVertex(null);
+			Edge e = a.addEdge("knows", b);
+			byte[] eid = ((HGraphId) e.getId()).getId();
+			
+			Edge out = Iterables.getOnlyElement(a.getEdges(Direction.OUT));
+			Edge in = Iterables.getOnlyElement(b.query().direction(Direction.IN).edges());
+			raw.removeEdgeProperty(eid, Bytes.toBytes(HGraphEdge.LABEL));
+			Assert.assertEquals("knows", out.getLabel());
+			Assert.assertEquals("knows", in.getLabel());
+			Assert.assertEquals(b, out.getVertex(Direction.IN));
+			Assert.assertEquals(a, in.getVertex(Direction.OUT));
+			Assert.assertNull(g.getEdge(e.getId()).getLabel());
+			
+			a.setProperty("name", "a");
+			a.setProperty("age", 3);
+			HGraphElement loaded = ((HGraphVertex) g.getVertex(a.getId())).loadProperties();
+			raw.setVertexProperty(((HGraphId) a.getId()).getId(), Bytes.toBytes("name"), g.encodeProperty("name", "c"));
+			Assert.assertEquals("a", loaded.getProperty("name"));
+			Assert.assertEquals(new TreeSet<>(Arrays.asList("name", "age")), loaded.getPropertyKeys());
+			loaded.setProperty("name", "b");
+			loaded.removeProperty("age");
+			Assert.assertEquals("b", loaded.getProperty("name"));
+			Assert.assertNull(loaded.getProperty("age"));
+			Assert.assertEquals("b", a.getProperty("name"));
+			Assert.assertNull(a.getProperty("age"));
+		} finally {
+			raw.dropTables();
+		}
+	}
 }
@@ -0,0 +1,131 @@
+package org.rbkluster.hgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * Throughput of one {@link HRawGraph} shared by 1, 2, 4 ... N client threads
+ * against the mini cluster.  Not run by the build; run it explicitly, e.g.
+ * {@code mvn test -Dtest=HRawGraphBenchmark -Dhgraph.benchmark.threads=64}.
+ * Each operation adds a vertex, sets and reads back a property, adds an edge
+ * from the previous vertex of the thread and scans that vertex's out edges.
+ * {@link #propertyLayouts()} compares reading all properties of a vertex in
+ * the two {@link HRawGraph#WIDE_PROPERTIES property layouts}.
+ */
+public class HRawGraphBenchmark extends AbstractHGraphTest {
+	public static final String THREADS = "hgraph.benchmark.threads";
+	public static final String OPS = "hgraph.benchmark.ops";
+	public static final String PROPERTIES = "hgraph.benchmark.properties";
+	
+	private static final byte[] PKEY = Bytes.toBytes("p");
+	
+	@Test
+	public void benchmark() throws Exception {
+		int maxThreads = Integer.getInteger(THREADS, 16);
+		int ops = Integer.getInteger(OPS, 500);
+		
+		final HRawGraph hg = new HRawGraph(Bytes.toBytes("bench"), conf);
+		hg.createTables();
+		try {
+			run(hg, 1, ops); // warm up
+			for(int threads = 1; threads <= maxThreads; threads *= 2) {
+				long start = System.nanoTime();
+				run(hg, threads, ops);
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.println(String.format("%3d threads: %8.1f ops/s", threads, threads * ops / seconds));
+			}
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void propertyLayouts() throws Exception {
+		int ops = Integer.getInteger(OPS, 500);
+		int properties = Integer.getInteger(PROPERTIES, 8);
+		for(boolean wide : new boolean[] {false, true}) {
+			Configuration c = new Configuration(conf);
+			c.setBoolean(HRawGraph.WIDE_PROPERTIES, wide);
+			HRawGraph hg = new HRawGraph(Bytes.toBytes(wide ? "bench_wide" : "bench_narrow"), c);
+			hg.createTables();
+			try {
+				List<byte[]> vids = new ArrayList<>();
+				long start = System.nanoTime();
+				HRawBatch batch = hg.batch();
+				try {
+					for(int i = 0; i < ops; i++) {
+						byte[] vid = batch.addVertex(null);
+						Map<byte[], byte[]> p = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+						for(int k = 0; k < properties; k++)
+							p.put(Bytes.toBytes("p" + k), Bytes.toBytes(i));
+						batch.setVertexProperties(vid, p);
+						vids.add(vid);
+					}
+				} finally {
+					batch.close();
+				}
+				double writeSeconds = (System.nanoTime() - start) / 1e9;
+				
+				start = System.nanoTime();
+				for(byte[] vid : vids)
+					Assert.assertEquals(properties, Iterables.size(hg.getVertexProperties(vid)));
+				double readSeconds = (System.nanoTime() - start) / 1e9;
+				System.out.println(String.format("%s properties: %8.1f writes/s %8.1f reads/s",
+						wide ? "wide  " : "narrow", ops / writeSeconds, ops / readSeconds));
+			} finally {
+				hg.dropTables();
+				hg.shutdown();
+			}
+		}
+	}
+	
+	private void run(final HRawGraph hg, int threads, final int ops) throws Exception {
+		ExecutorService exec = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for(int t = 0; t < threads; t++) {
+				futures.add(exec.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						byte[] prev = null;
+						for(int i = 0; i < ops; i++) {
+							byte[] vid = hg.addVertex(null);
+							byte[] pval = Bytes.toBytes(i);
+							hg.setVertexProperty(vid, PKEY, pval);
+							Assert.assertArrayEquals(pval, hg.getVertexProperty(vid, PKEY));
+							if(prev != null) {
+								byte[] eid = hg.addEdge(null, prev, vid);
+								int count = 0;
+								for(byte[][] e : hg.getEdgesOut(prev)) {
+									Assert.assertArrayEquals(eid, e[1]);
+									count++;
+								}
+								Assert.assertEquals(1, count);
+							}
+							prev = vid;
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> f : futures)
+				f.get();
+		} finally {
+			exec.shutdown();
+		}
+	}
+}
@@ -1,13 +1,35 @@
 package org.rbkluster.hgraph;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.tinkerpop.blueprints.Direction;
+
 public class HRawGraphTest extends AbstractHGraphTest {
 	
 	
@@ -99,4 +121,954 @@ public class HRawGraphTest extends AbstractHGraphTest {
 			hg.dropTables();
 		}
 	}
+	
+	@Test
+	public void testBatch() throws Exception {
+		byte[] foo = Bytes.toBytes("foo");
+		
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		try {
+			hg.createIndex(foo);
+			
+			byte[] v1 = Bytes.toBytes(1L);
+			byte[] v2 = Bytes.toBytes(2L);
+			byte[] eid = Bytes.toBytes(3L);
+			byte[] bar = Bytes.toBytes("bar");
+			byte[] qux = Bytes.toBytes("qux");
+			
+			HRawBatch batch = hg.batch(4, Long.MAX_VALUE);
+			try {
+				batch.addVertex(v1);
+				batch.addVertex(v2);
+				Assert.assertFalse("unflushed vertex visible", hg.vertexExists(v2));
+				batch.addEdge(eid, v1, v2);
+				Assert.assertTrue("threshold did not flush", hg.vertexExists(v2));
+				batch.setVertexProperty(v1, foo, bar);
+				batch.setVertexProperty(v1, foo, qux);
+			} finally {
+				batch.close();
+			}
+			
+			Assert.assertTrue(hg.vertexExists(v1));
+			Assert.assertTrue(hg.vertexExists(v2));
+			Assert.assertTrue(hg.edgeExists(eid));
+			Assert.assertArrayEquals(qux, hg.getVertexProperty(v1, foo));
+			Assert.assertFalse("stale index entry", hg.getIndexedVertices(foo, bar).iterator().hasNext());
+			Assert.assertTrue(hg.getIndexedVertices(foo, qux).iterator().hasNext());
+			
+			batch = hg.batch();
+			try {
+				batch.setVertexProperty(v2, foo, bar);
+				batch.setVertexProperty(v2, foo, qux);
+				batch.setVertexProperty(v2, foo, bar);
+				batch.removeVertexProperty(v1, foo);
+				batch.setVertexProperty(v1, foo, bar);
+			} finally {
+				batch.close();
+			}
+			Assert.assertArrayEquals(bar, hg.getVertexProperty(v1, foo));
+			Assert.assertArrayEquals(bar, hg.getVertexProperty(v2, foo));
+			Assert.assertEquals(2, Iterables.size(hg.getIndexedVertices(foo, bar)));
+			Assert.assertFalse("stale index entry", hg.getIndexedVertices(foo, qux).iterator().hasNext());
+			
+			hg.removeVertex(v1);
+			Assert.assertFalse(hg.vertexExists(v1));
+			Assert.assertFalse(hg.edgeExists(eid));
+			Assert.assertFalse(hg.getEdgesIn(v2).iterator().hasNext());
+			Assert.assertFalse(hg.getIndexedVertices(foo, qux).iterator().hasNext());
+			Assert.assertEquals(1, Iterables.size(hg.getIndexedVertices(foo, bar)));
+		} finally {
+			hg.dropTables();
+		}
+	}
+	
+	@Test
+	public void testEdgeLabels() throws Exception {
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		try {
+			byte[] v1 = Bytes.toBytes(1L);
+			byte[] v2 = Bytes.toBytes(2L);
+			byte[] knows = Bytes.toBytes("knows");
+			byte[] likes = Bytes.toBytes("likes");
+			
+			hg.addVertex(v1);
+			hg.addVertex(v2);
+			byte[] e1 = hg.addEdge(null, v1, v2, knows);
+			byte[] e2 = hg.addEdge(null, v1, v2, likes);
+			byte[] e3 = hg.addEdge(null, v2, v1, knows);
+			
+			Assert.assertEquals(2, Iterables.size(hg.getEdgesOut(v1)));
+			Assert.assertArrayEquals(e1, Iterables.getOnlyElement(hg.getEdgesOut(v1, knows))[1]);
+			Assert.assertArrayEquals(e2, Iterables.getOnlyElement(hg.getEdgesIn(v2, likes))[1]);
+			Assert.assertArrayEquals(e3, Iterables.getOnlyElement(hg.getEdgesIn(v1, knows))[1]);
+			Assert.assertFalse(hg.getEdgesIn(v1, likes).iterator().hasNext());
+			Assert.assertFalse(hg.getEdgesOut(v1, Bytes.toBytes("hates")).iterator().hasNext());
+			Assert.assertNull(hg.getLabelId(Bytes.toBytes("hates")));
+			
+			hg.removeEdge(e1);
+			Assert.assertFalse(hg.getEdgesOut(v1, knows).iterator().hasNext());
+			Assert.assertEquals(1, Iterables.size(hg.getEdgesOut(v1)));
+			
+			hg.removeVertex(v2);
+			Assert.assertFalse(hg.getEdgesOut(v1).iterator().hasNext());
+			Assert.assertFalse(hg.getEdgesIn(v1).iterator().hasNext());
+			Assert.assertFalse(hg.edgeExists(e3));
+		} finally {
+			hg.dropTables();
+		}
+	}
+	
+	@Test
+	public void testLegacyAdjacency() throws Exception {
+		byte[] prefix = Bytes.toBytes("legacy");
+		byte[] vtxTable = Bytes.add(prefix, GConstants.VTX_TABLE);
+		HBaseAdmin admin = new HBaseAdmin(conf);
+		try {
+			HTableDescriptor d = new HTableDescriptor(vtxTable);
+			d.addFamily(new HColumnDescriptor(GConstants.VTX_CF));
+			admin.createTable(d);
+			try {
+				new HRawGraph(prefix, conf);
+				Assert.fail("opened a graph without label ids in its adjacency rows");
+			} catch(IOException e) {
+			}
+		} finally {
+			admin.disableTable(vtxTable);
+			admin.deleteTable(vtxTable);
+			admin.close();
+		}
+		
+		HRawGraph hg = new HRawGraph(prefix, conf);
+		hg.createTables();
+		try {
+			new HRawGraph(prefix, conf).shutdown();
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testParallelScan() throws Exception {
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		try {
+			Set<byte[]> vids = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+			HRawBatch batch = hg.batch();
+			try {
+				for(long i = 0; i < 100; i++)
+					vids.add(batch.addVertex(Bytes.toBytes(i)));
+			} finally {
+				batch.close();
+			}
+			
+			HBaseAdmin admin = new HBaseAdmin(conf);
+			try {
+				admin.split(hg.vtxTable, Bytes.toBytes(50L));
+				HTable table = new HTable(conf, hg.vtxTable);
+				try {
+					for(int i = 0; i < 600 && table.getStartKeys().length < 2; i++) {
+						Thread.sleep(100);
+						table.clearRegionCache();
+					}
+				} finally {
+					table.close();
+				}
+			} finally {
+				admin.close();
+			}
+			
+			List<Iterable<byte[]>> partitions = hg.getAllVerticesPartitions();
+			Assert.assertEquals(2, partitions.size());
+			Set<byte[]> found = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+			for(Iterable<byte[]> p : partitions)
+				Iterables.addAll(found, p);
+			Assert.assertEquals(vids, found);
+			
+			found.clear();
+			Iterables.addAll(found, hg.getAllVerticesParallel());
+			Assert.assertEquals(vids, found);
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testConcurrentClients() throws Exception {
+		final HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		ExecutorService exec = Executors.newFixedThreadPool(8);
+		try {
+			final byte[] hub = hg.addVertex(null);
+			List<Future<List<byte[]>>> futures = new ArrayList<>();
+			for(int t = 0; t < 8; t++) {
+				futures.add(exec.submit(new Callable<List<byte[]>>() {
+					@Override
+					public List<byte[]> call() throws Exception {
+						List<byte[]> vids = new ArrayList<>();
+						for(int i = 0; i < 20; i++) {
+							byte[] vid = hg.addVertex(null);
+							hg.addEdge(null, hub, vid, Bytes.toBytes("spoke"));
+							Iterables.size(hg.getEdgesOut(hub));
+							vids.add(vid);
+						}
+						return vids;
+					}
+				}));
+			}
+			Set<byte[]> vids = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+			for(Future<List<byte[]>> f : futures)
+				vids.addAll(f.get());
+			Assert.assertEquals(160, vids.size());
+			
+			Set<byte[]> found = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+			for(byte[][] e : hg.getEdgesOut(hub, Bytes.toBytes("spoke")))
+				found.add(e[2]);
+			Assert.assertEquals(vids, found);
+		} finally {
+			exec.shutdown();
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testIdAllocator() throws Exception {
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		HRawGraph other = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		try {
+			hg.setIdAllocator(new GIdAllocator(hg, 10, false));
+			other.setIdAllocator(new GIdAllocator(other, 10, true));
+			
+			Set<byte[]> ids = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+			byte[] prev = null;
+			for(int i = 0; i < 25; i++) {
+				byte[] vid = hg.addVertex(null);
+				Assert.assertEquals(GIdAllocator.ID_LENGTH, vid.length);
+				if(i % 10 != 0)
+					Assert.assertEquals(Bytes.toLong(prev) + 1, Bytes.toLong(vid));
+				prev = vid;
+				ids.add(vid);
+				ids.add(other.addEdge(null, vid, vid));
+			}
+			Assert.assertEquals(50, ids.size());
+			Assert.assertEquals(60, hg.reserveIds(0));
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+			other.shutdown();
+		}
+	}
+	
+	@Test
+	public void testRemoveVertexAsync() throws Exception {
+		byte[] foo = Bytes.toBytes("foo");
+		byte[] bar = Bytes.toBytes("bar");
+		
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		try {
+			hg.createIndex(foo);
+			byte[] hub = hg.addVertex(null);
+			hg.setVertexProperty(hub, foo, bar);
+			List<byte[]> spokes = new ArrayList<>();
+			HRawBatch batch = hg.batch();
+			try {
+				for(int i = 0; i < 600; i++) {
+					byte[] vid = batch.addVertex(null);
+					byte[] eid = i % 2 == 0 ? batch.addEdge(null, hub, vid, foo) : batch.addEdge(null, vid, hub);
+					batch.setEdgeProperty(eid, foo, bar);
+					spokes.add(vid);
+				}
+			} finally {
+				batch.close();
+			}
+			
+			GProgressFuture<Void> f = hg.removeVertexAsync(hub);
+			f.get();
+			Assert.assertEquals(600, f.getTotal());
+			Assert.assertEquals(600, f.getDone());
+			Assert.assertEquals(1, f.getProgress(), 0);
+			
+			Assert.assertFalse(hg.vertexExists(hub));
+			Assert.assertEquals(0, Iterables.size(hg.getAllEdges()));
+			Assert.assertEquals(0, Iterables.size(hg.getIndexedVertices(foo, bar)));
+			Assert.assertEquals(0, Iterables.size(hg.getIndexedEdges(foo, bar)));
+			for(byte[] vid : spokes) {
+				Assert.assertTrue(hg.vertexExists(vid));
+				Assert.assertEquals(0, Iterables.size(hg.getEdgesOut(vid)));
+				Assert.assertEquals(0, Iterables.size(hg.getEdgesIn(vid)));
+			}
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testUpsert() throws Exception {
+		final byte[] foo = Bytes.toBytes("foo");
+		byte[] bar = Bytes.toBytes("bar");
+		
+		final HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		ExecutorService exec = Executors.newFixedThreadPool(8);
+		try {
+			final byte[] vid = hg.addVertex(null);
+			hg.upsertVertexProperty(vid, bar, bar);
+			Assert.assertArrayEquals(bar, hg.getVertexProperty(vid, bar));
+			hg.upsertVertexProperty(vid, bar, null);
+			Assert.assertNull(hg.getVertexProperty(vid, bar));
+			
+			hg.createIndex(foo);
+			List<Future<Void>> futures = new ArrayList<>();
+			for(int t = 0; t < 8; t++) {
+				final int thread = t;
+				futures.add(exec.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for(int i = 0; i < 20; i++)
+							hg.upsertVertexProperty(vid, foo, Bytes.toBytes(thread * 100 + i));
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> f : futures)
+				f.get();
+			
+			byte[] pval = hg.getVertexProperty(vid, foo);
+			List<byte[]> indexed = new ArrayList<>();
+			for(byte[][] iv : hg.getIndexedVertices(foo, new byte[0], new byte[] {(byte) 0xff}))
+				indexed.add(iv[1]);
+			Assert.assertEquals(1, indexed.size());
+			Assert.assertArrayEquals(pval, indexed.get(0));
+			
+			hg.upsertVertexProperty(vid, foo, null);
+			hg.upsertVertexProperty(vid, foo, bar);
+			Assert.assertArrayEquals(bar, hg.getVertexProperty(vid, foo));
+			Assert.assertEquals(1, Iterables.size(hg.getIndexedVertices(foo, bar)));
+			Assert.assertEquals(0, Iterables.size(hg.getIndexedVertices(foo, pval)));
+			
+			// a client whose clock runs an hour ahead, then one with the right time
+			hg.clock.set(System.currentTimeMillis() + 3600 * 1000);
+			hg.upsertVertexProperty(vid, foo, pval);
+			HRawGraph other = new HRawGraph(Bytes.toBytes("test"), conf);
+			try {
+				byte[] qux = Bytes.toBytes("qux");
+				other.setVertexProperty(vid, foo, qux);
+				Assert.assertArrayEquals(qux, hg.getVertexProperty(vid, foo));
+				Assert.assertEquals(1, Iterables.size(hg.getIndexedVertices(foo, qux)));
+				Assert.assertEquals(0, Iterables.size(hg.getIndexedVertices(foo, pval)));
+				other.removeVertexProperty(vid, foo);
+				Assert.assertNull(hg.getVertexProperty(vid, foo));
+				Assert.assertEquals(0, Iterables.size(hg.getIndexedVertices(foo, qux)));
+				
+				// and the same in a transaction
+				hg.upsertVertexProperty(vid, foo, pval);
+				other.setTransactional(true);
+				try {
+					other.setVertexProperty(vid, foo, qux);
+					other.commit();
+				} finally {
+					other.setTransactional(false);
+				}
+				Assert.assertArrayEquals(qux, hg.getVertexProperty(vid, foo));
+				Assert.assertEquals(1, Iterables.size(hg.getIndexedVertices(foo, qux)));
+				Assert.assertEquals(0, Iterables.size(hg.getIndexedVertices(foo, pval)));
+			} finally {
+				other.shutdown();
+			}
+		} finally {
+			exec.shutdown();
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testAsync() throws Exception {
+		byte[] foo = Bytes.toBytes("foo");
+		
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		AsyncHRawGraph async = new AsyncHRawGraph(hg, 4, 8);
+		try {
+			List<ListenableFuture<byte[]>> added = new ArrayList<>();
+			for(int i = 0; i < 50; i++)
+				added.add(async.addVertex(Bytes.toBytes((long) i)));
+			List<ListenableFuture<Void>> set = new ArrayList<>();
+			for(byte[] vid : Futures.allAsList(added).get())
+				set.add(async.setVertexProperty(vid, foo, vid));
+			Futures.allAsList(set).get();
+			
+			List<ListenableFuture<byte[]>> read = new ArrayList<>();
+			for(int i = 0; i < 50; i++)
+				read.add(async.getVertexProperty(Bytes.toBytes((long) i), foo));
+			List<byte[]> pvals = Futures.allAsList(read).get();
+			for(int i = 0; i < 50; i++)
+				Assert.assertArrayEquals(Bytes.toBytes((long) i), pvals.get(i));
+			
+			Assert.assertTrue(async.vertexExists(Bytes.toBytes(0L)).get());
+			Assert.assertFalse(async.vertexExists(Bytes.toBytes(50L)).get());
+		} finally {
+			async.shutdown();
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testTraversal() throws Exception {
+		byte[] child = Bytes.toBytes("child");
+		byte[] other = Bytes.toBytes("other");
+		
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		try {
+			HRawBatch batch = hg.batch();
+			try {
+				for(long i = 1; i < 32; i++)
+					batch.addVertex(Bytes.toBytes(i));
+				for(long i = 1; i < 16; i++) {
+					batch.addEdge(null, Bytes.toBytes(i), Bytes.toBytes(2 * i), child);
+					batch.addEdge(null, Bytes.toBytes(i), Bytes.toBytes(2 * i + 1), child);
+				}
+				batch.addEdge(null, Bytes.toBytes(2L), Bytes.toBytes(1L), other);
+			} finally {
+				batch.close();
+			}
+			List<byte[]> root = Arrays.asList(Bytes.toBytes(1L));
+			
+			List<List<byte[]>> layers = hg.traversal().depth(3).layers(root);
+			Assert.assertEquals(4, layers.size());
+			for(int d = 0; d < 4; d++)
+				Assert.assertEquals(1 << d, layers.get(d).size());
+			Assert.assertEquals(14, hg.traversal().depth(3).reach(root).size());
+			Assert.assertEquals(30, hg.traversal().depth(10).labels(child).reach(root).size());
+			Assert.assertEquals(3, hg.traversal().depth(3).limit(1).reach(root).size());
+			Assert.assertEquals(5, hg.traversal().depth(3).maxVertices(6).reach(root).size());
+			Assert.assertEquals(0, hg.traversal().labels(Bytes.toBytes("none")).reach(root).size());
+			
+			List<byte[]> up = hg.traversal().direction(Direction.IN).labels(child).depth(5).reach(Arrays.asList(Bytes.toBytes(31L)));
+			Assert.assertEquals(4, up.size());
+			Assert.assertArrayEquals(Bytes.toBytes(1L), up.get(3));
+			Assert.assertEquals(1, hg.traversal().direction(Direction.IN).labels(other).reach(root).size());
+			Assert.assertEquals(3, hg.traversal().direction(Direction.BOTH).reach(Arrays.asList(Bytes.toBytes(2L))).size());
+			
+			hg.setTransactional(true);
+			hg.addEdge(null, Bytes.toBytes(31L), Bytes.toBytes(1L), child);
+			Assert.assertEquals(1, hg.traversal().labels(child).reach(Arrays.asList(Bytes.toBytes(31L))).size());
+			hg.rollback();
+			Assert.assertEquals(0, hg.traversal().labels(child).reach(Arrays.asList(Bytes.toBytes(31L))).size());
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testNeighborhoodEndpoint() throws Exception {
+		byte[] child = Bytes.toBytes("child");
+		byte[] other = Bytes.toBytes("other");
+		
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		try {
+			hg.installNeighborhoodEndpoint(null);
+			HRawBatch batch = hg.batch();
+			try {
+				for(long i = 1; i < 32; i++)
+					batch.addVertex(Bytes.toBytes(i));
+				for(long i = 1; i < 16; i++) {
+					batch.addEdge(null, Bytes.toBytes(i), Bytes.toBytes(2 * i), child);
+					batch.addEdge(null, Bytes.toBytes(i), Bytes.toBytes(2 * i + 1), child);
+				}
+				batch.addEdge(null, Bytes.toBytes(2L), Bytes.toBytes(1L), other);
+			} finally {
+				batch.close();
+			}
+			
+			// the out edges of vertex 2 end up on both sides of the split
+			HBaseAdmin admin = new HBaseAdmin(conf);
+			try {
+				admin.split(hg.vtxTable, Bytes.add(Bytes.toBytes(2L), hg.getLabelId(other)));
+				HTable table = new HTable(conf, hg.vtxTable);
+				try {
+					for(int i = 0; i < 600 && table.getStartKeys().length < 2; i++) {
+						Thread.sleep(100);
+						table.clearRegionCache();
+					}
+				} finally {
+					table.close();
+				}
+			} finally {
+				admin.close();
+			}
+			
+			List<byte[]> vids = Arrays.asList(Bytes.toBytes(1L), Bytes.toBytes(2L), Bytes.toBytes(3L));
+			Assert.assertArrayEquals(new long[] {2, 3, 2}, hg.getDegrees(vids, true, false));
+			Assert.assertArrayEquals(new long[] {2, 2, 2}, hg.getDegrees(vids, true, false, child));
+			Assert.assertArrayEquals(new long[] {3, 4, 3}, hg.getDegrees(vids, true, true));
+			Assert.assertArrayEquals(new long[] {0, 0, 0}, hg.getDegrees(vids, true, true, Bytes.toBytes("none")));
+			
+			Set<byte[]> found = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+			found.addAll(hg.getNeighbors(vids, true, false, Integer.MAX_VALUE));
+			Assert.assertEquals(7, found.size());
+			Assert.assertEquals(4, hg.getNeighbors(vids.subList(1, 3), true, false, Integer.MAX_VALUE, child).size());
+			Assert.assertEquals(1, hg.getNeighbors(vids.subList(1, 2), false, true, Integer.MAX_VALUE).size());
+			Assert.assertEquals(3, hg.getNeighbors(vids, true, false, 1, child).size());
+			
+			List<List<byte[]>> layers = hg.traversal().endpoint(true).labels(child).depth(4).layers(vids.subList(0, 1));
+			Assert.assertEquals(5, layers.size());
+			Assert.assertEquals(16, layers.get(4).size());
+			Assert.assertEquals(hg.traversal().depth(3).reach(vids.subList(1, 2)).size(), hg.traversal().endpoint(true).depth(3).reach(vids.subList(1, 2)).size());
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testDegreeCounters() throws Exception {
+		byte[] child = Bytes.toBytes("child");
+		byte[] other = Bytes.toBytes("other");
+		
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		try {
+			Assert.assertTrue(hg.hasDegreeCounters());
+			byte[] v1 = hg.addVertex(Bytes.toBytes(1L));
+			byte[] v2 = hg.addVertex(Bytes.toBytes(2L));
+			byte[] v3 = hg.addVertex(Bytes.toBytes(3L));
+			hg.addEdge(null, v1, v2, child);
+			byte[] e13 = hg.addEdge(null, v1, v3, child);
+			hg.addEdge(null, v2, v3, other);
+			
+			Assert.assertEquals(2, hg.getDegreeOut(v1, null));
+			Assert.assertEquals(2, hg.getDegreeOut(v1, child));
+			Assert.assertEquals(0, hg.getDegreeOut(v1, other));
+			Assert.assertEquals(0, hg.getDegreeOut(v1, Bytes.toBytes("none")));
+			Assert.assertArrayEquals(new long[] {0, 1, 2}, hg.getDegreesIn(Arrays.asList(v1, v2, v3), null));
+			
+			hg.removeEdge(e13);
+			Assert.assertEquals(1, hg.getDegreeOut(v1, null));
+			Assert.assertEquals(1, hg.getDegreeIn(v3, null));
+			
+			hg.removeVertex(v2);
+			Assert.assertEquals(0, hg.getDegreeOut(v1, child));
+			Assert.assertEquals(0, hg.getDegreeIn(v3, other));
+			Assert.assertEquals(0, hg.getDegreeOut(v2, null));
+			
+			hg.setTransactional(true);
+			try {
+				hg.addEdge(null, v1, v3, other);
+				Assert.assertEquals(1, hg.getDegreeOut(v1, null));
+				hg.rollback();
+				Assert.assertEquals(0, hg.getDegreeOut(v1, null));
+				hg.addEdge(null, v1, v3, other);
+				hg.commit();
+			} finally {
+				hg.setTransactional(false);
+			}
+			Assert.assertEquals(1, hg.getDegreeOut(v1, other));
+			Assert.assertEquals(1, hg.getDegreeIn(v3, null));
+			
+			HTableInterface table = hg.table(hg.vtxTable);
+			try {
+				Put p = new Put(v1);
+				p.add(GConstants.DEG_CF, GConstants.DEG_OUT_Q, Bytes.toBytes(42L));
+				table.put(p);
+			} finally {
+				hg.repool(table);
+			}
+			Assert.assertEquals(42, hg.getDegreeOut(v1, null));
+			hg.recountDegrees();
+			Assert.assertEquals(1, hg.getDegreeOut(v1, null));
+			Assert.assertEquals(0, hg.getDegreeOut(v1, child));
+			Assert.assertEquals(1, hg.getDegreeIn(v3, other));
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testDegreeRecount() throws Exception {
+		Configuration c = new Configuration(conf);
+		c.setLong(HRawGraph.META_REFRESH, 0);
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), c);
+		hg.createTables();
+		HRawGraph other = null;
+		try {
+			HBaseAdmin admin = new HBaseAdmin(conf);
+			try {
+				admin.disableTable(hg.vtxTable);
+				admin.deleteColumn(hg.vtxTable, GConstants.DEG_CF);
+				admin.enableTable(hg.vtxTable);
+			} finally {
+				admin.close();
+			}
+			other = new HRawGraph(Bytes.toBytes("test"), c);
+			Assert.assertFalse(other.maintainsDegreeCounters());
+			byte[] v1 = other.addVertex(Bytes.toBytes(1L));
+			byte[] v2 = other.addVertex(Bytes.toBytes(2L));
+			other.addEdge(null, v1, v2);
+			
+			hg.recountDegrees();
+			Assert.assertTrue(other.maintainsDegreeCounters());
+			Assert.assertTrue(other.hasDegreeCounters());
+			other.addEdge(null, v1, v2);
+			Assert.assertEquals(2, hg.getDegreeOut(v1, null));
+			Assert.assertEquals(2, other.getDegreeIn(v2, null));
+		} finally {
+			if(other != null)
+				other.shutdown();
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testElementCounters() throws Exception {
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("test"), conf);
+		hg.createTables();
+		try {
+			Assert.assertTrue(hg.hasElementCounters());
+			HRawBatch batch = hg.batch();
+			try {
+				for(long i = 0; i < 10; i++)
+					batch.addVertex(Bytes.toBytes(i));
+				for(long i = 1; i < 10; i++)
+					batch.addEdge(null, Bytes.toBytes(0L), Bytes.toBytes(i));
+			} finally {
+				batch.close();
+			}
+			Assert.assertEquals(10, hg.getVertexCount());
+			Assert.assertEquals(9, hg.getEdgeCount());
+			
+			hg.removeVertex(Bytes.toBytes(1L));
+			Assert.assertEquals(9, hg.getVertexCount());
+			Assert.assertEquals(8, hg.getEdgeCount());
+			hg.removeVertex(Bytes.toBytes(1L));
+			Assert.assertEquals(9, hg.getVertexCount());
+			batch = hg.batch();
+			try {
+				batch.addVertex(Bytes.toBytes(11L));
+				batch.removeVertex(Bytes.toBytes(11L));
+				batch.removeVertex(Bytes.toBytes(11L));
+			} finally {
+				batch.close();
+			}
+			Assert.assertEquals(9, hg.getVertexCount());
+			hg.addVertex(Bytes.toBytes(2L));
+			Assert.assertEquals(9, hg.getVertexCount());
+			
+			hg.addVertex(Bytes.toBytes(12L));
+			hg.addEdge(null, Bytes.toBytes(12L), Bytes.toBytes(12L));
+			hg.addEdge(null, Bytes.toBytes(12L), Bytes.toBytes(2L));
+			Assert.assertEquals(10, hg.getVertexCount());
+			Assert.assertEquals(10, hg.getEdgeCount());
+			hg.removeVertex(Bytes.toBytes(12L));
+			Assert.assertEquals(9, hg.getVertexCount());
+			Assert.assertEquals(8, hg.getEdgeCount());
+			
+			hg.setTransactional(true);
+			try {
+				hg.addVertex(Bytes.toBytes(10L));
+				hg.addEdge(null, Bytes.toBytes(10L), Bytes.toBytes(2L));
+				Assert.assertEquals(10, hg.getVertexCount());
+				Assert.assertEquals(9, hg.getEdgeCount());
+				hg.rollback();
+				Assert.assertEquals(9, hg.getVertexCount());
+			} finally {
+				hg.setTransactional(false);
+			}
+			
+			HTableInterface table = hg.table(hg.metaTable);
+			try {
+				Put p = new Put(Bytes.add(GConstants.META_COUNT_ROW, new byte[] {3}));
+				p.add(GConstants.META_CF, GConstants.META_VERTICES_Q, Bytes.toBytes(100L));
+				table.put(p);
+			} finally {
+				hg.repool(table);
+			}
+			Assert.assertEquals(109, hg.getVertexCount());
+			hg.recountElements();
+			Assert.assertEquals(9, hg.getVertexCount());
+			Assert.assertEquals(8, hg.getEdgeCount());
+			
+			hg.installCountEndpoint();
+			hg.removeEdge(hg.getEdgesOut(Bytes.toBytes(0L)).iterator().next()[1]);
+			hg.recountElements();
+			Assert.assertEquals(9, hg.getVertexCount());
+			Assert.assertEquals(7, hg.getEdgeCount());
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testWideProperties() throws Exception {
+		byte[] foo = Bytes.toBytes("foo");
+		byte[] bar = Bytes.toBytes("bar");
+		byte[] qux = Bytes.toBytes("qux");
+		
+		Configuration wide = new Configuration(conf);
+		wide.setBoolean(HRawGraph.WIDE_PROPERTIES, true);
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("wide"), wide);
+		hg.createTables();
+		try {
+			Assert.assertTrue(hg.isWideProperties());
+			HRawGraph reopened = new HRawGraph(Bytes.toBytes("wide"), conf);
+			try {
+				Assert.assertTrue(reopened.isWideProperties());
+			} finally {
+				reopened.shutdown();
+			}
+			hg.createIndex(foo);
+			
+			byte[] v1 = hg.addVertex(Bytes.toBytes(1L));
+			byte[] v2 = hg.addVertex(Bytes.toBytes(2L));
+			Map<byte[], byte[]> properties = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+			properties.put(foo, bar);
+			properties.put(qux, qux);
+			HRawBatch batch = hg.batch();
+			try {
+				batch.setVertexProperties(v1, properties);
+			} finally {
+				batch.close();
+			}
+			hg.setVertexProperty(v2, foo, qux);
+			
+			Assert.assertArrayEquals(bar, hg.getVertexProperty(v1, foo));
+			Assert.assertEquals(2, Iterables.size(hg.getVertexProperties(v1)));
+			Assert.assertArrayEquals(new byte[][] {bar, qux}, hg.getVertexProperties(Arrays.asList(v1, v2), foo));
+			Assert.assertArrayEquals(v1, Iterables.getOnlyElement(hg.getIndexedVertices(foo, bar))[2]);
+			Assert.assertArrayEquals(v2, Iterables.getOnlyElement(hg.getVerticesWithProperty(foo, qux)));
+			Assert.assertArrayEquals(v1, Iterables.getOnlyElement(hg.getVerticesWithProperty(qux, qux)));
+			
+			Assert.assertTrue(hg.checkAndSetVertexProperty(v2, foo, qux, bar));
+			Assert.assertFalse(hg.checkAndSetVertexProperty(v2, foo, qux, bar));
+			Assert.assertEquals(2, Iterables.size(hg.getIndexedVertices(foo, bar)));
+			hg.upsertVertexProperty(v1, foo, null);
+			Assert.assertNull(hg.getVertexProperty(v1, foo));
+			Assert.assertEquals(1, Iterables.size(hg.getIndexedVertices(foo, bar)));
+			
+			byte[] eid = hg.addEdge(null, v1, v2);
+			hg.setEdgeProperty(eid, foo, bar);
+			hg.setEdgeProperty(eid, qux, qux);
+			Assert.assertEquals(2, hg.getEdgeProperties(Arrays.asList(eid)).get(0).size());
+			hg.removeVertex(v1);
+			Assert.assertEquals(0, Iterables.size(hg.getVertexProperties(v1)));
+			Assert.assertEquals(0, Iterables.size(hg.getEdgeProperties(eid)));
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testColocatedVertices() throws Exception {
+		byte[] foo = Bytes.toBytes("foo");
+		byte[] bar = Bytes.toBytes("bar");
+		byte[] knows = Bytes.toBytes("knows");
+		
+		Configuration colocated = new Configuration(conf);
+		colocated.setBoolean(HRawGraph.COLOCATED_VERTICES, true);
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("colocated"), colocated);
+		hg.createTables();
+		try {
+			Assert.assertTrue(hg.isColocatedVertices());
+			HBaseAdmin admin = new HBaseAdmin(conf);
+			try {
+				Assert.assertFalse(admin.tableExists(Bytes.add(hg.getPrefix(), GConstants.VTXP_TABLE)));
+			} finally {
+				admin.close();
+			}
+			
+			byte[] v1 = hg.addVertex(Bytes.toBytes(1L));
+			byte[] v2 = hg.addVertex(Bytes.toBytes(2L));
+			byte[] v3 = hg.addVertex(Bytes.toBytes(3L));
+			hg.setVertexProperty(v1, foo, bar);
+			Assert.assertArrayEquals(bar, hg.getVertexProperty(v1, foo));
+			Assert.assertArrayEquals(v1, Iterables.getOnlyElement(hg.getVerticesWithProperty(foo, bar)));
+			byte[] e12 = hg.addEdge(null, v1, v2, knows);
+			hg.addEdge(null, v1, v3, knows);
+			byte[] e31 = hg.addEdge(null, v3, v1);
+			
+			HRawVertex v = hg.getVertexNeighborhood(v1, Integer.MAX_VALUE);
+			Assert.assertTrue(v.exists());
+			Assert.assertEquals(1, v.getProperties().size());
+			Assert.assertArrayEquals(foo, v.getProperties().get(0)[0]);
+			Assert.assertEquals(2, v.getEdgesOut().size());
+			Assert.assertEquals(1, v.getEdgesIn().size());
+			Assert.assertArrayEquals(e31, v.getEdgesIn().get(0)[1]);
+			Assert.assertArrayEquals(v3, v.getEdgesIn().get(0)[0]);
+			Assert.assertArrayEquals(hg.getLabelId(knows), v.getEdgesOut().get(0)[3]);
+			Assert.assertEquals(1, hg.getVertexNeighborhood(v1, 1).getEdgesOut().size());
+			Assert.assertEquals(0, hg.getVertexNeighborhood(v2, 1).getProperties().size());
+			Assert.assertEquals(1, hg.getVertexNeighborhood(v2, 1).getEdgesIn().size());
+			
+			hg.removeEdge(e12);
+			hg.removeVertex(v1);
+			v = hg.getVertexNeighborhood(v1, Integer.MAX_VALUE);
+			Assert.assertFalse(v.exists());
+			Assert.assertEquals(0, v.getProperties().size());
+			Assert.assertEquals(0, v.getEdgesOut().size() + v.getEdgesIn().size());
+			Assert.assertEquals(2, Iterables.size(hg.getAllVertices()));
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testReadCache() throws Exception {
+		byte[] foo = Bytes.toBytes("foo");
+		byte[] bar = Bytes.toBytes("bar");
+		byte[] qux = Bytes.toBytes("qux");
+		
+		Configuration cached = new Configuration(conf);
+		cached.setLong(HRawGraph.CACHE_SIZE, 1024 * 1024);
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("cache"), cached);
+		hg.createTables();
+		HRawGraph other = new HRawGraph(Bytes.toBytes("cache"), conf);
+		try {
+			GReadCache cache = hg.getReadCache();
+			Assert.assertNotNull(cache);
+			byte[] v1 = hg.addVertex(Bytes.toBytes(1L));
+			byte[] v2 = hg.addVertex(Bytes.toBytes(2L));
+			hg.setVertexProperty(v1, foo, bar);
+			
+			Assert.assertArrayEquals(bar, hg.getVertexProperty(v1, foo));
+			long misses = cache.getMissCount();
+			Assert.assertArrayEquals(bar, hg.getVertexProperty(v1, foo));
+			Assert.assertEquals(1, Iterables.size(hg.getVertexProperties(v1)));
+			Assert.assertEquals(misses, cache.getMissCount());
+			Assert.assertEquals(2, cache.getHitCount());
+			
+			hg.setVertexProperty(v1, foo, qux);
+			Assert.assertArrayEquals(qux, hg.getVertexProperty(v1, foo));
+			other.setVertexProperty(v1, foo, bar);
+			Assert.assertArrayEquals(qux, hg.getVertexProperty(v1, foo));
+			
+			Assert.assertEquals(0, Iterables.size(hg.getEdgesOut(v1)));
+			byte[] eid = hg.addEdge(null, v1, v2, foo);
+			Assert.assertEquals(1, Iterables.size(hg.getEdgesOut(v1)));
+			Assert.assertEquals(1, Iterables.size(hg.getEdgesOut(v1, foo)));
+			Assert.assertEquals(1, Iterables.size(hg.getEdgesIn(v2)));
+			Assert.assertEquals(1, Iterables.size(hg.getEdgesOut(v1, null, 1)));
+			hg.removeEdge(eid);
+			Assert.assertEquals(0, Iterables.size(hg.getEdgesOut(v1)));
+			Assert.assertEquals(0, Iterables.size(hg.getEdgesOut(v1, foo)));
+			Assert.assertEquals(0, Iterables.size(hg.getEdgesIn(v2)));
+			
+			hg.setEdgeProperty(eid, foo, bar);
+			Assert.assertArrayEquals(bar, hg.getEdgeProperty(eid, foo));
+			hg.upsertEdgeProperty(eid, foo, null);
+			Assert.assertNull(hg.getEdgeProperty(eid, foo));
+			
+			hg.removeVertex(v1);
+			Assert.assertEquals(0, Iterables.size(hg.getVertexProperties(v1)));
+			Assert.assertTrue(cache.getHitRate() > 0);
+		} finally {
+			other.shutdown();
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testReadCacheConcurrentWrites() throws Exception {
+		final byte[] foo = Bytes.toBytes("foo");
+		
+		Configuration cached = new Configuration(conf);
+		cached.setLong(HRawGraph.CACHE_SIZE, 1024 * 1024);
+		final HRawGraph hg = new HRawGraph(Bytes.toBytes("cache"), cached);
+		hg.createTables();
+		ExecutorService exec = Executors.newFixedThreadPool(4);
+		try {
+			final byte[] v1 = hg.addVertex(Bytes.toBytes(1L));
+			final byte[] v2 = hg.addVertex(Bytes.toBytes(2L));
+			final AtomicBoolean done = new AtomicBoolean();
+			List<Future<Void>> readers = new ArrayList<>();
+			for(int i = 0; i < 4; i++) {
+				readers.add(exec.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						while(!done.get()) {
+							hg.getVertexProperty(v1, foo);
+							Iterables.size(hg.getEdgesOut(v1));
+						}
+						return null;
+					}
+				}));
+			}
+			for(int i = 0; i < 100; i++) {
+				hg.setVertexProperty(v1, foo, Bytes.toBytes(i));
+				hg.addEdge(null, v1, v2, foo);
+			}
+			done.set(true);
+			for(Future<Void> f : readers)
+				f.get();
+			Assert.assertArrayEquals(Bytes.toBytes(99), hg.getVertexProperty(v1, foo));
+			Assert.assertEquals(100, Iterables.size(hg.getEdgesOut(v1)));
+		} finally {
+			exec.shutdown();
+			hg.dropTables();
+			hg.shutdown();
+		}
+	}
+	
+	@Test
+	public void testAdjacencyStore() throws Exception {
+		byte[] foo = Bytes.toBytes("foo");
+		byte[] bar = Bytes.toBytes("bar");
+		
+		Configuration stored = new Configuration(conf);
+		stored.setLong(HRawGraph.ADJACENCY_STORE_SIZE, 1024 * 1024);
+		HRawGraph hg = new HRawGraph(Bytes.toBytes("store"), stored);
+		hg.createTables();
+		try {
+			GAdjacencyStore store = hg.getAdjacencyStore();
+			Assert.assertNotNull(store);
+			byte[] v1 = hg.addVertex(Bytes.toBytes(1L));
+			byte[] v2 = hg.addVertex(Bytes.toBytes(2L));
+			byte[] e1 = hg.addEdge(null, v1, v2, foo);
+			byte[] e2 = hg.addEdge(null, v2, v1, bar);
+			
+			byte[][] out = Iterables.getOnlyElement(hg.getEdgesOut(v1));
+			Assert.assertEquals(1, store.getMissCount());
+			Assert.assertTrue(Arrays.deepEquals(out, Iterables.getOnlyElement(hg.getEdgesOut(v1))));
+			Assert.assertEquals(1, store.getHitCount());
+			Assert.assertArrayEquals(v1, out[0]);
+			Assert.assertArrayEquals(e1, out[1]);
+			Assert.assertArrayEquals(v2, out[2]);
+			
+			byte[][] in = Iterables.getOnlyElement(hg.getEdgesIn(v1));
+			Assert.assertTrue(Arrays.deepEquals(in, Iterables.getOnlyElement(hg.getEdgesIn(v1))));
+			Assert.assertArrayEquals(v2, in[0]);
+			Assert.assertArrayEquals(e2, in[1]);
+			Assert.assertArrayEquals(v1, in[2]);
+			Assert.assertEquals(1, Iterables.size(hg.getEdgesIn(v1, bar)));
+			Assert.assertEquals(0, Iterables.size(hg.getEdgesIn(v1, foo)));
+			
+			hg.removeEdge(e1);
+			Assert.assertEquals(0, Iterables.size(hg.getEdgesOut(v1)));
+			hg.addEdge(null, v1, v2, bar);
+			Assert.assertEquals(1, Iterables.size(hg.getEdgesOut(v1, bar)));
+			Assert.assertEquals(2, Iterables.size(hg.getEdgesIn(v2)));
+			Assert.assertTrue(store.size() > 0);
+		} finally {
+			hg.dropTables();
+			hg.shutdown();
+		}
+		Assert.assertEquals(0, hg.getAdjacencyStore().size());
+	}
 }
+